@@ -16,24 +16,29 @@
 
 package life.qbic.components;
 
-import ch.ethz.sis.openbis.generic.asapi.v3.dto.project.Project;
 import com.vaadin.data.Container;
 import com.vaadin.data.Item;
 import com.vaadin.data.Property;
 import com.vaadin.data.util.BeanItemContainer;
 import com.vaadin.event.FieldEvents;
 import com.vaadin.server.FontAwesome;
+import com.vaadin.shared.ui.combobox.FilteringMode;
 import com.vaadin.ui.*;
 import com.vaadin.ui.themes.ValoTheme;
 
+import java.io.Serializable;
 import java.math.BigDecimal;
-import java.util.List;
 import life.qbic.dbase.Database;
+import life.qbic.model.PackageSummary;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import life.qbic.dbase.OpenBisProxy;
 import org.apache.logging.log4j.Logger;
@@ -132,11 +137,16 @@ final class OfferGeneratorTab {
 		return addPackLayout;
 	}
 
+	/**
+	 * lets the combo box show the codes of the openBIS projects. The codes are looked up page by page in the project
+	 * index shared by all sessions, so the combo box only ever holds the page shown to the user
+	 * @param comboBox: combo box for selecting the project
+	 */
 	private static void fillSelectedProjectComboBox(final ComboBox comboBox)  {
-		final List<Project> projects = OpenBisProxy.getInstance().getProjects();
-		for (final Project project : projects) {
-			comboBox.addItem(project.getCode());
-		}
+		comboBox.setContainerDataSource(new ProjectCodeContainer());
+		comboBox.setItemCaptionMode(AbstractSelect.ItemCaptionMode.PROPERTY);
+		comboBox.setItemCaptionPropertyId(ProjectCodeContainer.CODE);
+		comboBox.setFilteringMode(FilteringMode.CONTAINS);
 	}
 
 	/**
@@ -158,9 +168,8 @@ final class OfferGeneratorTab {
 			Label packageDescriptionLabel, TextField twinColSelectFilter, Button refreshButton) {
 
 		final float[] totalPrice = new float[1];
-		final String[] descriptionText = new String[1];
-		final String[][] offerGeneratorPackageNames = new String[1][1];
 		final String[][] offerGeneratorPackageIds = new String[1][1];
+		final SelectedPackages selectedPackages = new SelectedPackages();
 
 		selectedProjectComboBox.addValueChangeListener(new Property.ValueChangeListener() {
 
@@ -196,78 +205,54 @@ final class OfferGeneratorTab {
 			@Override
 			public void valueChange(Property.ValueChangeEvent event) {
 
-				// get the packages (package_id: package_name) as comma separated string and remove the leading and trailing bracket
-				String selectedPackages = selectPackagesTwinColSelect.getValue().toString().substring(1);
-				selectedPackages = selectedPackages.substring(0, selectedPackages.length() - 1);
+				// the selected packages as "package_id: package_name"
+				Collection<?> selection = (Collection<?>) selectPackagesTwinColSelect.getValue();
 
-				// in case there is no package selected, we do nothing
-				if (selectedPackages.length() == 0) {
+				// in case there is no package selected, there is nothing to complete
+				if (selection == null || selection.isEmpty()) {
+					selectedPackages.clear();
+					totalPrice[0] = 0;
+					offerGeneratorPackageIds[0] = new String[0];
+					completeButton.setEnabled(false);
+					packageDescriptionLabel.setValue("Package details will appear here!");
 					return;
 				}
 
-				// init the arrays holding the package names and package ids
-				offerGeneratorPackageNames[0] = selectedPackages.split(",");
-				offerGeneratorPackageIds[0] = selectedPackages.split(",");
-
 				// split the package id and the package name
-				for (int i = 0; i < offerGeneratorPackageNames[0].length; i++) {
-					offerGeneratorPackageIds[0][i] = offerGeneratorPackageIds[0][i].split(": ", 2)[0];
-					offerGeneratorPackageNames[0][i] = offerGeneratorPackageNames[0][i].split(": ", 2)[1];
+				Map<String, Integer> selectedIds = new LinkedHashMap<>();
+				for (Object packageIdAndName : selection) {
+					selectedIds.put(packageIdAndName.toString(),
+							Integer.valueOf(packageIdAndName.toString().split(": ", 2)[0].trim()));
 				}
-
-				// TODO: value change listener does not trigger if the last element from the twin col select gets deselected
-				System.out.println("packages in twin col select:");
-				System.out.println(selectPackagesTwinColSelect.getValue());
-
-				// there is a package for the current project, so we enable the complete offer button
-				if (selectPackagesTwinColSelect.getValue() != null) {
-					completeButton.setEnabled(true);
-				} else {
-					completeButton.setEnabled(false);
+				offerGeneratorPackageIds[0] = new String[selectedIds.size()];
+				int i = 0;
+				for (Integer packageId : selectedIds.values()) {
+					offerGeneratorPackageIds[0][i++] = packageId.toString();
 				}
 
-				assert offerGeneratorPackageNames[0].length == offerGeneratorPackageIds[0].length;
-
-				// iterate over all of the packages for the current offer and add their price and description to the view
-				descriptionText[0] = "";
-				totalPrice[0] = 0;
-				for (int i = 0; i < offerGeneratorPackageNames[0].length; i++) {
-
-					int currentPackageId = Integer.valueOf(offerGeneratorPackageIds[0][i].trim());
-
-					// calculate the total offer price
-					try {
-						totalPrice[0] +=
-								Float.parseFloat(db.getPriceFromPackageId(currentPackageId, "internal"));
-					} catch (NullPointerException e) {
-						displayNotification("Package price is null!", "The package price of the package "
-								+ offerGeneratorPackageIds[0][i] + ": " + offerGeneratorPackageNames[0][i] + " is null. Please remove the "
-								+ "package from the offer or update the " + "package price on the package manager tab. Otherwise "
-								+ "bad stuff is expected to happen..", "error");
+				// there is a package for the current project, so we enable the complete offer button
+				completeButton.setEnabled(true);
+
+				// only the packages which have been added since the last change need to be looked up, the details of the
+				// others are still known
+				Map<String, Integer> addedIds = selectedPackages.retainAndGetAdded(selectedIds);
+				if (!addedIds.isEmpty()) {
+					Map<Integer, PackageSummary> addedPackages = db.getPackageSummaries(addedIds.values());
+					for (Map.Entry<String, Integer> added : addedIds.entrySet()) {
+						PackageSummary pack = addedPackages.get(added.getValue());
+						if (pack == null || pack.getPriceInternal() == null) {
+							displayNotification("Package price is null!", "The package price of the package "
+									+ added.getKey() + " is null. Please remove the "
+									+ "package from the offer or update the " + "package price on the package manager tab. Otherwise "
+									+ "bad stuff is expected to happen..", "error");
+						}
+						selectedPackages.add(added.getKey(), pack);
 					}
-
-					// get the description for the current package
-					descriptionText[0] =
-							descriptionText[0]
-									+ "<tr><td><p><b>"
-									+ offerGeneratorPackageIds[0][i] + ": " + offerGeneratorPackageNames[0][i]
-											+ "</b><br>"
-											+ db.getPackageDescriptionFromPackageId(currentPackageId)
-											+ "</td><td align='right' valign='top'>€"
-											+ db.getPriceFromPackageId(currentPackageId, "internal") + "</td>" + "</p></tr>";
-
-					// add the description and the total price to the view
-					if (offerGeneratorPackageNames[0][i].length() != 0)
-						packageDescriptionLabel
-						.setValue("<table width='100%'><tr><td><p style='color:red;'><b>Package Name and Description</b></p>" +
-								"</td><td align='right'><p style='color:red;'><b>Price</b></p></td></tr><tr> </tr>"
-								+ descriptionText[0]
-										+ "<tr><td><p style='color:red;'><b>Grand Total</b> (excl. Taxes)</p></td><td align='right'>" +
-										"<p style='color:red;'><b>"
-										+ qOfferManagerUtils.formatCurrency(Float.toString(totalPrice[0])) + "</b></p></td></tr></table>");
-					else
-						packageDescriptionLabel.setValue("No description available!");
 				}
+
+				// add the description and the total price to the view
+				totalPrice[0] = selectedPackages.getTotal().floatValue();
+				packageDescriptionLabel.setValue(selectedPackages.renderDetails(selectedIds.keySet()));
 			}
 
 		});
@@ -311,6 +296,13 @@ final class OfferGeneratorTab {
 				String offerFacility = db.getPIFromProjectRef(offerProjectReference);
 				String offerName = db.getShortTitleFromProjectRef(offerProjectReference);
 				String offerDescription = OpenBisProxy.getInstance().getProjectDescription(offerProjectReference);
+				// collect the packages of the current offer, so they are stored together with the offer
+				Map<Integer, BigDecimal> packageUnitPrices = new LinkedHashMap<>();
+				for (String packageId : offerGeneratorPackageIds[0]) {
+					int currentPackageId = Integer.valueOf(packageId.trim()); //remove whitespaces -> error
+					packageUnitPrices.put(currentPackageId,
+							new BigDecimal(db.getPriceFromPackageId(currentPackageId, "internal")));
+				}
 				int offerId;
 				
 				LOG.info("is liferayPortlet()? "+PortalUtils.isLiferayPortlet());
@@ -319,24 +311,20 @@ final class OfferGeneratorTab {
 					offerId =
 							db.registerNewOffer(offerNumber, offerProjectReference, offerFacility, offerName,
 									offerDescription, totalPrice[0], new Date(),
-									PortalUtils.getUser().getScreenName(), true);//externalPriceSelectedCheckBox.getValue() -> has no functionallity anymore
+									PortalUtils.getUser().getScreenName(), true, packageUnitPrices);//externalPriceSelectedCheckBox.getValue() -> has no functionallity anymore
 				}else {
 					// register the new offer in the database; NOTE: internal has no functionality anymore, so we simply set it to
 					// true
 					offerId =
 							db.registerNewOffer(offerNumber, offerProjectReference, offerFacility, offerName,
-									offerDescription, totalPrice[0], new Date(), "temp", true);				
+									offerDescription, totalPrice[0], new Date(), "temp", true, packageUnitPrices);				
 				}
 
 
-				// iterate over the packages from the current offer and insert them also in the database
-				for (String packageId : offerGeneratorPackageIds[0]) {
-					//here NullPointer Exception
-					LOG.info("packageID "+packageId);
-					packageId = packageId.trim(); //remove whitespaces -> error
-					int currentPackageId = Integer.valueOf(packageId);
-					BigDecimal packageUnitPrice = new BigDecimal(db.getPriceFromPackageId(currentPackageId, "internal"));
-					db.insertOrUpdateOffersPackages(offerId, currentPackageId, packageUnitPrice);
+				if (offerId == 0) {
+					displayNotification("Offer not saved", "The offer could not be saved in the "
+							+ "Database, nothing has been stored. Please try again.", "error");
+					return;
 				}
 
 				displayNotification(
@@ -350,4 +338,80 @@ final class OfferGeneratorTab {
 			}
 		});
 	}
+
+	/**
+	 * the packages currently selected in the offer generator together with their row of the package details and the
+	 * running total, so a change of the selection only needs to look up the packages which have been added
+	 */
+	private static final class SelectedPackages implements Serializable {
+
+		private static final long serialVersionUID = -6358210771938420275L;
+
+		// "package_id: package_name" -> row of the package details table
+		private final Map<String, String> detailRows = new HashMap<>();
+		// "package_id: package_name" -> internal price of the package
+		private final Map<String, BigDecimal> prices = new HashMap<>();
+		private BigDecimal total = BigDecimal.ZERO;
+
+		/**
+		 * drops the packages which are no longer selected
+		 * @param selection: "package_id: package_name" -> package_id of the selected packages
+		 * @return the packages of the selection which are not known yet
+		 */
+		Map<String, Integer> retainAndGetAdded(Map<String, Integer> selection) {
+			Iterator<Map.Entry<String, BigDecimal>> known = prices.entrySet().iterator();
+			while (known.hasNext()) {
+				Map.Entry<String, BigDecimal> entry = known.next();
+				if (!selection.containsKey(entry.getKey())) {
+					total = total.subtract(entry.getValue());
+					detailRows.remove(entry.getKey());
+					known.remove();
+				}
+			}
+			Map<String, Integer> added = new LinkedHashMap<>(selection);
+			added.keySet().removeAll(prices.keySet());
+			return added;
+		}
+
+		/**
+		 * @param packageIdAndName: "package_id: package_name" as shown in the selection
+		 * @param pack: the package or null if it does not exist anymore
+		 */
+		void add(String packageIdAndName, PackageSummary pack) {
+			BigDecimal price = pack == null || pack.getPriceInternal() == null ? BigDecimal.ZERO : pack.getPriceInternal();
+			prices.put(packageIdAndName, price);
+			total = total.add(price);
+			detailRows.put(packageIdAndName, "<tr><td><p><b>" + packageIdAndName + "</b><br>"
+					+ (pack == null ? "N/A" : pack.getPackageDescription())
+					+ "</td><td align='right' valign='top'>€"
+					+ (pack == null || pack.getPriceInternal() == null ? "N/A" : pack.getPriceInternal().toPlainString())
+					+ "</td>" + "</p></tr>");
+		}
+
+		void clear() {
+			detailRows.clear();
+			prices.clear();
+			total = BigDecimal.ZERO;
+		}
+
+		BigDecimal getTotal() {
+			return total;
+		}
+
+		/**
+		 * @param selection: the selected packages in the order they should be shown
+		 * @return html table with the name, description and price of the packages and the grand total
+		 */
+		String renderDetails(Collection<String> selection) {
+			StringBuilder details = new StringBuilder("<table width='100%'><tr><td><p style='color:red;'>"
+					+ "<b>Package Name and Description</b></p></td><td align='right'><p style='color:red;'><b>Price</b></p>"
+					+ "</td></tr><tr> </tr>");
+			for (String packageIdAndName : selection) {
+				details.append(detailRows.get(packageIdAndName));
+			}
+			return details.append("<tr><td><p style='color:red;'><b>Grand Total</b> (excl. Taxes)</p></td><td align='right'>")
+					.append("<p style='color:red;'><b>").append(qOfferManagerUtils.formatCurrency(total.toPlainString()))
+					.append("</b></p></td></tr></table>").toString();
+		}
+	}
 }
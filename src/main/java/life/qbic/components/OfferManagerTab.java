@@ -18,6 +18,7 @@ package life.qbic.components;
 
 import java.util.concurrent.*;
 
+import com.vaadin.data.Item;
 import com.vaadin.data.Property;
 import com.vaadin.data.util.sqlcontainer.SQLContainer;
 import com.vaadin.data.util.sqlcontainer.query.TableQuery;
@@ -26,8 +27,14 @@ import com.vaadin.shared.data.sort.SortDirection;
 import com.vaadin.ui.*;
 import life.qbic.CustomWindow.WindowFactory;
 import life.qbic.dbase.Database;
+import life.qbic.model.OfferLine;
+import life.qbic.utils.ConfigurationUtils;
+import life.qbic.utils.ContentControlTemplate;
 import life.qbic.utils.Docx4jUtils;
+import life.qbic.utils.DocumentGenerationService;
+import life.qbic.utils.OfferDocumentCache;
 import life.qbic.utils.RefreshableGrid;
+import life.qbic.utils.StreamingDownloader;
 import life.qbic.utils.TimeUtils;
 
 import org.apache.logging.log4j.LogManager;
@@ -38,18 +45,22 @@ import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
 import org.vaadin.gridutil.cell.GridCellFilter;
 
 import java.io.*;
-import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.function.BiConsumer;
+
+import javax.sql.DataSource;
 
 import static life.qbic.utils.XMLUtils.*;
 import static life.qbic.utils.qOfferManagerUtils.*;
+import static life.qbic.utils.TableExporter.*;
 
 final class OfferManagerTab {
 
-  private FileDownloader fileDownloader;
-  private FileDownloader exportFileDownloader;
+  private StreamingDownloader fileDownloader;
+  private StreamingDownloader exportFileDownloader;
   private RefreshableGrid offerManagerGrid;
   private VerticalLayout detailsLayout;
   private ComboBox packageGroupComboBox;
@@ -60,6 +71,14 @@ final class OfferManagerTab {
   private Window deleteWarning;
   private Layout notificationLayout;
   private SQLContainer offersContainer;
+  // background generation of the document of the selected offer, null if there is none
+  private volatile SpeculativeGeneration speculativeGeneration;
+
+  private static final String DOCX_MIME_TYPE =
+      "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+
+  private static final boolean SPECULATIVE_GENERATION =
+      ConfigurationUtils.getBoolean("qoffer.generation.speculative", false);
 
 
   private static final Logger LOG = LogManager.getLogger(OfferManagerTab.class);
@@ -134,16 +153,22 @@ final class OfferManagerTab {
     exportTableButton.setIcon(FontAwesome.DOWNLOAD);
     exportTableButton.setDescription("Click here to export the table as .csv file.");
 
+    Button exportXlsxButton = new Button("Export as .xlsx");
+    exportXlsxButton.setIcon(FontAwesome.FILE_EXCEL_O);
+    exportXlsxButton.setDescription("Click here to export the table as .xlsx file.");
+
     editSettingsLayout.addComponent(updateStatus);
     editSettingsLayout.addComponent(updateButton);
     editSettingsLayout.addComponent(deleteOfferButton);
     editSettingsLayout.addComponent(packageGroupComboBox);
     editSettingsLayout.addComponent(exportTableButton);
+    editSettingsLayout.addComponent(exportXlsxButton);
 
     editSettingsLayout.setComponentAlignment(updateButton, Alignment.BOTTOM_CENTER);
     editSettingsLayout.setComponentAlignment(deleteOfferButton, Alignment.BOTTOM_CENTER);
     editSettingsLayout.setComponentAlignment(packageGroupComboBox, Alignment.BOTTOM_CENTER);
     editSettingsLayout.setComponentAlignment(exportTableButton, Alignment.BOTTOM_CENTER);
+    editSettingsLayout.setComponentAlignment(exportXlsxButton, Alignment.BOTTOM_CENTER);
 
     final Button validateOfferButton = new Button("Validate offer");
     validateOfferButton.setDescription("Download button will be active once offer is validated");
@@ -153,7 +178,7 @@ final class OfferManagerTab {
     generateOfferButton.setIcon(FontAwesome.DOWNLOAD);
     generateOfferButton.setDescription("Offer must be first validated!");
     generateOfferButton.setEnabled(false);
-    fileDownloader = new FileDownloader(new FileResource(new File("temporary_name")));
+    fileDownloader = new StreamingDownloader("offer.docx", DOCX_MIME_TYPE, null);
     fileDownloader.extend(generateOfferButton);
 
     offerManLayout.setMargin(true);
@@ -188,7 +213,7 @@ final class OfferManagerTab {
     LOG.info("init listeners");
 
     addListeners(db, updateStatus, updateButton, deleteOfferButton, generateOfferButton,
-        offersContainer, exportTableButton, validateOfferButton, proceedButton);
+        offersContainer, exportTableButton, exportXlsxButton, validateOfferButton, proceedButton);
 
     offerManagerGrid.getColumn("offer_id").setHeaderCaption("Id").setWidth(100).setEditable(false);
     offerManagerGrid.getColumn("offer_number").setHeaderCaption("Quotation Number").setWidth(200)
@@ -265,21 +290,13 @@ final class OfferManagerTab {
    * @param generateOfferButton: button for printing an offer
    * @param container: sql container holding the data from the database
    * @param exportTableButton: button for exporting the grid as csv
+   * @param exportXlsxButton: button for exporting the grid as xlsx
    * @param validateOfferButton: button to validate offers
    */
   private void addListeners(Database db, ComboBox updateStatusComboBox, Button updateButton,
       Button deleteOfferButton, Button generateOfferButton, SQLContainer container,
-      Button exportTableButton, Button validateOfferButton, Button proceed) {
-
-    // several lists holding the package names, descriptions, prices, etc. for the current offer
-    List<String> packageNames = qOfferManager.getPackageNames();
-    List<String> packageDescriptions = qOfferManager.getPackageDescriptions();
-    List<String> packageCounts = qOfferManager.getPackageCounts();
-    List<String> packageUnitPrices = qOfferManager.getPackageUnitPrices();
-    List<String> packageTotalPrices = qOfferManager.getPackageTotalPrices();
-    List<String> packageIDs = qOfferManager.getPackageIDs();
-    List<Integer> discounts = qOfferManager.getDiscounts();
-    List<String> discountedPrices = qOfferManager.getDiscountedPrices();
+      Button exportTableButton, Button exportXlsxButton, Button validateOfferButton,
+      Button proceed) {
 
     offerManagerGrid.addSelectionListener(selectionEvent -> {
       generateOfferButton.setEnabled(false);
@@ -313,7 +330,7 @@ final class OfferManagerTab {
         detailsLayout.removeAllComponents();
         try {
           detailsLayout.addComponent(
-              offerManagerTabPackageComponent.createOfferManagerTabPackageComponent(container,
+              offerManagerTabPackageComponent.createOfferManagerTabPackageComponent(
                   container.getItem(selected).getItemProperty("offer_id").getValue().toString(),
                   "All"));
 
@@ -321,6 +338,7 @@ final class OfferManagerTab {
           e.printStackTrace();
         }
       }
+      startSpeculativeGeneration(selected, db);
     });
 
     updateButton.addClickListener(new Button.ClickListener() {
@@ -405,7 +423,7 @@ final class OfferManagerTab {
       detailsLayout.removeAllComponents();
       try {
         detailsLayout.addComponent(
-            offerManagerTabPackageComponent.createOfferManagerTabPackageComponent(container,
+            offerManagerTabPackageComponent.createOfferManagerTabPackageComponent(
                 container.getItem(selected).getItemProperty("offer_id").getValue().toString(),
                 selectedPackageGroup));
 
@@ -420,32 +438,86 @@ final class OfferManagerTab {
       validationWindow = validation.getWindow(true);
       notificationLayout = validation.getContentLayout(); // can only be returned when Window is
                                                           // returned and Content is created
+      Layout validationLayout = notificationLayout;
+      UI ui = UI.getCurrent();
+      ui.addWindow(validationWindow);
+
+      Object selected = offerManagerGrid.getSelectedRow();
+      if (selected == null) {
+        WindowFactory.addNotification("failure", "Please make sure that you select an offer.",
+            validationLayout);
+        validation.enableButton(validation.getCloseButton(), true);
+        return;
+      }
+
+      // since we take the package specific values from the grid showing the packages for the
+      // current offers, we need to check whether all packages are displayed or e.g. only the
+      // sequencing packages
+      if (!packageGroupComboBox.getValue().toString().equals("All")) {
+        packageGroupComboBox.setValue("All");
+      }
+      OfferSnapshot snapshot = takeOfferSnapshot(selected);
+
+      // the document may already have been generated in the background after the selection
+      GeneratedOffer prepared = takeSpeculativeResult(snapshot, db);
+      if (prepared != null) {
+        for (String[] notification : prepared.notifications) {
+          WindowFactory.addNotification(notification[0], notification[1], validationLayout);
+        }
+        generateOfferButton.setEnabled(offerForDownload(prepared));
+        validation.enableButton(validation.getCloseButton(), true);
+        return;
+      }
+      cancelSpeculativeGeneration();
+
       WindowFactory.addNotification("spin", "The offer is being validated please wait",
-          notificationLayout);
+          validationLayout);
 
       generateOfferButton.setEnabled(false);
       validateOfferButton.setEnabled(false);
 
-      UI.getCurrent().setPollInterval(100);
+      ui.setPollInterval(100);
 
-      UI.getCurrent().addWindow(validationWindow);
+      // the generation runs on the workers of the generation service, not on the common pool
+      DocumentGenerationService.Job<GeneratedOffer> generation;
+      try {
+        generation = DocumentGenerationService.getInstance().submit(
+            "offer " + snapshot.getOfferNumber(), () -> generateOfferFile(snapshot, db,
+                (type, message) -> ui.access(
+                    () -> WindowFactory.addNotification(type, message, validationLayout))));
+      } catch (DocumentGenerationService.QueueFullException queueFull) {
+        WindowFactory.addNotification("failure",
+            "Too many offers are being generated right now (" + queueFull.getMessage()
+                + "), please try again in a moment.",
+            validationLayout);
+        validateOfferButton.setEnabled(true);
+        validation.enableButton(validation.getCloseButton(), true);
+        ui.setPollInterval(-1);
+        return;
+      }
+      if (generation.getQueuePosition() > 0) {
+        WindowFactory.addNotification("spin",
+            "Other offers are being generated, this offer is at position "
+                + generation.getQueuePosition() + " of the queue",
+            validationLayout);
+      }
 
-      CompletableFuture.supplyAsync(() -> generateOfferFile(container, db, packageNames,
-          packageDescriptions, packageCounts, packageUnitPrices, packageTotalPrices, packageIDs,
-          discounts, discountedPrices, fileDownloader)).thenAcceptAsync(success -> {
-            if (success) {
-              UI.getCurrent().access(() -> generateOfferButton.setEnabled(true));
-            }
-            UI.getCurrent().access(() -> validateOfferButton.setEnabled(true));
-            UI.getCurrent()
-                .access(() -> validation.enableButton(validation.getCloseButton(), true));
-            UI.getCurrent().setPollInterval(-1);
-          });
+      generation.getResult().whenComplete((generated, error) -> ui.access(() -> {
+        if (error != null) {
+          WindowFactory.addNotification("failure",
+              "The offer could not be generated: " + error.getMessage(), validationLayout);
+        }
+        generateOfferButton.setEnabled(offerForDownload(generated));
+        validateOfferButton.setEnabled(true);
+        validation.enableButton(validation.getCloseButton(), true);
+        ui.setPollInterval(-1);
+      }));
 
     });
 
     try {
-      setupTableExportFunctionality(container, exportTableButton);
+      setupTableExportFunctionality(db.getDataSource(), container, exportTableButton,
+          exportXlsxButton);
     } catch (IOException e) {
       displayNotification("Whoops, something went wrong.",
           "A file could not be found, please try" + "again.", "error");
@@ -455,71 +527,160 @@ final class OfferManagerTab {
 
 
   /**
-   * adds the functionality of exporting the offer grid to the exportGridButton
+   * adds the functionality of exporting the offer grid to the export buttons
    * 
+   * @param dataSource: data source the exported rows are queried from
    * @param container: SQLContainer holding the data
-   * @param exportGridButton: button the export functionality should be added to
+   * @param exportGridButton: button the .csv export functionality should be added to
+   * @param exportXlsxButton: button the .xlsx export functionality should be added to
    * @throws IOException:
    */
-  private void setupTableExportFunctionality(SQLContainer container, Button exportGridButton)
-      throws IOException {
-    // setup the export as .csv file functionality
+  private void setupTableExportFunctionality(DataSource dataSource, SQLContainer container,
+      Button exportGridButton, Button exportXlsxButton) throws IOException {
+    // setup the export as .csv file functionality: the rows are queried with the current filters
+    // and sort order and written into the response each time the download button is pressed
+    exportFileDownloader = new StreamingDownloader(
+        "offers_" + TimeUtils.getCurrentTimestampString() + ".csv", "text/csv",
+        csvExport(dataSource, container, offerManagerGrid));
+    exportFileDownloader.extend(exportGridButton);
 
-    String timeStamp = TimeUtils.getCurrentTimestampString();
-    String filePath = Paths.get(qOfferManager.tmpFolder, "offers_" + timeStamp + ".csv").toString();
-    File tempFile = new File(filePath);
+    // the .xlsx export streams the same rows into a workbook holding only a window of them
+    StreamingDownloader xlsxFileDownloader = new StreamingDownloader(
+        "offers_" + TimeUtils.getCurrentTimestampString() + ".xlsx", XLSX_MIME_TYPE,
+        xlsxExport(dataSource, container, offerManagerGrid));
+    xlsxFileDownloader.extend(exportXlsxButton);
+  }
 
-    // File tempFile = File.createTempFile("offers", ".csv");
-    // String filePath = tempFile.getAbsolutePath();
+  /**
+   * takes the snapshot of the selected offer and the lines of its packages the document is
+   * generated from; has to be called on the UI thread
+   *
+   * @param selected: id of the selected row of the offer grid
+   */
+  private OfferSnapshot takeOfferSnapshot(Object selected) {
+    // several lists holding the package names, descriptions, prices, etc. for the current offer
+    List<String> packageNames = qOfferManager.getPackageNames();
+    List<String> packageDescriptions = qOfferManager.getPackageDescriptions();
+    List<String> packageCounts = qOfferManager.getPackageCounts();
+    List<String> packageUnitPrices = qOfferManager.getPackageUnitPrices();
+    List<String> packageTotalPrices = qOfferManager.getPackageTotalPrices();
+    List<String> packageIDs = qOfferManager.getPackageIDs();
+    List<Integer> discounts = qOfferManager.getDiscounts();
+    List<String> discountedPrices = qOfferManager.getDiscountedPrices();
 
-    // set cache time to zero so that each time the download button is pressed the file is generated
-    // new and no cached information
-    // is saved (like quantity for table content
-    FileResource resource = new FileResource(tempFile);
-    resource.setCacheTime(1000);
+    List<OfferLine> offerLines = new ArrayList<>(packageNames.size());
+    for (int i = 0; i < packageNames.size(); i++) {
+      offerLines.add(new OfferLine(packageIDs.get(i),
+          packageNames.get(i) + ": " + packageDescriptions.get(i), packageCounts.get(i),
+          formatCurrency(packageUnitPrices.get(i)), formatCurrency(packageTotalPrices.get(i)),
+          discounts.get(i), formatCurrency(discountedPrices.get(i))));
+    }
+    Item offer = offersContainer.getItem(selected);
+    // the row may be older than the offer, e.g. if it has been edited by someone else
+    String offerId = offer.getItemProperty("offer_id").getValue().toString();
+    Timestamp lastEdited = qOfferManager.getDb().getOfferLastEdited(offerId);
+    return OfferSnapshot.of(offer, lastEdited, offerLines);
+  }
 
-    exportFileDownloader = new FileDownloader(resource) {
-      @Override
-      public boolean handleConnectorRequest(VaadinRequest request, VaadinResponse response,
-          String path) throws IOException {
-        createExportContent(container, filePath, exportFileDownloader);
-        return super.handleConnectorRequest(request, response, path);
-      }
-    };
-    exportFileDownloader.extend(exportGridButton);
+  /**
+   * Starts generating the document of the selected offer in the background, if
+   * qoffer.generation.speculative [false] is set and a worker of the generation service is idle.
+   * Validating the offer afterwards serves the result right away as long as the offer has not been
+   * changed in the meantime. A generation started for the previously selected offer is cancelled.
+   *
+   * @param selected: id of the selected row of the offer grid, null if nothing is selected
+   * @param db: database instance
+   */
+  private void startSpeculativeGeneration(Object selected, Database db) {
+    cancelSpeculativeGeneration();
+    if (!SPECULATIVE_GENERATION || selected == null) {
+      return;
+    }
+    SpeculativeGeneration speculative = new SpeculativeGeneration(takeOfferSnapshot(selected));
+    speculativeGeneration = speculative;
+    speculative.job = DocumentGenerationService.getInstance().submitIfIdle(
+        "speculative offer " + speculative.snapshot.getOfferNumber(), () -> {
+          return generateOfferFile(speculative.snapshot, db, (type, message) -> {
+          });
+        });
+    if (speculative.job == null) {
+      speculativeGeneration = null;
+    }
+  }
+
+  private void cancelSpeculativeGeneration() {
+    SpeculativeGeneration speculative = speculativeGeneration;
+    speculativeGeneration = null;
+    if (speculative == null || speculative.job == null) {
+      return;
+    }
+    speculative.job.cancel();
   }
 
   /**
-   * generates the .docx file for the offer
-   * 
-   * @param container: sql container holding the offers
+   * @param snapshot: snapshot of the offer to validate
    * @param db: database instance
-   * @param packageNames: list of the package names in the offer
-   * @param packageDescriptions: list of the package descriptions in the offer
-   * @param packageCounts: list of the package counts in the offer
-   * @param packageUnitPrices: list of the package unit prices (=price for one package)
-   * @param packageTotalPrices: list of the total package prices (package_unit_price*count)*discount
-   * @param fileDownloader: file downloader for enabling the download of the file
-   * @return whether or not creating the file has worked
-   * @throws IOException
+   * @return the document generated in the background for the snapshot, null if there is none or
+   *         the offer has been changed since
    */
-  private boolean generateOfferFile(SQLContainer container, Database db, List<String> packageNames,
-      List<String> packageDescriptions, List<String> packageCounts, List<String> packageUnitPrices,
-      List<String> packageTotalPrices, List<String> packageIDs, List<Integer> discounts,
-      List<String> discountedPrices, FileDownloader fileDownloader) {
-    if (offerManagerGrid.getSelectedRow() == null) {
-      UI.getCurrent().access(() -> WindowFactory.addNotification("failure",
-          "Please make sure that you select an offer.", notificationLayout));
-      return false;
+  private GeneratedOffer takeSpeculativeResult(OfferSnapshot snapshot, Database db) {
+    SpeculativeGeneration speculative = speculativeGeneration;
+    if (speculative == null || speculative.job == null || !speculative.snapshot.equals(snapshot)) {
+      return null;
+    }
+    CompletableFuture<GeneratedOffer> result = speculative.job.getResult();
+    if (!result.isDone() || result.isCompletedExceptionally()) {
+      return null;
+    }
+    GeneratedOffer generated = result.join();
+    // the quotation number and the date in the document are those of the day of the generation
+    if (generated.content == null || !generated.day.equals(new SimpleDateFormat("yyyyMMdd").format(new Date()))) {
+      return null;
+    }
+    // the offer may have been edited since the snapshot; a never edited offer has no last_edited
+    Timestamp lastEdited = db.getOfferLastEdited(snapshot.getOfferId());
+    if (!Objects.equals(lastEdited == null ? null : lastEdited.getTime(),
+        snapshot.getLastEdited())) {
+      LOG.info("offer " + snapshot.getOfferNumber() + " changed since its speculative generation");
+      return null;
     }
+    LOG.info("serving the speculatively generated document of offer " + snapshot.getOfferNumber());
+    return generated;
+  }
 
-    // since we take the package specific values from the grid showing the packages for the current
-    // offers,
-    // we need to check whether all packages are displayed or e.g. only the sequencing packages
-    String selectedPackageGroup = packageGroupComboBox.getValue().toString();
-    if (!selectedPackageGroup.equals("All")) {
-      packageGroupComboBox.setValue("All");
+  /**
+   * lets the download button download the generated document
+   *
+   * @return whether or not there is a document to download
+   */
+  private boolean offerForDownload(GeneratedOffer generated) {
+    if (generated == null || generated.content == null) {
+      return false;
     }
+    byte[] content = generated.content;
+    // the document is written directly into the response, there is no file to serve
+    fileDownloader.setContent(generated.downloadName, out -> out.write(content));
+    return true;
+  }
+
+  /**
+   * generates the .docx file for the offer; does not touch any component, so it can be run on any
+   * thread
+   * 
+   * @param snapshot: values of the offer and lines of its packages
+   * @param db: database instance
+   * @param notify: receives the type and the text of the notifications for the user
+   * @return the generated file, without file if creating it has not worked
+   */
+  private GeneratedOffer generateOfferFile(OfferSnapshot snapshot, Database db,
+      BiConsumer<String, String> notify) {
+    String dateToday = new SimpleDateFormat("yyyyMMdd").format(new Date());
+    List<String[]> notifications = new ArrayList<>();
+    BiConsumer<String, String> notifyAndRecord = (type, message) -> {
+      notifications.add(new String[] {type, message});
+      notify.accept(type, message);
+    };
+    GeneratedOffer failed = new GeneratedOffer(null, null, dateToday, notifications);
 
     // String basePath = VaadinService.getCurrent().getBaseDirectory().getAbsolutePath();
     // TODO for templates change files here:
@@ -535,41 +696,24 @@ final class OfferManagerTab {
     // String templateFileName = basePath +
     // "/WEB-INF/resourceFiles/YYYYMMDD_PiName_QXXXX_TEMPLATE_NEW_LOGO.docx";
 
-    String clientName = container
-        .getItem(
-            ((Grid.SingleSelectionModel) offerManagerGrid.getSelectionModel()).getSelectedRow())
-        .getItemProperty("offer_facility").getValue().toString();
+    String clientName = snapshot.getClientName();
 
     // be careful when testing for non-existent entries in the database. Some are null and others
     // are just empty strings!
-    if (clientName == null | clientName.equals("NULL") | clientName.trim().equals("")) {
-      UI.getCurrent().access(() -> WindowFactory.addNotification("failure",
-          "The prospect field is empty thus no client can be found!", notificationLayout));
-      return false;
+    if (clientName == null || clientName.equals("NULL") || clientName.trim().equals("")) {
+      notifyAndRecord.accept("failure", "The prospect field is empty thus no client can be found!");
+      return failed;
     }
 
-    String offerNumber = container
-        .getItem(
-            ((Grid.SingleSelectionModel) offerManagerGrid.getSelectionModel()).getSelectedRow())
-        .getItemProperty("offer_number").getValue().toString();
+    String offerNumber = snapshot.getOfferNumber();
 
     String estimatedDeliveryWeeks = null;
-    if (container
-        .getItem(
-            ((Grid.SingleSelectionModel) offerManagerGrid.getSelectionModel()).getSelectedRow())
-        .getItemProperty("estimated_delivery_weeks").getValue() != null) {
-      estimatedDeliveryWeeks =
-          container
-              .getItem(((Grid.SingleSelectionModel) offerManagerGrid.getSelectionModel())
-                  .getSelectedRow())
-              .getItemProperty("estimated_delivery_weeks").getValue().toString() + " weeks";
+    if (snapshot.getEstimatedDeliveryWeeks() != null) {
+      estimatedDeliveryWeeks = snapshot.getEstimatedDeliveryWeeks() + " weeks";
     }
 
-    UI.getCurrent().access(() -> WindowFactory.addNotification("warn",
-        "Searching in database for client", notificationLayout));
-    LOG.info("Here");
+    notifyAndRecord.accept("warn", "Searching in database for client");
     String[] address = db.getAddressForPerson(clientName);
-    LOG.info("Or here");
     String groupAcronym = null;
     String institute = null;
     String umbrellaOrganization = null;
@@ -581,53 +725,32 @@ final class OfferManagerTab {
 
     // deal with the potential missing values and display them in the notification window
     if (address.length == 1) {
-      UI.getCurrent().access(() -> WindowFactory.addNotification("failure",
-          "Database entry for address not found!", notificationLayout));
-      return false;
+      notifyAndRecord.accept("failure", "Database entry for address not found!");
+      return failed;
     } else {
-      groupAcronym = address[0];
-      LOG.info("Checkpoint 0");
-      groupAcronym = checkAddressValidity(groupAcronym, "group");
-      LOG.info("Checkpoint 1");
-      institute = address[1];
-      institute = checkAddressValidity(institute, "institute");
-      LOG.info("Checkpoint 2");
-      umbrellaOrganization = address[2];
-      umbrellaOrganization = checkAddressValidity(umbrellaOrganization, "organization");
-      LOG.info("Checkpoint 3");
-      street = address[3];
-      street = checkAddressValidity(street, "street");
-      LOG.info("Checkpoint 4");
-      zipCode = address[4];
-      zipCode = checkAddressValidity(zipCode, "zip code");
-      LOG.info("Checkpoint 5");
-      city = address[5];
-      city = checkAddressValidity(city, "city");
-      LOG.info("Checkpoint 6");
-      country = address[6];
-      country = checkAddressValidity(country, "country");
-      LOG.info("Checkpoint 7");
+      groupAcronym = checkAddressValidity(address[0], "group", notifyAndRecord);
+      institute = checkAddressValidity(address[1], "institute", notifyAndRecord);
+      umbrellaOrganization = checkAddressValidity(address[2], "organization", notifyAndRecord);
+      street = checkAddressValidity(address[3], "street", notifyAndRecord);
+      zipCode = checkAddressValidity(address[4], "zip code", notifyAndRecord);
+      city = checkAddressValidity(address[5], "city", notifyAndRecord);
+      country = checkAddressValidity(address[6], "country", notifyAndRecord);
 
       // e.g. D - 72076 Tübingen, Germany
       cityZipCodeAndCounty = zipCode + " " + city + ", " + country;
-      LOG.info("Checkpoint 8");
     }
 
     LOG.info("Found PI!");
     String projectReference = offerNumber.substring(offerNumber.indexOf('_') + 1).split("_")[0];
 
     // find the project manager based on the offer_id
-    String offer_id = container
-        .getItem(
-            ((Grid.SingleSelectionModel) offerManagerGrid.getSelectionModel()).getSelectedRow())
-        .getItemProperty("offer_id").getValue().toString();
-    UI.getCurrent().access(() -> WindowFactory.addNotification("warn",
-        "Searching the project manager in the database", notificationLayout));
+    String offer_id = snapshot.getOfferId();
+    notifyAndRecord.accept("warn", "Searching the project manager in the database");
     String personResult = db.getProjectManager(offer_id);
     String projectManager;
     String projectManagerMail;
 
-    if (personResult != "no person found") {
+    if (!personResult.equals("no person found")) {
       String[] projectManagerPerson = personResult.split(",");
 
       projectManager = projectManagerPerson[0] + " " + projectManagerPerson[1];
@@ -636,57 +759,37 @@ final class OfferManagerTab {
     } else {
       projectManager = "Project manager not found";
       projectManagerMail = "Mail not found";
-      UI.getCurrent()
-          .access(() -> WindowFactory.addNotification("warn",
-              "Project Manager entry not found in Database! "
-                  + "You may want to change the information in the generated offer.",
-              notificationLayout));
+      notifyAndRecord.accept("warn", "Project Manager entry not found in Database! "
+          + "You may want to change the information in the generated offer.");
     }
 
-    String projectID = container
-        .getItem(
-            ((Grid.SingleSelectionModel) offerManagerGrid.getSelectionModel()).getSelectedRow())
-        .getItemProperty("offer_id").getValue().toString();
-    if (projectID == null | projectID.equals("null") | projectID.trim().equals("")) {
-      UI.getCurrent().access(() -> WindowFactory.addNotification("failure",
-          "The offer ID for the current offer is null.", notificationLayout));
+    String projectID = snapshot.getOfferId();
+    if (projectID == null || projectID.equals("null") || projectID.trim().equals("")) {
+      notifyAndRecord.accept("failure", "The offer ID for the current offer is null.");
 
       // added to prevent fail if ID is null -> no download should be triggered
-      return false;
+      return failed;
     }
 
-    String projectTitle = container
-        .getItem(
-            ((Grid.SingleSelectionModel) offerManagerGrid.getSelectionModel()).getSelectedRow())
-        .getItemProperty("offer_name").getValue().toString();
+    String projectTitle = snapshot.getOfferName();
 
-    if (projectTitle == null | projectTitle.equals("null") | projectTitle.trim().equals("")) {
-      UI.getCurrent().access(() -> WindowFactory.addNotification("failure",
-          "The offer name for the current offer is null.", notificationLayout));
+    if (projectTitle == null || projectTitle.equals("null") || projectTitle.trim().equals("")) {
+      notifyAndRecord.accept("failure", "The offer name for the current offer is null.");
       // added to prevent fail if titel is null -> no download should be triggered
-      return false;
+      return failed;
     }
 
-    Object projectDescriptionObject = container
-        .getItem(
-            ((Grid.SingleSelectionModel) offerManagerGrid.getSelectionModel()).getSelectedRow())
-        .getItemProperty("offer_description").getValue();
-    String projectDescription =
-        projectDescriptionObject == null ? null : projectDescriptionObject.toString();
-
-    if (projectDescription == null | projectDescription.equals("null")
-        | projectDescription.trim().equals("")) {
-      UI.getCurrent().access(() -> WindowFactory.addNotification("failure",
-          "The offer description for the current offer is null.", notificationLayout));
+    String projectDescription = snapshot.getOfferDescription();
+
+    if (projectDescription == null || projectDescription.equals("null")
+        || projectDescription.trim().equals("")) {
+      notifyAndRecord.accept("failure", "The offer description for the current offer is null.");
       // added to prevent fail if description is null -> no download should be triggered
-      return false;
+      return failed;
     }
 
 
-    String totalVal = container
-        .getItem(
-            ((Grid.SingleSelectionModel) offerManagerGrid.getSelectionModel()).getSelectedRow())
-        .getItemProperty("offer_total").getValue().toString();
+    String totalVal = snapshot.getOfferTotal();
 
     // DecimalFormat offerPriceFormatter = new DecimalFormat("###,###.###");
     // String offerTotal =
@@ -694,54 +797,65 @@ final class OfferManagerTab {
     // .format(totalVal);
 
     String clientSurname = clientName.split(" ")[clientName.split(" ").length - 1];
-    String dateToday = new SimpleDateFormat("yyyyMMdd").format(new Date());
     String projectQuotationNumber = dateToday + "_" + clientSurname + "_" + projectReference;
 
     SimpleDateFormat currentDateFormat = new SimpleDateFormat("EEEE, dd MMMM yyyy", Locale.ENGLISH);
     String currentDate = currentDateFormat.format(new Date());
 
-    // get the xml document holding the content for the bindings in the docx template file
-    org.w3c.dom.Document contentControlDocument = readXMLFile(contentControlFilename);
-    // change the fields of the content control document according to the values obtained in the
-    // grid
-    changeNodeTextContent(contentControlDocument, "client_name", clientName);
-    changeNodeTextContent(contentControlDocument, "client_organization", groupAcronym);
-    changeNodeTextContent(contentControlDocument, "client_department", institute);
-    changeNodeTextContent(contentControlDocument, "client_university", umbrellaOrganization);
-    changeNodeTextContent(contentControlDocument, "client_address", street);
-    changeNodeTextContent(contentControlDocument, "client_town", cityZipCodeAndCounty);
-    // changeNodeTextContent(contentControlDocument, "client_email", clientEmail);
-    changeNodeTextContent(contentControlDocument, "project_reference", projectReference);
-    changeNodeTextContent(contentControlDocument, "quotation_number", projectQuotationNumber);
-    changeNodeTextContent(contentControlDocument, "name", projectManager);
-    changeNodeTextContent(contentControlDocument, "email", projectManagerMail);
-    changeNodeTextContent(contentControlDocument, "project_title", projectTitle);
-    changeNodeTextContent(contentControlDocument, "objective", projectDescription);
-    changeNodeTextContent(contentControlDocument, "estimated_total", formatCurrency(totalVal));
-    changeNodeTextContent(contentControlDocument, "date", currentDate);
+    // the text of the content controls of the docx template, by tag name in the content control
+    // .xml file, according to the values obtained in the grid
+    Map<String, String> fields = new LinkedHashMap<>();
+    fields.put("client_name", clientName);
+    fields.put("client_organization", groupAcronym);
+    fields.put("client_department", institute);
+    fields.put("client_university", umbrellaOrganization);
+    fields.put("client_address", street);
+    fields.put("client_town", cityZipCodeAndCounty);
+    // fields.put("client_email", clientEmail);
+    fields.put("project_reference", projectReference);
+    fields.put("quotation_number", projectQuotationNumber);
+    fields.put("name", projectManager);
+    fields.put("email", projectManagerMail);
+    fields.put("project_title", projectTitle);
+    fields.put("objective", projectDescription);
+    fields.put("estimated_total", formatCurrency(totalVal));
+    fields.put("date", currentDate);
 
     if (estimatedDeliveryWeeks != null) {
-      changeNodeTextContent(contentControlDocument, "delivery_time",
-          "Approx. " + estimatedDeliveryWeeks + " upon data retrieval.");
+      fields.put("delivery_time", "Approx. " + estimatedDeliveryWeeks + " upon data retrieval.");
     } else {
       // the default value will be written
       // but give a warning!
-      UI.getCurrent()
-          .access(() -> WindowFactory.addNotification("warn",
-              "The estimated delivery time is not entered and thus will be set to the default value.",
-              notificationLayout));
+      notifyAndRecord.accept("warn",
+          "The estimated delivery time is not entered and thus will be set to the default value.");
+    }
+    // null values are not bound, the default value of the template stays
+    fields.values().removeIf(Objects::isNull);
+
+    // the same offer has probably been generated before, e.g. for downloading it again
+    OfferDocumentCache documentCache = OfferDocumentCache.getInstance();
+    String cacheKey = OfferDocumentCache.keyOf(fields, snapshot.getLines(),
+        contentControlFilename, templateFileName);
+    byte[] cachedDocument = documentCache.get(cacheKey);
+    if (cachedDocument != null) {
+      LOG.info("offer " + offerNumber + " served from the document cache; "
+          + documentCache.getStatistics());
+      notifyAndRecord.accept("success", "File is ready to download.");
+      return new GeneratedOffer(cachedDocument, projectQuotationNumber + ".docx", dateToday,
+          notifications);
     }
 
-    // iterate over the packages and add them to the content control .xml file
-    for (int i = packageNames.size() - 1; i >= 0; i--) {
-      addRowToTable(contentControlDocument, 1, packageIDs.get(i),
-          packageNames.get(i) + ": " + packageDescriptions.get(i), packageCounts.get(i),
-          formatCurrency(packageUnitPrices.get(i)), formatCurrency(packageTotalPrices.get(i)),
-          discounts.get(i), formatCurrency(discountedPrices.get(i)));
+    // get the xml document holding the content for the bindings in the docx template file, as a
+    // copy of the template which is only parsed once
+    ContentControlTemplate contentControlTemplate =
+        ContentControlTemplate.forFile(contentControlFilename);
+    org.w3c.dom.Document contentControlDocument = contentControlTemplate.newDocument();
+    for (Map.Entry<String, String> field : fields.entrySet()) {
+      contentControlTemplate.setText(contentControlDocument, field.getKey(), field.getValue());
     }
 
-    // remove the placeholder rows in the .xml file
-    removeRowInTable(contentControlDocument, packageNames.size());
+    // add the packages to the work packages table of the content control .xml file
+    fillWorkPackagesTable(contentControlDocument, snapshot.getLines());
 
     if (contentControlDocument.getDoctype() != null) {
       throw new NullPointerException();
@@ -751,44 +865,22 @@ final class OfferManagerTab {
     WordprocessingMLPackage wordProcessor =
         Docx4jUtils.applyBindings(contentControlDocument, templateFileName); // TODO error here!
 
-    // save updated document to output file
+    // save the updated document
     try {
-      // File tempFile = File.createTempFile(projectQuotationNumber, ".docx");
-
-      String timeStamp = TimeUtils.getCurrentTimestampString();
-      String filePath = Paths
-          .get(qOfferManager.tmpFolder, projectQuotationNumber + timeStamp + ".docx").toString();
-      File tempFile = new File(filePath);
-
       assert wordProcessor != null;
-      wordProcessor.save(tempFile, Docx4J.FLAG_SAVE_ZIP_FILE);
+      ByteArrayOutputStream document = new ByteArrayOutputStream();
+      Docx4J.save(wordProcessor, document, Docx4J.FLAG_SAVE_ZIP_FILE);
+      byte[] content = document.toByteArray();
+      documentCache.put(cacheKey, content);
 
       LOG.info("SAVE FILE: done saving the File");
-      StreamResource sr = new StreamResource(new StreamResource.StreamSource() {
-        @Override
-        public InputStream getStream() {
-          try {
-            return new FileInputStream(tempFile);
-          } catch (FileNotFoundException e) {
-            throw new RuntimeException("Could not save offer", e);
-          }
-        }
-      }, projectQuotationNumber + ".docx");
-
-      // also set the cache time of the Resource of the actually downloaded file to zero to obtain
-      // the newly generated file
-      sr.setCacheTime(1000);
+      notifyAndRecord.accept("success", "File is ready to download.");
 
-      fileDownloader.setFileDownloadResource(sr);
-
-      UI.getCurrent().access(() -> WindowFactory.addNotification("success",
-          "File is ready to download.", notificationLayout));
-
-      return true;
+      return new GeneratedOffer(content, projectQuotationNumber + ".docx", dateToday,
+          notifications);
 
     } catch (Docx4JException e) {
-      UI.getCurrent().access(() -> WindowFactory.addNotification("failure",
-          "Could not generate offer file", notificationLayout));
+      notifyAndRecord.accept("failure", "Could not generate offer file");
       throw new RuntimeException("Could not generate offer file", e);
     }
   }
@@ -802,13 +894,12 @@ final class OfferManagerTab {
     generateOfferButton.setEnabled(enable);
   }
 
-  private String checkAddressValidity(String address, String type) {
+  private String checkAddressValidity(String address, String type,
+      BiConsumer<String, String> notify) {
     LOG.info(String.format("Param to validate: %s, type: %s", address, type));
     if (address == null || address.equals("") || address.equals(" ")) {
-      UI.getCurrent()
-          .access(() -> WindowFactory.addNotification("failure",
-              "Database entry for " + type + " is empty check the address in the downloaded offer!",
-              notificationLayout));
+      notify.accept("failure",
+          "Database entry for " + type + " is empty check the address in the downloaded offer!");
       return " ";
     }
     return address;
@@ -818,4 +909,37 @@ final class OfferManagerTab {
     offersContainer.refresh();
   }
 
+  /**
+   * the document generated for an offer, content is null if it could not be generated
+   */
+  private static final class GeneratedOffer {
+
+    private final byte[] content;
+    private final String downloadName;
+    // yyyyMMdd of the generation, part of the quotation number
+    private final String day;
+    // type and text of the notifications shown while generating
+    private final List<String[]> notifications;
+
+    private GeneratedOffer(byte[] content, String downloadName, String day,
+        List<String[]> notifications) {
+      this.content = content;
+      this.downloadName = downloadName;
+      this.day = day;
+      this.notifications = notifications;
+    }
+  }
+
+  /**
+   * document generation started in the background when an offer was selected
+   */
+  private static final class SpeculativeGeneration {
+
+    private final OfferSnapshot snapshot;
+    private volatile DocumentGenerationService.Job<GeneratedOffer> job;
+
+    private SpeculativeGeneration(OfferSnapshot snapshot) {
+      this.snapshot = snapshot;
+    }
+  }
 }
@@ -26,28 +26,29 @@ import com.vaadin.shared.ui.combobox.FilteringMode;
 import com.vaadin.shared.ui.label.ContentMode;
 import com.vaadin.ui.*;
 import life.qbic.dbase.Database;
-import life.qbic.utils.CsvParserUtils;
+import life.qbic.model.OfferTotals;
+import life.qbic.utils.PricingEngine;
+import life.qbic.utils.PricingEngine.OfferPricing;
+import life.qbic.utils.SampleSizeDiscountRegistry;
 import life.qbic.utils.RefreshableGrid;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.File;
-import java.io.InputStream;
 import java.math.BigDecimal;
 import java.sql.SQLException;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 import java.util.Objects;
 
 import static life.qbic.utils.qOfferManagerUtils.displayNotification;
 
 final class OfferManagerTabPackageComponent {
 
-  private ArrayList<Float> discountPerSampleSize;
+  // prices the packages of the selected offer, reused for every update
+  private final OfferPricing offerPricing = new OfferPricing();
   private RefreshableGrid selectedPacksInOfferGrid;
+  // offer price and offer total of the selected offer
+  private Label offerTotalsLabel;
   private OfferManagerTab offerManagerTab;
   private qOfferManager qOfferManager;
 
@@ -56,17 +57,12 @@ final class OfferManagerTabPackageComponent {
   public OfferManagerTabPackageComponent(qOfferManager qom, OfferManagerTab omt) {
     offerManagerTab = omt;
     qOfferManager = qom;
-    InputStream fileStream = OfferManagerTabPackageComponent.class.getClassLoader()
-        .getResourceAsStream("discount_per_sample_size.csv");
-
-    discountPerSampleSize = CsvParserUtils.parseCsvFile(fileStream, ",", true);
   }
 
   /**
    * creates the component showing the packages of the respective package type of the currently
    * selected offer in a grid and enables the user to add and remove packages from the offer
    * 
-   * @param offerGridContainer: sql container of all the offers
    * @param selectedOfferID: id of the currently selected offer
    * @param packagesType: type of the packages: "All", "Bioinformatics Analysis",
    *        "Project Management", "Sequencing", "Mass spectrometry", "Other"; what type of packages
@@ -74,8 +70,8 @@ final class OfferManagerTabPackageComponent {
    * @return vaadin component
    * @throws SQLException :
    */
-  Component createOfferManagerTabPackageComponent(SQLContainer offerGridContainer,
-      String selectedOfferID, String packagesType) throws SQLException {
+  Component createOfferManagerTabPackageComponent(String selectedOfferID, String packagesType)
+      throws SQLException {
 
     Database db = qOfferManager.getDb();
 
@@ -175,9 +171,9 @@ final class OfferManagerTabPackageComponent {
     // update the array lists holding the information about the packages of the current offer
     updatePackageArrays(packsContainer);
 
-    addListeners(offerGridContainer, selectedOfferID, db, packageQuantityComboBox,
-        updateQuantityButton, removePackageButton, packagesAvailableForOfferComboBox,
-        addPackageButton, packsContainer, externalInternalPriceComboBox, externalInternalButton);
+    addListeners(selectedOfferID, db, packageQuantityComboBox, updateQuantityButton,
+        removePackageButton, packagesAvailableForOfferComboBox, addPackageButton, packsContainer,
+        externalInternalPriceComboBox, externalInternalButton);
 
     // remove unimportant columns from the grid
     selectedPacksInOfferGrid.removeColumn("offer_id");
@@ -234,6 +230,16 @@ final class OfferManagerTabPackageComponent {
     // label showing the packages group currently displayed (e.g. "All", "Project Management", etc.)
     Label packagesGroupLabel = new Label("<b><u>" + packagesType + ":</u></b>", ContentMode.HTML);
     packQuantityLayout.addComponent(packagesGroupLabel);
+
+    // every row holds the columns of the offer as well
+    offerTotalsLabel = new Label();
+    Object firstPackage = packsContainer.firstItemId();
+    if (firstPackage != null) {
+      showOfferTotals(
+          packsContainer.getContainerProperty(firstPackage, "offer_price").getValue(),
+          packsContainer.getContainerProperty(firstPackage, "offer_total").getValue());
+    }
+    packQuantityLayout.addComponent(offerTotalsLabel);
     packQuantityLayout.addComponent(selectedPacksInOfferGrid);
     packQuantityLayout.addComponent(packSettingsLayout);
 
@@ -244,7 +250,6 @@ final class OfferManagerTabPackageComponent {
   /**
    * adds the listeners to the package component of the offer manager tab
    * 
-   * @param offerGridContainer: sql container holding the data for the offers
    * @param selectedOfferID: id of the selected offer
    * @param db: database instance to query
    * @param packageQuantityComboBox: combo box for selecting the package quantity
@@ -255,8 +260,8 @@ final class OfferManagerTabPackageComponent {
    * @param addPackageButton: button for adding a package
    * @param packsContainer: sql container holding the data for the packages
    */
-  private void addListeners(SQLContainer offerGridContainer, String selectedOfferID, Database db,
-      ComboBox packageQuantityComboBox, Button updateQuantityButton, Button removePackageButton,
+  private void addListeners(String selectedOfferID, Database db, ComboBox packageQuantityComboBox,
+      Button updateQuantityButton, Button removePackageButton,
       ComboBox packagesAvailableForOfferComboBox, Button addPackageButton,
       SQLContainer packsContainer, ComboBox externalInternalPriceComboBox,
       Button externalInternalPriceButton) {
@@ -318,12 +323,12 @@ final class OfferManagerTabPackageComponent {
             packageGroup = "";
           }
           int packageCount = Integer.parseInt(packageQuantityComboBox.getValue().toString());
-          float packageDiscount = 1.0f;
+          int packageDiscount = 0;
           // the package discount should only be applied to the bioinformatics analysis packages
           if (Objects.equals(packageGroup, "Bioinformatics Analysis")) {
             LOG.info("package is Bioinformatics Analysis");
             // get the package discount based on the number of samples
-            packageDiscount = discountPerSampleSize.get(packageCount);
+            packageDiscount = SampleSizeDiscountRegistry.getInstance().discountFor(packageCount);
           } else {
             LOG.info("package is not bioinfo analysis, but: <" + packageGroup + ">");
           }
@@ -338,11 +343,18 @@ final class OfferManagerTabPackageComponent {
           }
 
           // update the database
-          db.updatePackageQuantityAndRecalculatePrice(packageQuantityComboBox.getValue().toString(),
-              selectedOfferID, packageId, packagePriceType, packageDiscount);
+          OfferTotals totals = db.updatePackageQuantityAndRecalculatePrice(
+              packageQuantityComboBox.getValue().toString(), selectedOfferID, packageId,
+              packagePriceType, packageDiscount);
+          if (totals == null) {
+            displayNotification("Update failed",
+                "The quantity could not be updated, the offer is unchanged. Please try again.",
+                "error");
+          } else {
+            showOfferTotals(totals);
+          }
 
           packsContainer.refresh();
-          offerGridContainer.refresh();
         }
 
         // update the array lists holding the information about the packages of the current offer
@@ -363,17 +375,21 @@ final class OfferManagerTabPackageComponent {
       int selectedPackageID = (int) selectedPacksInOfferGrid.getContainerDataSource()
           .getItem(selectedRow).getItemProperty("package_id").getValue();
 
-      db.removePackageFromOffer(selectedPackageID, Integer.parseInt(selectedOfferID));
+      // remove the package and recalculate the offer price and total of the whole offer
+      OfferTotals totals = db.removePackageFromOfferAndRecalculatePrice(selectedPackageID,
+          Integer.parseInt(selectedOfferID));
+      if (totals == null) {
+        displayNotification("Update failed",
+            "The package could not be removed, the offer is unchanged. Please try again.",
+            "error");
+        return;
+      }
+      showOfferTotals(totals);
       packsContainer.refresh();
 
       // update the array lists holding the information about the packages of the current offer
       updatePackageArrays(packsContainer);
 
-      // recalculate the total offer price and update the database
-      updateOfferPrice(selectedOfferID, packsContainer);
-
-      offerGridContainer.refresh();
-
       displayNotification("Package removed",
           "Package " + selectedPackageID + " successfully removed from " + "offer.", "success");
     });
@@ -413,17 +429,20 @@ final class OfferManagerTabPackageComponent {
         return;
       }
 
-      db.insertOrUpdateOffersPackages(Integer.parseInt(selectedOfferID), packageId,
-          new BigDecimal(packageUnitPrice));
+      // add the package and recalculate the offer price and total of the whole offer
+      OfferTotals totals = db.addPackageToOfferAndRecalculatePrice(
+          Integer.parseInt(selectedOfferID), packageId, new BigDecimal(packageUnitPrice));
+      if (totals == null) {
+        displayNotification("Update failed",
+            "The package could not be added, the offer is unchanged. Please try again.", "error");
+        return;
+      }
+      showOfferTotals(totals);
       packsContainer.refresh();
 
       // update the array lists holding the information about the packages of the current offer
       updatePackageArrays(packsContainer);
 
-      // recalculate the total offer price and update the database
-      updateOfferPrice(selectedOfferID, packsContainer);
-
-      offerGridContainer.refresh();
       displayNotification("Package added",
           "Package " + packageName + " successfully added to the " + "offer.", "success");
     });
@@ -464,29 +483,17 @@ final class OfferManagerTabPackageComponent {
           return;
         }
 
-        // update the package price type
-        db.updatePackagePriceTypeForPackage(selectedOfferID, packageId, packagePriceType);
-
-        // due to a lack of time we simply use the updatePriceAndRecalculateTotalPrices function to
-        // recalculate the prices, although the quantity has not changed
-        // TODO: write function to recalculate the price without the quantity to save some
-        // computation power
-        packsContainer.refresh();
-        offerGridContainer.refresh();
-
-        LOG.info("updatePackageQuantityAndRecalculatePrice for price type button");
-
-        String packageDiscountString =
-            packsContainer.getContainerProperty(rowContainerId, "package_discount").getValue()
-                .toString().split("%")[0];
-        String packageCount = packsContainer.getContainerProperty(rowContainerId, "package_count")
-            .getValue().toString();
-
-        db.updatePackageQuantityAndRecalculatePrice(packageCount, selectedOfferID, packageId,
-            packagePriceType, 1 - Float.valueOf(packageDiscountString) / 100);
+        // update the package price type and recalculate the prices, quantity and discount stay
+        OfferTotals totals =
+            db.updatePriceAndRecalculateTotalPrices(selectedOfferID, packageId, packagePriceType);
+        if (totals == null) {
+          displayNotification("Update failed",
+              "The package price could not be recalculated. Please try again.", "error");
+        } else {
+          showOfferTotals(totals);
+        }
 
         packsContainer.refresh();
-        offerGridContainer.refresh();
 
         updatePackageArrays(packsContainer);
       }
@@ -495,59 +502,45 @@ final class OfferManagerTabPackageComponent {
 
 
   /**
-   * updates the total offer price for the offer with offer id selectedOfferId
-   * 
-   * @param selectedOfferID: id of the offer to update the price for
-   * @param packsContainer: holds all the information about the offer
+   * shows the new totals of the repriced offer in the label and reloads the offers, so the offer
+   * grid holds the stored totals as well
    */
-  private void updateOfferPrice(String selectedOfferID, SQLContainer packsContainer) {
-    offerManagerTab.setEnableGenerateButton(false);
-
-    Database db = qOfferManager.getDb();
-
-    BigDecimal totalOfferPrice = BigDecimal.ZERO;
-
-    for (Object itemID : packsContainer.getItemIds()) {
-      // get the package id
-      Property<?> packageIdProperty = packsContainer.getContainerProperty(itemID, "package_id");
-      int packageIdInGrid = Integer.parseInt(packageIdProperty.getValue().toString());
-
-      // get the package price type (internal, external, etc.)
-      Property<?> packagePriceTypeProperty =
-          packsContainer.getContainerProperty(itemID, "package_price_type");
-      String packagePriceType = packagePriceTypeProperty.getValue().toString();
-
-      Property<?> packageCountProperty =
-          packsContainer.getContainerProperty(itemID, "package_count");
-      int packageCount = Integer.parseInt(packageCountProperty.getValue().toString());
-
-      // get the discount as floating point number (82% -> 0.18)
-      float discount = getDiscountForRow(packsContainer, itemID);
-
-      String packagePrice = db.getPriceFromPackageId(packageIdInGrid, packagePriceType);
-
-      if (packagePrice == null) {
-        packagePrice = "0";
-        displayNotification("Package price is null!", "The package price for the package "
-            + packageIdInGrid + " is null. Please update the price in the package manager tab.",
-            "warning");
-      }
-      totalOfferPrice = totalOfferPrice.add(computeDiscount(packagePrice, packageCount, discount));
-    }
-    // update total offer price in db
-    db.updateTotalOfferPrice(selectedOfferID, totalOfferPrice);
+  private void showOfferTotals(OfferTotals totals) {
+    showOfferTotals(totals.getOfferPrice(), totals.getOfferTotal());
+    offerManagerTab.refreshOffersContainer();
   }
 
-  private BigDecimal computeDiscount(String packagePrice, int packageCount, float discountPercent) {
-    return new BigDecimal(packagePrice).multiply(new BigDecimal(packageCount))
-        .multiply(new BigDecimal(discountPercent));
+  private void showOfferTotals(Object offerPrice, Object offerTotal) {
+    offerTotalsLabel.setValue(
+        "Offer price: " + PricingEngine.formatCents(PricingEngine.toCents(offerPrice))
+            + " €, offer total: " + PricingEngine.formatCents(PricingEngine.toCents(offerTotal))
+            + " €");
   }
 
-  private float getDiscountForRow(SQLContainer packsContainer, Object id) {
-    Property<?> discountProperty = packsContainer.getContainerProperty(id, "package_discount");
-    float discount =
-        (100 - Float.parseFloat(discountProperty.getValue().toString().split("%")[0])) / 100;
-    return discount;
+  /**
+   * prices the packages shown by the container with the {@link #offerPricing}, line i is the i-th
+   * item of the container; the offer discount does not matter for the package prices
+   *
+   * @param packsContainer: holds all the information about the offer
+   */
+  private void pricePackages(SQLContainer packsContainer) {
+    offerPricing.clear();
+    for (Object itemID : packsContainer.getItemIds()) {
+      Object packagePriceType =
+          packsContainer.getContainerProperty(itemID, "package_price_type").getValue();
+
+      // the same conversion as the repricing in the database uses
+      offerPricing.addStoredLine(
+          packsContainer.getContainerProperty(itemID, "package_price_internal").getValue(),
+          packsContainer.getContainerProperty(itemID, "package_price_external_academic")
+              .getValue(),
+          packsContainer.getContainerProperty(itemID, "package_price_external_commercial")
+              .getValue(),
+          packagePriceType,
+          packsContainer.getContainerProperty(itemID, "package_count").getValue(),
+          packsContainer.getContainerProperty(itemID, "package_discount").getValue());
+    }
+    offerPricing.price(SampleSizeDiscountRegistry.getInstance().getDiscounts(), 0);
   }
 
   /**
@@ -582,6 +575,8 @@ final class OfferManagerTabPackageComponent {
     discounts.clear();
     discountedPrices.clear();
 
+    pricePackages(packsContainer);
+    int line = 0;
     for (Object packsContainerRowId : packsContainer.getItemIds()) {
 
       String packageId = packsContainer.getContainerProperty(packsContainerRowId, "package_id")
@@ -614,56 +609,20 @@ final class OfferManagerTabPackageComponent {
       } else {
         packageCounts.add(packageCount.toString());
       }
-      NumberFormat nf = NumberFormat.getNumberInstance(Locale.US);
-      DecimalFormat decimalFormatter = (DecimalFormat) nf;
-      decimalFormatter.applyLocalizedPattern("#.##");
-      // DecimalFormat decimalFormatter = new DecimalFormat("###,###.###");
-
-      // get the container property we need to check ("package_price_internal",
-      // "package_price_external_academic", ..)
-      Object packagePriceTypeObject =
-          packsContainer.getContainerProperty(packsContainerRowId, "package_price_type").getValue();
-      // deal with null and empty strings -> use "internal" instead
-      String packagePriceType =
-          packagePriceTypeObject == null ? "internal" : packagePriceTypeObject.toString();
-      packagePriceType = packagePriceType.equals("") ? "internal" : packagePriceType;
-      String containerPropertyToCheck = "package_price_" + packagePriceType;
-
-      // get the respective package price (based on containerPropertyToCheck)
-      Object packagePrice = packsContainer.getContainerProperty(packsContainerRowId, containerPropertyToCheck).getValue();
-
-      LOG.info(String.format("Selected Package Price is: %s", packagePrice.toString()));
-      LOG.info(String.format("Selected Package Price Type is: %s", containerPropertyToCheck));
-      LOG.info(String.format("Selected Package Price Type in DB was: %s", packagePriceType));
-      LOG.info(String.format("Selected Package Price Type in DB was: %s", packagePriceType));
-
-
-      if (packagePrice == null) {
+
+      // get the respective package price (based on the package price type)
+      String priceColumn = offerPricing.getPriceType(line).getPriceColumn();
+      if (packsContainer.getContainerProperty(packsContainerRowId, priceColumn)
+          .getValue() == null) {
         displayNotification(
             "Error parsing the package price for package " + packsContainerRowId + "!",
             packageId + " is null. Please fix the package in the package tab.", "error");
       } else {
-        packageUnitPrices.add(decimalFormatter.format(packagePrice));
+        packageUnitPrices.add(PricingEngine.formatCents(offerPricing.getUnitPrice(line)));
       }
 
-      float discountPercent = getDiscountForRow(packsContainer, packsContainerRowId);
-      LOG.info(String.format("Selected Package Price Discount was: %f", discountPercent));
-      int discount = (int) (100 * (new Float(1) - discountPercent));
-      LOG.info(decimalFormatter.format(packagePrice));
-      LOG.info(new BigDecimal(decimalFormatter.format(packagePrice)));
-      LOG.info(new BigDecimal(discountPercent));
-      BigDecimal res = new BigDecimal(decimalFormatter.format(packagePrice))
-          .multiply(new BigDecimal(discountPercent));
-//      System.out.println("---");
-//      System.out.println(res.toString());
-      String discountedUnitPrice = res.toString();
-//      System.out.println(discountedUnitPrice);
-//      discountedUnitPrice = decimalFormatter.format(res);
-//      System.out.println(discountedUnitPrice);
-//      System.out.println("---");
-
-      discounts.add(discount);
-      discountedPrices.add(discountedUnitPrice);
+      discounts.add(offerPricing.getDiscount(line) / 100);
+      discountedPrices.add(PricingEngine.formatCents(offerPricing.getDiscountedUnitPrice(line)));
 
       Object packageAddonPrice = packsContainer
           .getContainerProperty(packsContainerRowId, "package_addon_price").getValue();
@@ -671,9 +630,10 @@ final class OfferManagerTabPackageComponent {
         displayNotification("Error parsing the package addon price for package " + packageId + "!",
             " package_addon_price is null. Please fix the package in the package tab.", "error");
       } else {
-        packageTotalPrices.add(decimalFormatter.format(packageAddonPrice));
-        // packageTotalPrices.add(nf.getCurrencyInstance().format(packageAddonPrice));
+        packageTotalPrices
+            .add(PricingEngine.formatCents(PricingEngine.toCents(packageAddonPrice)));
       }
+      line++;
     }
 
   }
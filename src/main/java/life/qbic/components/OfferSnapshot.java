@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.components;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+import life.qbic.model.OfferLine;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable copy of everything the offer document is generated from: the values of the selected
+ * row of the offer grid and the lines of its packages. It is taken on the UI thread, so the
+ * generation itself does not touch any component or container.
+ */
+final class OfferSnapshot {
+
+  private final String offerId;
+  private final String offerNumber;
+  private final String clientName;
+  private final String estimatedDeliveryWeeks;
+  private final String offerName;
+  private final String offerDescription;
+  private final String offerTotal;
+  // milliseconds of last_edited, null if it is NULL
+  private final Long lastEdited;
+  private final List<OfferLine> lines;
+
+  private OfferSnapshot(Item offer, Timestamp lastEdited, List<OfferLine> lines) {
+    this.offerId = value(offer, "offer_id");
+    this.offerNumber = value(offer, "offer_number");
+    this.clientName = value(offer, "offer_facility");
+    this.estimatedDeliveryWeeks = value(offer, "estimated_delivery_weeks");
+    this.offerName = value(offer, "offer_name");
+    this.offerDescription = value(offer, "offer_description");
+    this.offerTotal = value(offer, "offer_total");
+    this.lastEdited = lastEdited == null ? null : lastEdited.getTime();
+    this.lines = Collections.unmodifiableList(new ArrayList<>(lines));
+  }
+
+  /**
+   * @param offer: row of the offers container
+   * @param lastEdited: last_edited of the offer as stored in the database, null if it is NULL
+   * @param lines: lines of the packages of the offer
+   */
+  static OfferSnapshot of(Item offer, Timestamp lastEdited, List<OfferLine> lines) {
+    return new OfferSnapshot(offer, lastEdited, lines);
+  }
+
+  private static String value(Item offer, String propertyId) {
+    Property<?> property = offer.getItemProperty(propertyId);
+    Object value = property == null ? null : property.getValue();
+    return value == null ? null : value.toString();
+  }
+
+  String getOfferId() {
+    return offerId;
+  }
+
+  String getOfferNumber() {
+    return offerNumber;
+  }
+
+  String getClientName() {
+    return clientName;
+  }
+
+  /**
+   * @return the estimated delivery weeks as stored, null if none has been entered
+   */
+  String getEstimatedDeliveryWeeks() {
+    return estimatedDeliveryWeeks;
+  }
+
+  String getOfferName() {
+    return offerName;
+  }
+
+  String getOfferDescription() {
+    return offerDescription;
+  }
+
+  String getOfferTotal() {
+    return offerTotal;
+  }
+
+  /**
+   * @return last_edited of the offer in milliseconds as stored when the snapshot was taken, null if
+   *         it is NULL
+   */
+  Long getLastEdited() {
+    return lastEdited;
+  }
+
+  List<OfferLine> getLines() {
+    return lines;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof OfferSnapshot)) {
+      return false;
+    }
+    OfferSnapshot other = (OfferSnapshot) o;
+    return Objects.equals(offerId, other.offerId) && Objects.equals(offerNumber, other.offerNumber)
+        && Objects.equals(clientName, other.clientName)
+        && Objects.equals(estimatedDeliveryWeeks, other.estimatedDeliveryWeeks)
+        && Objects.equals(offerName, other.offerName)
+        && Objects.equals(offerDescription, other.offerDescription)
+        && Objects.equals(offerTotal, other.offerTotal)
+        && Objects.equals(lastEdited, other.lastEdited) && lines.equals(other.lines);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(offerId, offerNumber, lastEdited, lines);
+  }
+}
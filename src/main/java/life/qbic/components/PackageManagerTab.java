@@ -26,24 +26,33 @@ import com.vaadin.shared.data.sort.SortDirection;
 import com.vaadin.ui.*;
 import life.qbic.CustomWindow.WindowFactory;
 import life.qbic.dbase.Database;
+import life.qbic.model.PackageSummary;
+import life.qbic.model.packageBean;
+import life.qbic.portal.utils.PortalUtils;
+import life.qbic.utils.PackageBatchReader;
+import life.qbic.utils.PriceListDiff;
 import life.qbic.utils.PriceModificationHelper;
 import life.qbic.utils.RefreshableGrid;
+import life.qbic.utils.StreamingDownloader;
 import life.qbic.utils.TimeUtils;
+import life.qbic.utils.TmpFolderStorage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.vaadin.gridutil.cell.GridCellFilter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.nio.file.Paths;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.Arrays;
 // import static life.qbic.components.OfferManagerTab.getPathOnServer;
-import static life.qbic.utils.qOfferManagerUtils.createExportContent;
+import static life.qbic.utils.TableExporter.*;
 import static life.qbic.utils.qOfferManagerUtils.displayNotification;
 
 final class PackageManagerTab {
 
-  private static FileDownloader fileDownloader;
+  private static final Logger LOG = LogManager.getLogger(PackageManagerTab.class);
+
   // private static String pathOnServer = getPathOnServer();
   private Window deleteWarning;
   private Database db;
@@ -105,12 +114,42 @@ final class PackageManagerTab {
     exportTableButton.setIcon(FontAwesome.DOWNLOAD);
     exportTableButton.setDescription("Click here to export the table as .csv file.");
 
+    Button exportXlsxButton = new Button("Export as .xlsx");
+    exportXlsxButton.setIcon(FontAwesome.FILE_EXCEL_O);
+    exportXlsxButton.setDescription("Click here to export the table as .xlsx file.");
+
+    Upload importUpload = new Upload();
+    importUpload.setButtonCaption("Import .tsv");
+    importUpload.setImmediate(true);
+    importUpload.setDescription("Click here to import packages from a .tsv file with the columns "
+        + "package_name, package_facility, package_description, package_group, price_internal and "
+        + "unit_type.");
+    ProgressBar importProgressBar = new ProgressBar();
+    importProgressBar.setVisible(false);
+    Label importStatusLabel = new Label();
+    importStatusLabel.setVisible(false);
+    setupImportFunctionality(importUpload, importProgressBar, importStatusLabel);
+
+    Upload reloadUpload = new Upload();
+    reloadUpload.setButtonCaption("Reload price list");
+    reloadUpload.setImmediate(true);
+    reloadUpload.setDescription("Click here to reload a facility price list (.tsv, same columns as "
+        + "the import). Rows are matched to the packages by name, facility and group; the changes "
+        + "are shown before they are applied.");
+    setupPriceListReloadFunctionality(reloadUpload);
+
     CheckBox calculatePricesAutomaticallyCheckBox = new CheckBox("Auto-calculate external prices");
     calculatePricesAutomaticallyCheckBox
         .setDescription("Click here to enable/disable the automatic calculation of the "
             + "external prices based on the internal prices.");
     calculatePricesAutomaticallyCheckBox.setValue(true);
 
+    Button recomputePricesButton = new Button("Recompute external prices");
+    recomputePricesButton.setIcon(FontAwesome.CALCULATOR);
+    recomputePricesButton.setDescription("Click here to compute the external prices of all "
+        + "packages again from their internal prices with the current price modifiers.");
+    setupRecomputePricesFunctionality(recomputePricesButton);
+
     TableQuery tq = new TableQuery("packages", db.getDatabaseInstanceAlternative());
     tq.setVersionColumn("OPTLOCK");
 
@@ -191,7 +230,7 @@ final class PackageManagerTab {
     }
 
     addListeners(addPackageButton, updatePackageGroupComboBox, updateSelectedPackageButton,
-        deleteSelectedPackageButton, packageGrid, exportTableButton,
+        deleteSelectedPackageButton, packageGrid, exportTableButton, exportXlsxButton,
         calculatePricesAutomaticallyCheckBox, proceed);
 
     packManHorizontalLayout.addComponent(addPackageButton);
@@ -199,7 +238,13 @@ final class PackageManagerTab {
     packManHorizontalLayout.addComponent(updateSelectedPackageButton);
     packManHorizontalLayout.addComponent(deleteSelectedPackageButton);
     packManHorizontalLayout.addComponent(exportTableButton);
+    packManHorizontalLayout.addComponent(exportXlsxButton);
+    packManHorizontalLayout.addComponent(importUpload);
+    packManHorizontalLayout.addComponent(reloadUpload);
+    packManHorizontalLayout.addComponent(importProgressBar);
+    packManHorizontalLayout.addComponent(importStatusLabel);
     packManHorizontalLayout.addComponent(calculatePricesAutomaticallyCheckBox);
+    packManHorizontalLayout.addComponent(recomputePricesButton);
 
     packManHorizontalLayout.setComponentAlignment(addPackageButton, Alignment.BOTTOM_CENTER);
     packManHorizontalLayout.setComponentAlignment(updatePackageGroupComboBox,
@@ -211,6 +256,12 @@ final class PackageManagerTab {
     packManHorizontalLayout.setComponentAlignment(calculatePricesAutomaticallyCheckBox,
         Alignment.MIDDLE_CENTER);
     packManHorizontalLayout.setComponentAlignment(exportTableButton, Alignment.BOTTOM_CENTER);
+    packManHorizontalLayout.setComponentAlignment(exportXlsxButton, Alignment.BOTTOM_CENTER);
+    packManHorizontalLayout.setComponentAlignment(importUpload, Alignment.BOTTOM_CENTER);
+    packManHorizontalLayout.setComponentAlignment(reloadUpload, Alignment.BOTTOM_CENTER);
+    packManHorizontalLayout.setComponentAlignment(importProgressBar, Alignment.MIDDLE_CENTER);
+    packManHorizontalLayout.setComponentAlignment(importStatusLabel, Alignment.MIDDLE_CENTER);
+    packManHorizontalLayout.setComponentAlignment(recomputePricesButton, Alignment.BOTTOM_CENTER);
 
     packManVerticalLayout.addComponent(packageGrid);
     packManVerticalLayout.addComponent(packManHorizontalLayout);
@@ -248,6 +299,8 @@ final class PackageManagerTab {
       @Override
       public void postCommit(FieldGroup.CommitEvent commitEvent) throws FieldGroup.CommitException {
 
+        // the grid writes directly into the packages table, so the cached packages are outdated
+        db.invalidatePackageCatalog();
         calculatePrices(container, calculatePricesAutomatically, packageGrid,
             packageGrid.getSelectedRow());
 
@@ -264,11 +317,12 @@ final class PackageManagerTab {
    * @param deleteSelectedPackageButton: button for deleting a package
    * @param packageGrid: grid holding the packages
    * @param exportTableButton: button for exporting the grid as csv
+   * @param exportXlsxButton: button for exporting the grid as xlsx
    * @throws IOException
    */
   private void addListeners(Button addPackageButton, ComboBox updatePackageGroupComboBox,
       Button updateSelectedPackageButton, Button deleteSelectedPackageButton,
-      RefreshableGrid packageGrid, Button exportTableButton,
+      RefreshableGrid packageGrid, Button exportTableButton, Button exportXlsxButton,
       CheckBox calculatePricesAutomaticallyCheckBox, Button proceed) throws IOException {
 
     addPackageButton.addClickListener(new Button.ClickListener() {
@@ -358,24 +412,259 @@ final class PackageManagerTab {
 
     });
 
-    // setup the export as .csv file functionality
-    // String exportPackagesFileName = pathOnServer + "packages.csv";
-    String timeStamp = TimeUtils.getCurrentTimestampString();
-    String filePath =
-        Paths.get(qOfferManager.tmpFolder, "packages_" + timeStamp + ".csv").toString();
-    File tempFile = new File(filePath);
-    // File tempFile = File.createTempFile("packages", ".csv");
-    // String filePath = tempFile.getAbsolutePath();
-    fileDownloader = new FileDownloader(new FileResource(tempFile)) {
-      @Override
-      public boolean handleConnectorRequest(VaadinRequest request, VaadinResponse response,
-          String path) throws IOException {
-        createExportContent(container, filePath, fileDownloader);
-        return super.handleConnectorRequest(request, response, path);
-      }
-    };
+    // setup the export as .csv file functionality: the rows are queried with the current filters
+    // and sort order and written into the response each time the download button is pressed
+    StreamingDownloader fileDownloader = new StreamingDownloader(
+        "packages_" + TimeUtils.getCurrentTimestampString() + ".csv", "text/csv",
+        csvExport(db.getDataSource(), container, packageGrid));
     fileDownloader.extend(exportTableButton);
 
+    StreamingDownloader xlsxFileDownloader = new StreamingDownloader(
+        "packages_" + TimeUtils.getCurrentTimestampString() + ".xlsx", XLSX_MIME_TYPE,
+        xlsxExport(db.getDataSource(), container, packageGrid));
+    xlsxFileDownloader.extend(exportXlsxButton);
+
+  }
+
+  /**
+   * adds the functionality of importing packages from a .tsv file: the upload is written into the
+   * temporary folder and imported in chunks on a background thread, showing the progress
+   *
+   * @param upload: upload component for the .tsv file
+   * @param progressBar: shows the share of the file imported so far
+   * @param statusLabel: shows the rows imported so far and the throughput
+   */
+  private void setupImportFunctionality(Upload upload, ProgressBar progressBar,
+      Label statusLabel) {
+    File[] uploadedFile = new File[1];
+    receiveIntoTmpFolder(upload, "package-import", uploadedFile);
+
+    upload.addSucceededListener(event -> {
+      File file = uploadedFile[0];
+      TmpFolderStorage.getInstance().written(file);
+      UI ui = UI.getCurrent();
+      upload.setEnabled(false);
+      progressBar.setValue(0f);
+      progressBar.setVisible(true);
+      statusLabel.setValue("Importing " + event.getFilename() + "...");
+      statusLabel.setVisible(true);
+      // the import reports its progress from a background thread
+      ui.setPollInterval(500);
+
+      String user =
+          PortalUtils.isLiferayPortlet() ? PortalUtils.getUser().getScreenName() : "unknown";
+      PackageBatchReader.importInBackground(file, db, user, progress -> ui.access(() -> {
+        float fraction = progress.getFractionRead();
+        progressBar.setIndeterminate(fraction < 0);
+        if (fraction >= 0) {
+          progressBar.setValue(fraction);
+        }
+        statusLabel.setValue(progress.getSummary());
+      })).whenComplete((result, error) -> ui.access(() -> {
+        TmpFolderStorage.getInstance().delete(file.getName());
+        ui.setPollInterval(-1);
+        upload.setEnabled(true);
+        progressBar.setVisible(false);
+        if (error != null) {
+          statusLabel.setVisible(false);
+          displayNotification("Import failed",
+              "The file could not be read: " + error.getMessage(), "error");
+          return;
+        }
+        statusLabel.setValue(result.getSummary());
+        container.refresh();
+        packageGrid.clearSortOrder();
+        packageGrid.sort("package_name", SortDirection.ASCENDING);
+        if (result.getFailed() == 0) {
+          displayNotification("Packages imported", result.getSummary(), "success");
+        } else {
+          // the first errors are shown, all reported ones are logged
+          StringBuilder errors = new StringBuilder(result.getSummary());
+          int shown = 0;
+          for (PackageBatchReader.RowError rowError : result.getErrors()) {
+            if (shown < 5) {
+              errors.append("; ").append(rowError);
+              shown++;
+            }
+            LOG.warn("package import of " + event.getFilename() + ", " + rowError);
+          }
+          if (result.getFailed() > shown) {
+            errors.append("; ...");
+          }
+          displayNotification("Some packages could not be imported", errors.toString(),
+              "warning");
+        }
+      }));
+    });
+  }
+
+  /**
+   * writes uploads into a new file of the temporary folder, which is deleted if the upload fails
+   *
+   * @param upload: the upload component
+   * @param prefix: start of the file name
+   * @param uploadedFile: holds the file of the last upload
+   */
+  private void receiveIntoTmpFolder(Upload upload, String prefix, File[] uploadedFile) {
+    upload.setReceiver((filename, mimeType) -> {
+      try {
+        uploadedFile[0] = TmpFolderStorage.getInstance().allocate(prefix, ".tsv");
+        return new FileOutputStream(uploadedFile[0]);
+      } catch (IOException e) {
+        e.printStackTrace();
+        displayNotification("Upload failed", "The file could not be stored: " + e.getMessage(),
+            "error");
+        return null;
+      }
+    });
+
+    upload.addFailedListener(event -> {
+      if (uploadedFile[0] != null) {
+        TmpFolderStorage.getInstance().delete(uploadedFile[0].getName());
+      }
+    });
+  }
+
+  /**
+   * adds the functionality of reloading a price list: the uploaded list is compared to the
+   * packages on a background thread and the difference is shown; only if it is confirmed, the
+   * new packages and prices are applied and the offers using the changed packages are repriced
+   *
+   * @param upload: upload component for the .tsv file
+   */
+  private void setupPriceListReloadFunctionality(Upload upload) {
+    File[] uploadedFile = new File[1];
+    receiveIntoTmpFolder(upload, "price-list", uploadedFile);
+
+    upload.addSucceededListener(event -> {
+      File file = uploadedFile[0];
+      TmpFolderStorage.getInstance().written(file);
+      UI ui = UI.getCurrent();
+      upload.setEnabled(false);
+      ui.setPollInterval(500);
+
+      PackageBatchReader.diffInBackground(file, db).whenComplete((diff, error) -> ui.access(() -> {
+        TmpFolderStorage.getInstance().delete(file.getName());
+        ui.setPollInterval(-1);
+        upload.setEnabled(true);
+        if (error != null) {
+          displayNotification("Price list not loaded",
+              "The price list could not be compared: " + error.getMessage(), "error");
+          return;
+        }
+        showPriceListPreview(event.getFilename(), diff);
+      }));
+    });
+  }
+
+  /**
+   * adds the functionality of recomputing the external prices of all packages with the price
+   * modifiers, which also reprices the offers using the changed packages
+   *
+   * @param recomputePricesButton: button starting the recomputation
+   */
+  private void setupRecomputePricesFunctionality(Button recomputePricesButton) {
+    recomputePricesButton.addClickListener(event -> {
+      int changedPackages;
+      try {
+        changedPackages = db.recomputeExternalPrices();
+      } catch (SQLException e) {
+        LOG.error("could not recompute the external prices", e);
+        displayNotification("Prices not recomputed",
+            "Nothing has been changed: " + e.getMessage(), "error");
+        return;
+      }
+      if (changedPackages > 0) {
+        container.refresh();
+        omt.refreshOffersContainer();
+      }
+      displayNotification("External prices recomputed", changedPackages
+          + " package(s) got new external prices, the offers using them have been repriced.",
+          "success");
+    });
+  }
+
+  /**
+   * shows the difference between the price list and the packages, with a button to apply it
+   *
+   * @param filename: name of the uploaded price list
+   * @param diff: the difference
+   */
+  private void showPriceListPreview(String filename, PriceListDiff diff) {
+    Button apply = new Button("apply");
+    apply.setIcon(FontAwesome.CHECK_CIRCLE);
+    apply.setDescription("Click here to add the new packages and update the changed prices");
+    apply.setEnabled(!diff.isEmpty());
+
+    WindowFactory preview = new WindowFactory();
+    Window previewWindow =
+        preview.setTitle("Reload " + filename + "?").isModal(true).addButton(apply).getWindow(false);
+    previewWindow.setWidth(40, Sizeable.Unit.PERCENTAGE);
+    previewWindow.setHeight(60, Sizeable.Unit.PERCENTAGE);
+    Layout infoLayout = preview.getContentLayout();
+
+    WindowFactory.addNotification(diff.isEmpty() ? "success" : "warn", diff.getSummary(),
+        infoLayout);
+    // the first lines of each kind, the whole difference is in the log
+    int shown = 0;
+    for (PriceListDiff.PriceChange change : diff.getChanged()) {
+      if (shown++ < 10) {
+        WindowFactory.addNotification("warn", "changed: " + change, infoLayout);
+      }
+      LOG.info("price list " + filename + ", changed: " + change);
+    }
+    shown = 0;
+    for (packageBean pack : diff.getAdded()) {
+      if (shown++ < 10) {
+        WindowFactory.addNotification("success",
+            "new: " + pack.getpackage_name() + " (" + pack.getpackage_facility() + ")", infoLayout);
+      }
+    }
+    shown = 0;
+    for (PackageSummary pack : diff.getMissing()) {
+      if (shown++ < 10) {
+        WindowFactory.addNotification("warn", "missing (kept): " + pack.getPackageName() + " ("
+            + pack.getPackageId() + ")", infoLayout);
+      }
+    }
+    shown = 0;
+    for (PackageBatchReader.RowError rowError : diff.getErrors()) {
+      if (shown++ < 10) {
+        WindowFactory.addNotification("failure", "skipped " + rowError, infoLayout);
+      }
+    }
+
+    apply.addClickListener(click -> {
+      UI ui = UI.getCurrent();
+      apply.setEnabled(false);
+      preview.enableButton(preview.getCloseButton(), false);
+      WindowFactory.addNotification("spin", "Applying the price list...", infoLayout);
+      ui.setPollInterval(500);
+      String user =
+          PortalUtils.isLiferayPortlet() ? PortalUtils.getUser().getScreenName() : "unknown";
+
+      PackageBatchReader.applyInBackground(diff, db, user)
+          .whenComplete((repricedOffers, error) -> ui.access(() -> {
+            ui.setPollInterval(-1);
+            previewWindow.close();
+            if (error != null) {
+              displayNotification("Price list not applied",
+                  "Nothing has been changed: " + error.getMessage(), "error");
+              return;
+            }
+            container.refresh();
+            packageGrid.clearSortOrder();
+            packageGrid.sort("package_name", SortDirection.ASCENDING);
+            if (repricedOffers > 0) {
+              omt.refreshOffersContainer();
+            }
+            displayNotification("Price list applied", diff.getAdded().size()
+                + " package(s) added, " + diff.getChanged().size() + " price(s) changed, "
+                + repricedOffers + " offer(s) repriced.", "success");
+          }));
+    });
+
+    UI.getCurrent().addWindow(previewWindow);
   }
 
   /**
@@ -414,33 +703,37 @@ final class PackageManagerTab {
         }
 
         String packageGroup = packageGroupObject.toString();
+        Object packageFacilityObject = selectedRow.getItemProperty("package_facility").getValue();
+        String packageFacility =
+            packageFacilityObject == null ? null : packageFacilityObject.toString();
 
-        // based on the package group we have different price modifiers:
-        BigDecimal packagePriceExternalAcademic = PriceModificationHelper
-            .computePrice(packagePriceInternal, "external_academics", packageGroup);
-        BigDecimal packagePriceExternalCommercial = PriceModificationHelper
-            .computePrice(packagePriceInternal, "external_commercial", packageGroup);
+        // based on the package group (and facility) we have different price modifiers:
+        BigDecimal packagePriceExternalAcademic = PriceModificationHelper.computePrice(
+            packagePriceInternal, "external_academics", packageGroup, packageFacility);
+        BigDecimal packagePriceExternalCommercial = PriceModificationHelper.computePrice(
+            packagePriceInternal, "external_commercial", packageGroup, packageFacility);
 
         // set the respective fields in the grid, which also updates the database
         selectedRow.getItemProperty("package_price_external_academic")
             .setValue(packagePriceExternalAcademic);
         selectedRow.getItemProperty("package_price_external_commercial")
             .setValue(packagePriceExternalCommercial);
+        db.invalidatePackageCatalog();
 
 
       }
-      // update the new price also for table offers_packages
-      String package_id = selectedRow.getItemProperty("package_id").getValue().toString();
-
-      // need to do this for all offers that contain this package
-      ArrayList<Integer> offerIDs = db.getAllOfferIDsForPackageID(package_id);
-
-      // last change here
-      for (int i = 0; i < offerIDs.size(); i++) {
-        String offer_id = Integer.toString(offerIDs.get(i));
-        // displayNotification("here", "" + offer_id, "success");
-
-        updatePackageAddOnPrice(offer_id, package_id);
+      // update the new price also for table offers_packages and the offers using the package
+      int package_id = Integer.parseInt(selectedRow.getItemProperty("package_id").getValue().toString());
+      int repricedOffers = db.repricePackageInAllOffers(package_id);
+
+      if (repricedOffers < 0) {
+        displayNotification("Offers not updated", "The offers using package " + package_id
+            + " could not be repriced. Please edit the package price again.", "error");
+      } else if (repricedOffers > 0) {
+        omt.refreshOffersContainer();
+        displayNotification("Offers updated",
+            repricedOffers + " offer(s) using package " + package_id + " have been repriced.",
+            "success");
       }
 
     } else {
@@ -452,22 +745,4 @@ final class PackageManagerTab {
     }
   }
 
-  /**
-   * This function updates the price of an package in an offer this needs to be done when the price
-   * of an package is changed
-   *
-   * @param offer_id
-   * @param package_id
-   */
-  private void updatePackageAddOnPrice(String offer_id, String package_id) {
-
-    String package_priceType = db.getPackagePriceType(offer_id, package_id);
-
-    db.updatePriceAndRecalculateTotalPrices(offer_id, package_id, package_priceType);
-
-    omt.refreshOffersContainer();
-
-  }
-
-
 }
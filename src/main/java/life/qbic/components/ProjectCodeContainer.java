@@ -0,0 +1,356 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.components;
+
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.common.search.SearchResult;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.project.Project;
+import com.vaadin.data.Container;
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+import com.vaadin.data.util.ObjectProperty;
+import com.vaadin.data.util.PropertysetItem;
+import com.vaadin.data.util.filter.SimpleStringFilter;
+import com.vaadin.data.util.filter.UnsupportedFilterException;
+import life.qbic.dbase.OpenBisProxy;
+import life.qbic.dbase.ProjectIndex;
+import life.qbic.utils.ConfigurationUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Read-only container of the openBIS project codes for the project ComboBox of the offer generator.
+ * <p>
+ * The container holds no project codes itself: the codes matching the filter of the ComboBox are
+ * looked up in the {@link ProjectIndex} shared by all sessions (binary search for a prefix, a scan
+ * for a part of the code), and the ComboBox only fetches the page it shows. As long as the index
+ * has not been loaded, the pages are queried from openBIS directly, at least
+ * qoffer.openbis.projects.fetchSize [50] codes at a time.
+ * <p>
+ * The ComboBox only uses the container like this in ItemCaptionMode.PROPERTY with
+ * {@link #CODE} as caption property.
+ */
+final class ProjectCodeContainer implements Container.Indexed, Container.Filterable {
+
+  private static final long serialVersionUID = 1796238014571270133L;
+
+  private static final Logger LOG = LogManager.getLogger(ProjectCodeContainer.class);
+
+  static final String CODE = "code";
+
+  private static final int FETCH_SIZE =
+      Math.max(1, ConfigurationUtils.getInt("qoffer.openbis.projects.fetchSize", 50));
+
+  private SimpleStringFilter filter;
+
+  private transient OpenBisProxy openBis;
+
+  // codes matching the filter in the index they were looked up in
+  private transient ProjectIndex filteredIndex;
+  private transient SimpleStringFilter filteredFilter;
+  private transient List<String> filteredCodes;
+
+  // last page queried from openBIS while there is no index
+  private transient SimpleStringFilter pageFilter;
+  private transient int pageStart;
+  private transient List<String> pageCodes;
+  private transient int pageTotal;
+
+  // last code looked up in openBIS while there is no index
+  private transient String checkedCode;
+  private transient boolean checkedCodeExists;
+
+  // the proxy is a singleton, so it only needs to be looked up once (again after deserialization)
+  private OpenBisProxy openBis() {
+    if (openBis == null) {
+      openBis = OpenBisProxy.getInstance();
+    }
+    return openBis;
+  }
+
+  // ----- the codes matching the filter
+
+  /**
+   * @return the codes matching the current filter, null if the project index is not loaded yet
+   */
+  private List<String> getIndexedCodes() {
+    ProjectIndex index = openBis().getProjectIndex();
+    if (index == null) {
+      return null;
+    }
+    if (filter == null) {
+      return index.getCodes();
+    }
+    if (index != filteredIndex || !filter.equals(filteredFilter)) {
+      String filterString = filter.getFilterString();
+      filteredCodes = filter.isOnlyMatchPrefix() ? index.getCodesStartingWith(filterString)
+          : index.getCodesContaining(filterString);
+      filteredIndex = index;
+      filteredFilter = filter;
+    }
+    return filteredCodes;
+  }
+
+  // queries the page starting at start from openBIS, unless it is the current page
+  private void fetchPage(int start, int count) {
+    if (pageCodes != null && Objects.equals(filter, pageFilter) && start >= pageStart
+        && start + count <= pageStart + pageCodes.size()) {
+      return;
+    }
+    SearchResult<Project> result = openBis().searchProjects(
+        filter == null ? null : filter.getFilterString(),
+        filter != null && filter.isOnlyMatchPrefix(), start, Math.max(count, FETCH_SIZE));
+    List<String> codes = new ArrayList<>(result.getObjects().size());
+    for (Project project : result.getObjects()) {
+      codes.add(project.getCode());
+    }
+    pageFilter = filter;
+    pageStart = start;
+    pageCodes = codes;
+    pageTotal = result.getTotalCount();
+  }
+
+  @Override
+  public int size() {
+    List<String> codes = getIndexedCodes();
+    if (codes != null) {
+      return codes.size();
+    }
+    fetchPage(0, 1);
+    return pageTotal;
+  }
+
+  @Override
+  public List<?> getItemIds(int startIndex, int numberOfItems) {
+    if (startIndex < 0 || numberOfItems < 0) {
+      throw new IndexOutOfBoundsException("start " + startIndex + ", count " + numberOfItems);
+    }
+    List<String> codes = getIndexedCodes();
+    if (codes == null) {
+      fetchPage(startIndex, numberOfItems);
+      int from = Math.min(startIndex - pageStart, pageCodes.size());
+      codes = pageCodes.subList(from, Math.min(from + numberOfItems, pageCodes.size()));
+      return Collections.unmodifiableList(new ArrayList<>(codes));
+    }
+    int from = Math.min(startIndex, codes.size());
+    return Collections.unmodifiableList(
+        new ArrayList<>(codes.subList(from, Math.min(from + numberOfItems, codes.size()))));
+  }
+
+  @Override
+  public Collection<?> getItemIds() {
+    List<String> codes = getIndexedCodes();
+    return codes != null ? codes : getItemIds(0, FETCH_SIZE);
+  }
+
+  @Override
+  public int indexOfId(Object itemId) {
+    List<String> codes = getIndexedCodes();
+    if (codes != null) {
+      return codes.indexOf(itemId);
+    }
+    int index =
+        pageCodes == null || !Objects.equals(filter, pageFilter) ? -1 : pageCodes.indexOf(itemId);
+    return index < 0 ? -1 : pageStart + index;
+  }
+
+  @Override
+  public Object getIdByIndex(int index) {
+    List<?> ids = getItemIds(index, 1);
+    if (ids.isEmpty()) {
+      throw new IndexOutOfBoundsException("no project at index " + index);
+    }
+    return ids.get(0);
+  }
+
+  /**
+   * ignores the filter, so the caption of the selected project is always found. Without index,
+   * codes which are not on the page fetched last are looked up in openBIS.
+   */
+  @Override
+  public boolean containsId(Object itemId) {
+    if (!(itemId instanceof String)) {
+      return false;
+    }
+    String code = (String) itemId;
+    ProjectIndex index = openBis().getProjectIndex();
+    if (index != null) {
+      return index.getProject(code) != null;
+    }
+    if (pageCodes != null && pageCodes.contains(code)) {
+      return true;
+    }
+    if (!code.equals(checkedCode)) {
+      try {
+        checkedCodeExists = openBis().projectExists(code);
+      } catch (RuntimeException e) {
+        LOG.warn("could not look up the openBIS project " + code + ": " + e.getMessage());
+        return false;
+      }
+      checkedCode = code;
+    }
+    return checkedCodeExists;
+  }
+
+  @Override
+  public Item getItem(Object itemId) {
+    if (!containsId(itemId)) {
+      return null;
+    }
+    PropertysetItem item = new PropertysetItem();
+    item.addItemProperty(CODE, new ObjectProperty<>((String) itemId, String.class, true));
+    return item;
+  }
+
+  @Override
+  public Collection<?> getContainerPropertyIds() {
+    return Collections.singletonList(CODE);
+  }
+
+  @Override
+  public Property getContainerProperty(Object itemId, Object propertyId) {
+    Item item = getItem(itemId);
+    return item == null ? null : item.getItemProperty(propertyId);
+  }
+
+  @Override
+  public Class<?> getType(Object propertyId) {
+    return CODE.equals(propertyId) ? String.class : null;
+  }
+
+  // ----- Ordered
+
+  @Override
+  public Object nextItemId(Object itemId) {
+    int index = indexOfId(itemId);
+    return index < 0 || index + 1 >= size() ? null : getIdByIndex(index + 1);
+  }
+
+  @Override
+  public Object prevItemId(Object itemId) {
+    int index = indexOfId(itemId);
+    return index <= 0 ? null : getIdByIndex(index - 1);
+  }
+
+  @Override
+  public Object firstItemId() {
+    return size() == 0 ? null : getIdByIndex(0);
+  }
+
+  @Override
+  public Object lastItemId() {
+    int size = size();
+    return size == 0 ? null : getIdByIndex(size - 1);
+  }
+
+  @Override
+  public boolean isFirstId(Object itemId) {
+    return itemId != null && itemId.equals(firstItemId());
+  }
+
+  @Override
+  public boolean isLastId(Object itemId) {
+    return itemId != null && itemId.equals(lastItemId());
+  }
+
+  // ----- Filterable, only the SimpleStringFilter of the ComboBox is supported
+
+  @Override
+  public void addContainerFilter(Filter filter) throws UnsupportedFilterException {
+    if (!(filter instanceof SimpleStringFilter)
+        || !CODE.equals(((SimpleStringFilter) filter).getPropertyId())) {
+      throw new UnsupportedFilterException(
+          "only SimpleStringFilters on the project code are supported");
+    }
+    this.filter = (SimpleStringFilter) filter;
+  }
+
+  @Override
+  public void removeContainerFilter(Filter filter) {
+    if (filter != null && filter.equals(this.filter)) {
+      this.filter = null;
+    }
+  }
+
+  @Override
+  public void removeAllContainerFilters() {
+    filter = null;
+  }
+
+  @Override
+  public Collection<Filter> getContainerFilters() {
+    return filter == null ? Collections.<Filter>emptyList()
+        : Collections.<Filter>singletonList(filter);
+  }
+
+  // ----- the projects are read-only
+
+  @Override
+  public Object addItemAt(int index) {
+    throw new UnsupportedOperationException("the openBIS projects are read-only");
+  }
+
+  @Override
+  public Item addItemAt(int index, Object newItemId) {
+    throw new UnsupportedOperationException("the openBIS projects are read-only");
+  }
+
+  @Override
+  public Object addItemAfter(Object previousItemId) {
+    throw new UnsupportedOperationException("the openBIS projects are read-only");
+  }
+
+  @Override
+  public Item addItemAfter(Object previousItemId, Object newItemId) {
+    throw new UnsupportedOperationException("the openBIS projects are read-only");
+  }
+
+  @Override
+  public Item addItem(Object itemId) {
+    throw new UnsupportedOperationException("the openBIS projects are read-only");
+  }
+
+  @Override
+  public Object addItem() {
+    throw new UnsupportedOperationException("the openBIS projects are read-only");
+  }
+
+  @Override
+  public boolean removeItem(Object itemId) {
+    throw new UnsupportedOperationException("the openBIS projects are read-only");
+  }
+
+  @Override
+  public boolean addContainerProperty(Object propertyId, Class<?> type, Object defaultValue) {
+    throw new UnsupportedOperationException("the openBIS projects are read-only");
+  }
+
+  @Override
+  public boolean removeContainerProperty(Object propertyId) {
+    throw new UnsupportedOperationException("the openBIS projects are read-only");
+  }
+
+  @Override
+  public boolean removeAllItems() {
+    throw new UnsupportedOperationException("the openBIS projects are read-only");
+  }
+}
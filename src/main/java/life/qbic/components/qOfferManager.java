@@ -21,6 +21,7 @@ import com.vaadin.ui.GridLayout.OutOfBoundsException;
 import com.vaadin.ui.GridLayout.OverlapsException;
 import com.vaadin.ui.themes.ValoTheme;
 import life.qbic.dbase.Database;
+import life.qbic.utils.TmpFolderStorage;
 import life.qbic.portal.utils.ConfigurationManager;
 import life.qbic.portal.utils.ConfigurationManagerFactory;
 import life.qbic.portal.utils.PortalUtils;
@@ -122,6 +123,8 @@ public class qOfferManager extends CustomComponent {
       LOG.warn("unsuccessfully tried to initialize temporary folder:"+tmpFolder);
       LOG.warn(e.getMessage());
     }
+    // everything kept on disk goes through the managed storage in a subfolder of it
+    TmpFolderStorage.getInstance().setFolder(tmpFolder);
     
     db = Database.getInstance();
     managerTabs = new TabSheet();
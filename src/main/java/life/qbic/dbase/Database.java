@@ -16,18 +16,30 @@
 package life.qbic.dbase;
 
 import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
-import com.vaadin.data.util.sqlcontainer.connection.SimpleJDBCConnectionPool;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import life.qbic.model.OfferTotals;
+import life.qbic.model.PackageGroup;
+import life.qbic.model.PackageSummary;
 import life.qbic.model.packageBean;
 import life.qbic.portal.utils.ConfigurationManager;
 import life.qbic.portal.utils.ConfigurationManagerFactory;
+import life.qbic.utils.ConfigurationUtils;
+import life.qbic.utils.PriceListDiff;
 import life.qbic.utils.PriceModificationHelper;
+import life.qbic.utils.PriceModifierTable;
+import life.qbic.utils.PricingEngine;
+import life.qbic.utils.PricingEngine.OfferPricing;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import java.math.BigDecimal;
 import java.sql.*;
-import java.text.DecimalFormat;
 import java.util.*;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.sql.DataSource;
 
 public class Database {
 
@@ -40,6 +52,20 @@ public class Database {
   private final String sql_database;
   private final String username;
   private final String password;
+  // pooled connections shared by all sessions, see createDataSource()
+  private final HikariDataSource dataSource;
+
+  // JVM-wide snapshot of the packages table, null until it is loaded or after an invalidation
+  private final AtomicReference<PackageCatalog> packageCatalog = new AtomicReference<>();
+  // guards packageCatalogGeneration, so a snapshot read before a change is never published after it
+  private final Object packageCatalogLock = new Object();
+  private long packageCatalogGeneration;
+  private final AtomicLong packageCatalogHits = new AtomicLong();
+  private final AtomicLong packageCatalogMisses = new AtomicLong();
+  // packages changed outside of the offer manager (e.g. directly in the database) show up after
+  // this time at the latest
+  private final long packageCatalogMaxAgeNanos = TimeUnit.MILLISECONDS
+      .toNanos(ConfigurationUtils.getLong("qoffer.packages.cache.maxAgeMs", 600000));
 
   public Database(String user, String password, String host, String port, String sql_database) {
     username = user;
@@ -54,9 +80,75 @@ public class Database {
     } catch (ClassNotFoundException e) {
       e.printStackTrace();
     }
+    this.dataSource = createDataSource(mysqlDriverName);
     LOG.info("MySQL Database instance created");
   }
 
+  /**
+   * creates the connection pool all database access goes through. The pool settings can be tuned
+   * with the following system properties (defaults in brackets):
+   * <ul>
+   * <li>qoffer.mysql.pool.minIdle: connections kept open while idle [2]</li>
+   * <li>qoffer.mysql.pool.maxSize: upper bound of open connections [10]</li>
+   * <li>qoffer.mysql.pool.borrowTimeoutMs: how long a caller waits for a free connection [10000]</li>
+   * <li>qoffer.mysql.pool.validationTimeoutMs: timeout of the connection liveness check [3000]</li>
+   * <li>qoffer.mysql.pool.idleTimeoutMs: idle time after which connections above minIdle are
+   * evicted [300000]</li>
+   * <li>qoffer.mysql.pool.maxLifetimeMs: connections are retired after this time, should be below
+   * the wait_timeout of MySQL [1500000]</li>
+   * </ul>
+   *
+   * @param driverClassName: JDBC driver to use
+   * @return the pooled DataSource
+   */
+  private HikariDataSource createDataSource(String driverClassName) {
+    HikariConfig config = new HikariConfig();
+    config.setPoolName("qoffer-mysql");
+    config.setDriverClassName(driverClassName);
+    config.setJdbcUrl(url);
+    config.setUsername(username);
+    config.setPassword(password);
+
+    int maxSize = Math.max(1, ConfigurationUtils.getInt("qoffer.mysql.pool.maxSize", 10));
+    config.setMaximumPoolSize(maxSize);
+    config.setMinimumIdle(
+        Math.min(maxSize, Math.max(0, ConfigurationUtils.getInt("qoffer.mysql.pool.minIdle", 2))));
+    config.setConnectionTimeout(
+        ConfigurationUtils.getLong("qoffer.mysql.pool.borrowTimeoutMs", 10000));
+    config.setValidationTimeout(
+        ConfigurationUtils.getLong("qoffer.mysql.pool.validationTimeoutMs", 3000));
+    config.setIdleTimeout(ConfigurationUtils.getLong("qoffer.mysql.pool.idleTimeoutMs", 300000));
+    config.setMaxLifetime(ConfigurationUtils.getLong("qoffer.mysql.pool.maxLifetimeMs", 1500000));
+    // don't fail the portlet start if MySQL is not reachable yet, the pool connects lazily
+    config.setInitializationFailTimeout(-1);
+
+    // let the driver cache the prepared statements of the pooled connections
+    config.addDataSourceProperty("cachePrepStmts", "true");
+    config.addDataSourceProperty("prepStmtCacheSize", "250");
+    config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+    // send JDBC batches as multi-row statements instead of one statement per row
+    config.addDataSourceProperty("rewriteBatchedStatements", "true");
+
+    LOG.info(String.format("Creating MySQL connection pool (min idle %d, max size %d)",
+        config.getMinimumIdle(), config.getMaximumPoolSize()));
+    return new HikariDataSource(config);
+  }
+
+  /**
+   * @return the pooled DataSource shared by all users of this Database instance
+   */
+  public DataSource getDataSource() {
+    return dataSource;
+  }
+
+  /**
+   * closes all pooled connections. Only meant for standalone use (e.g. the batch import), the
+   * portlet keeps the pool open for the lifetime of the JVM.
+   */
+  public void close() {
+    dataSource.close();
+  }
+
 
   // create the connection
 
@@ -65,12 +157,14 @@ public class Database {
     return INSTANCE;
   }
 
-  // creates new connection pool each time called BUT static context..
+  /**
+   * returns the connection pool for the vaadin SQLContainers. All containers share one pool which
+   * hands out the connections of the pooled DataSource (see {@link SharedJDBCConnectionPool}).
+   *
+   * @return the JVM-wide JDBCConnectionPool
+   */
   public static JDBCConnectionPool getDatabaseInstanceAlternative() throws SQLException {
-
-    return new SimpleJDBCConnectionPool("com.mysql.jdbc.Driver",
-        "jdbc:mysql://" + INSTANCE.hostname + ":" + INSTANCE.port + "/" + INSTANCE.sql_database,
-        INSTANCE.username, INSTANCE.password, 2, 5);
+    return SharedJDBCConnectionPool.getInstance();
   }
 
 
@@ -90,7 +184,6 @@ public class Database {
    * @param conn:
    * @param closeConnection:
    */
-  @SuppressWarnings("unused")
   private void rollback(Connection conn, boolean closeConnection) {
 
     try {
@@ -107,17 +200,19 @@ public class Database {
   }
 
   /**
-   * logs into database with the parameters given in init()
+   * borrows a connection from the pool created with the parameters given in init(). Closing the
+   * connection returns it to the pool.
    *
    * @return Connection, otherwise null if connecting to the database fails
-   * @throws SQLException if a database access error occurs or the url is {@code null}
+   * @throws SQLException if a database access error occurs or no connection became available
+   *         within the borrow timeout
    */
   private Connection login() throws SQLException {
-    return DriverManager.getConnection(url, username, password);
+    return dataSource.getConnection();
   }
 
   /**
-   * tries to close the given connection and release it
+   * tries to close the given connection and release it back to the pool
    * <p>
    * From java documentation: It is strongly recommended that an application explicitly commits or
    * rolls back an active transaction prior to calling the close method. If the close method is
@@ -134,45 +229,166 @@ public class Database {
     }
   }
 
-  public List<packageBean> getPackages() {
-    String sql = "SELECT * FROM packages";
-    List<packageBean> pbean = new ArrayList<>();
-    try (Connection conn = login(); PreparedStatement statement = conn.prepareStatement(sql)) {
+  /**
+   * returns the snapshot of the packages table shared by all sessions, reading it from the database
+   * if it has not been loaded yet, has been invalidated or is older than
+   * qoffer.packages.cache.maxAgeMs [600000].
+   *
+   * @return the current package catalog, empty if the packages could not be read
+   */
+  private PackageCatalog getPackageCatalog() {
+    PackageCatalog catalog = packageCatalog.get();
+    if (catalog != null
+        && System.nanoTime() - catalog.getLoadedAtNanos() < packageCatalogMaxAgeNanos) {
+      packageCatalogHits.incrementAndGet();
+      return catalog;
+    }
+    packageCatalogMisses.incrementAndGet();
+    return loadPackageCatalog();
+  }
 
-      ResultSet rs = statement.executeQuery();
+  private PackageCatalog loadPackageCatalog() {
+    long generation;
+    synchronized (packageCatalogLock) {
+      generation = packageCatalogGeneration;
+    }
+
+    String sql = "SELECT " + PACKAGE_SUMMARY_COLUMNS + " FROM packages ORDER BY package_id";
+    List<PackageSummary> packages = new ArrayList<>();
+    long loadedAt = System.nanoTime();
+    try (Connection conn = login();
+        PreparedStatement statement = conn.prepareStatement(sql);
+        ResultSet rs = statement.executeQuery()) {
       while (rs.next()) {
-        packageBean p = new packageBean();
-        p.setpackage_id(rs.getInt("package_id"));
-        p.setpackage_name(rs.getString("package_name"));
-        p.setpackage_facility(rs.getString("package_facility"));
-        p.setpackage_description(rs.getString("package_description"));
-        p.setpackage_group(rs.getString("package_group"));
-        p.setpackage_price(rs.getInt("package_price"));
-        p.setPackage_price_external(rs.getInt("package_price_external"));
-        p.setPackage_unit_type(rs.getString("package_unit_type"));
-        p.setpackage_date(rs.getTimestamp("package_date"));
-        pbean.add(p);
+        packages.add(readPackageSummary(rs));
       }
     } catch (SQLException e) {
       e.printStackTrace();
+      // not cached, the next read tries again
+      return PackageCatalog.EMPTY;
     }
-    return pbean;
+
+    PackageCatalog catalog = new PackageCatalog(packages, loadedAt);
+    synchronized (packageCatalogLock) {
+      if (generation == packageCatalogGeneration) {
+        packageCatalog.set(catalog);
+      }
+    }
+    LOG.debug(String.format("loaded package catalog with %d packages", catalog.size()));
+    return catalog;
   }
 
-  public ArrayList<String> getPackageGroups() {
-    ArrayList<String> list = new ArrayList<>();
-    String sql = "SELECT DISTINCT package_group FROM packages";
-    // The following statement is an try-with-devices statement, which declares two devices,
-    // conn and statement, which will be automatically closed when the try block terminates
-    try (Connection conn = login(); Statement statement = conn.createStatement()) {
-      ResultSet rs = statement.executeQuery(sql);
-      while (rs.next()) {
-        list.add(rs.getString("package_group"));
+  // columns read by readPackageSummary
+  private static final String PACKAGE_SUMMARY_COLUMNS =
+      "package_id, package_name, package_facility, package_description, package_group, "
+          + "package_price_internal, package_price_external_academic, "
+          + "package_price_external_commercial, package_unit_type, package_date";
+
+  private static PackageSummary readPackageSummary(ResultSet rs) throws SQLException {
+    return new PackageSummary(rs.getInt("package_id"), rs.getString("package_name"),
+        rs.getString("package_facility"), rs.getString("package_description"),
+        rs.getString("package_group"), rs.getBigDecimal("package_price_internal"),
+        rs.getBigDecimal("package_price_external_academic"),
+        rs.getBigDecimal("package_price_external_commercial"), rs.getString("package_unit_type"),
+        rs.getTimestamp("package_date"));
+  }
+
+  /**
+   * drops the cached package catalog, so the next read gets the packages from the database again.
+   * Has to be called after every change of the packages table.
+   */
+  public void invalidatePackageCatalog() {
+    synchronized (packageCatalogLock) {
+      packageCatalogGeneration++;
+      packageCatalog.set(null);
+    }
+  }
+
+  /**
+   * @return number of package catalog reads served without a database round trip
+   */
+  public long getPackageCatalogHits() {
+    return packageCatalogHits.get();
+  }
+
+  /**
+   * @return number of package catalog reads that had to load the packages from the database
+   */
+  public long getPackageCatalogMisses() {
+    return packageCatalogMisses.get();
+  }
+
+  /**
+   * returns the packages with the given ids. The packages are served from the package catalog;
+   * packages missing in the catalog (e.g. added by another portal node) are fetched with one
+   * query for all of them, and the catalog is only invalidated if any of them exist.
+   *
+   * @param packageIds: ids of the packages to look up
+   * @return package_id -> package in the iteration order of packageIds; ids of packages that don't
+   *         exist are missing in the map
+   */
+  public Map<Integer, PackageSummary> getPackageSummaries(Collection<Integer> packageIds) {
+    Map<Integer, PackageSummary> summaries = new LinkedHashMap<>();
+    if (packageIds.isEmpty()) {
+      return summaries;
+    }
+
+    PackageCatalog catalog = getPackageCatalog();
+    Set<Integer> missing = new LinkedHashSet<>();
+    for (Integer packageId : packageIds) {
+      PackageSummary pack = catalog.getById(packageId);
+      // keep the position of the package in the map, even if it has to be fetched below
+      summaries.put(packageId, pack);
+      if (pack == null) {
+        missing.add(packageId);
       }
-    } catch (SQLException e) {
-      e.printStackTrace();
     }
-    return list;
+
+    if (!missing.isEmpty()) {
+      boolean found = false;
+      String sql = "SELECT " + PACKAGE_SUMMARY_COLUMNS + " FROM packages WHERE package_id IN ("
+          + String.join(",", Collections.nCopies(missing.size(), "?")) + ")";
+      try (Connection conn = login(); PreparedStatement statement = conn.prepareStatement(sql)) {
+        int i = 1;
+        for (Integer packageId : missing) {
+          statement.setInt(i++, packageId);
+        }
+        try (ResultSet rs = statement.executeQuery()) {
+          while (rs.next()) {
+            summaries.put(rs.getInt("package_id"), readPackageSummary(rs));
+            found = true;
+          }
+        }
+      } catch (SQLException e) {
+        e.printStackTrace();
+      }
+      // the catalog is missing packages which exist, so it is outdated; ids of packages which
+      // don't exist (e.g. deleted ones) don't make it outdated and must not reload it every time
+      if (found) {
+        invalidatePackageCatalog();
+      }
+    }
+
+    summaries.values().removeIf(Objects::isNull);
+    return summaries;
+  }
+
+  public List<packageBean> getPackages() {
+    List<packageBean> pbean = new ArrayList<>();
+    for (PackageSummary pack : getPackageCatalog().getAll()) {
+      BigDecimal price = pack.getPriceInternal();
+      BigDecimal priceExternal = pack.getPriceExternalAcademic();
+      pbean.add(new packageBean(pack.getPackageId(), pack.getPackageName(),
+          pack.getPackageFacility(), pack.getPackageDescription(), pack.getPackageGroup(),
+          price == null ? 0 : price.doubleValue(),
+          priceExternal == null ? 0 : priceExternal.doubleValue(), pack.getPackageUnitType(),
+          pack.getPackageDate()));
+    }
+    return pbean;
+  }
+
+  public ArrayList<String> getPackageGroups() {
+    return new ArrayList<>(getPackageCatalog().getGroups());
   }
 
   /**
@@ -182,63 +398,28 @@ public class Database {
    * @return ArrayList of strings where each string consists of: packageId + ": " + packageName
    */
   public ArrayList<String> getPackageIdsAndNames(String package_group) {
-
-    ArrayList<String> list = new ArrayList<>();
-    String sql =
-        "SELECT package_id, package_name FROM packages WHERE package_group = ? ORDER BY package_name";
-    // The following statement is an try-with-devices statement, which declares two devices,
-    // conn and statement, which will be automatically closed when the try block terminates
-    try (Connection conn = login(); PreparedStatement statement = conn.prepareStatement(sql)) {
-      statement.setString(1, package_group);
-      ResultSet rs = statement.executeQuery();
-      while (rs.next()) {
-        String packageId = rs.getString("package_id");
-        String packageName = rs.getString("package_name");
-        list.add(packageId + ": " + packageName);
-      }
-    } catch (SQLException e) {
-      e.printStackTrace();
-    }
-    return list;
+    return new ArrayList<>(getPackageCatalog().getIdsAndNames(package_group));
   }
 
   public String getPackageNameFromPackageId(String packageId) {
-    String sql = "SELECT package_name FROM packages WHERE package_id = ?";
-
     String packageName = "Error: package not found";
-    // The following statement is an try-with-resources statement, which declares two resources,
-    // conn and statement, which will be automatically closed when the try block terminates
-    try (Connection conn = login(); PreparedStatement statement = conn.prepareStatement(sql)) {
-      statement.setString(1, packageId);
-      ResultSet rs = statement.executeQuery();
-      if (rs.next())
-        packageName = rs.getString(1);
-    } catch (SQLException e) {
-      e.printStackTrace();
+    try {
+      PackageSummary pack = getPackageCatalog().getById(Integer.parseInt(packageId.trim()));
+      if (pack != null)
+        packageName = pack.getPackageName();
+    } catch (NumberFormatException e) {
+      LOG.warn("invalid package id " + packageId);
     }
     return packageName;
   }
 
+  /**
+   * @return ArrayList of strings where each string consists of: packageId + ": " + packageName,
+   *         ordered by the package id
+   */
   public ArrayList<String> getPackageIdsAndNames() {
-
-    ArrayList<String> list = new ArrayList<>();
-    // String sql = "SELECT package_id, package_name FROM packages ORDER BY package_name";
     // as requested order Packages by their ID
-    String sql = "SELECT package_id, package_name FROM packages ORDER BY package_id";
-
-    // The following statement is an try-with-devices statement, which declares two devices,
-    // conn and statement, which will be automatically closed when the try block terminates
-    try (Connection conn = login(); Statement statement = conn.createStatement()) {
-      ResultSet rs = statement.executeQuery(sql);
-      while (rs.next()) {
-        String packageId = rs.getString("package_id");
-        String packageName = rs.getString("package_name");
-        list.add(packageId + ": " + packageName);
-      }
-    } catch (SQLException e) {
-      e.printStackTrace();
-    }
-    return list;
+    return new ArrayList<>(getPackageCatalog().getIdsAndNames());
   }
 
   /**
@@ -415,37 +596,13 @@ public class Database {
   }
 
   public String getPackageDescriptionFromPackageId(int package_id) {
-    String package_description = "N/A";
-    String sql = "SELECT package_description FROM packages WHERE package_id = ?";
-    // The following statement is an try-with-resources statement, which declares two resources,
-    // conn and statement, which will be automatically closed when the try block terminates
-    try (Connection conn = login(); PreparedStatement statement = conn.prepareStatement(sql)) {
-      statement.setInt(1, package_id);
-      ResultSet rs = statement.executeQuery();
-      if (rs.next())
-        package_description = rs.getString(1);
-    } catch (SQLException e) {
-      e.printStackTrace();
-    }
-
-    return package_description;
+    PackageSummary pack = getPackageCatalog().getById(package_id);
+    return pack == null ? "N/A" : pack.getPackageDescription();
   }
 
   public int getPackageIDFromPackageName(String package_name) {
-    int package_id = 0;
-    String sql = "SELECT package_id FROM packages WHERE package_name = ?";
-    // The following statement is an try-with-resources statement, which declares two resources,
-    // conn and statement, which will be automatically closed when the try block terminates
-    try (Connection conn = login(); PreparedStatement statement = conn.prepareStatement(sql)) {
-      statement.setString(1, package_name);
-      ResultSet rs = statement.executeQuery();
-      if (rs.next())
-        package_id = rs.getInt(1);
-    } catch (SQLException e) {
-      e.printStackTrace();
-    }
-
-    return package_id;
+    PackageSummary pack = getPackageCatalog().getByName(package_name);
+    return pack == null ? 0 : pack.getPackageId();
   }
 
   public ArrayList<String> getOfferIdsForPackage(int package_id) {
@@ -505,7 +662,7 @@ public class Database {
     } catch (SQLException e) {
       e.printStackTrace();
     }
-
+    invalidatePackageCatalog();
   }
 
   public void removePackageFromOffer(int packageId, int selectedOfferId) {
@@ -540,34 +697,9 @@ public class Database {
   }
 
   private BigDecimal getPackagePrice(String package_id, String packagePriceType) {
-    BigDecimal price = BigDecimal.ZERO;
-
-    String sqlS;
-
-    switch (packagePriceType) {
-      case "internal":
-        sqlS = "SELECT package_price_internal FROM packages WHERE package_id = ? ";
-        break;
-      case "external_academic":
-        sqlS = "SELECT package_price_external_academic FROM packages WHERE package_id = ? ";
-        break;
-      case "external_commercial":
-        sqlS = "SELECT package_price_external_commercial FROM packages WHERE package_id = ? ";
-        break;
-      default:
-        sqlS = "SELECT package_price_internal FROM packages WHERE package_id = ? ";
-        break;
-    }
-    try (Connection conn = login(); PreparedStatement statementS = conn.prepareStatement(sqlS)) {
-      statementS.setString(1, package_id);
-      ResultSet rs = statementS.executeQuery();
-      if (rs.next()) {
-        price = rs.getBigDecimal(1);
-      }
-    } catch (SQLException e) {
-      e.printStackTrace();
-    }
-    return price;
+    PackageSummary pack = getPackageCatalog().getById(Integer.parseInt(package_id.trim()));
+    BigDecimal price = pack == null ? null : pack.getPrice(packagePriceType);
+    return price == null ? BigDecimal.ZERO : price;
   }
 
   public void updatePackagePrice(String offer_id, String package_id, String packagePriceType,
@@ -613,128 +745,322 @@ public class Database {
     return "no valid price type found";
   }
 
+  // the offers with their lines and the current prices of their packages, the lines of an offer
+  // follow each other; the rows stay locked until the end of the transaction
+  private static final String OFFER_LINES_SQL = "SELECT o.offer_id, o.discount, o.offer_price, "
+      + "o.offer_total, op.package_id, op.package_price_type, op.package_count, "
+      + "op.package_discount, op.package_addon_price, p.package_price_internal, "
+      + "p.package_price_external_academic, p.package_price_external_commercial FROM offers o "
+      + "LEFT JOIN offers_packages op ON op.offer_id = o.offer_id "
+      + "LEFT JOIN packages p ON p.package_id = op.package_id "
+      + "WHERE o.offer_id IN (%s) ORDER BY o.offer_id FOR UPDATE";
+
   /**
+   * Recomputes the package total prices, offer price and offer total of the offers selected by
+   * the SQL offerIds (a list of placeholders or a subquery) with the {@link PricingEngine}, on the
+   * given connection, i.e. within the caller's transaction. Only the rows whose price changes are
+   * written.
+   *
+   * @param offerIds: SQL selecting the offer ids, e.g. "?"
+   * @param parameters: values of the placeholders of offerIds
+   * @return the new totals of the offers
+   */
+  private List<OfferTotals> repriceOffers(Connection conn, String offerIds,
+      Collection<Integer> parameters) throws SQLException {
+    List<OfferTotals> repriced = new ArrayList<>();
+    OfferPricing pricing = new OfferPricing();
+    List<Integer> packageIds = new ArrayList<>();
+    List<Long> storedLineTotals = new ArrayList<>();
+    int changedLines = 0;
+
+    try (
+        PreparedStatement select =
+            conn.prepareStatement(String.format(OFFER_LINES_SQL, offerIds));
+        PreparedStatement updateLine = conn.prepareStatement("UPDATE offers_packages "
+            + "SET package_addon_price = ? WHERE offer_id = ? AND package_id = ?");
+        PreparedStatement updateOffer = conn.prepareStatement(
+            "UPDATE offers SET offer_price = ?, offer_total = ? WHERE offer_id = ?")) {
+      int i = 1;
+      for (Integer parameter : parameters) {
+        select.setInt(i++, parameter);
+      }
+      ResultSet rs = select.executeQuery();
+      boolean more = rs.next();
+      while (more) {
+        int offerId = rs.getInt("offer_id");
+        int offerDiscount = PricingEngine.parsePercent(rs.getString("discount"));
+        long storedOfferPrice = PricingEngine.toCents(rs.getObject("offer_price"));
+        long storedOfferTotal = PricingEngine.toCents(rs.getObject("offer_total"));
+        pricing.clear();
+        packageIds.clear();
+        storedLineTotals.clear();
+        for (; more && rs.getInt("offer_id") == offerId; more = rs.next()) {
+          int packageId = rs.getInt("package_id");
+          if (rs.wasNull()) {
+            // offer without packages
+            continue;
+          }
+          try {
+            pricing.addStoredLine(rs.getObject("package_price_internal"),
+                rs.getObject("package_price_external_academic"),
+                rs.getObject("package_price_external_commercial"),
+                rs.getString("package_price_type"), rs.getString("package_count"),
+                rs.getString("package_discount"));
+          } catch (NumberFormatException e) {
+            throw new SQLException("package " + packageId + " of offer " + offerId
+                + " can not be priced: " + e.getMessage(), e);
+          }
+          packageIds.add(packageId);
+          Object storedLineTotal = rs.getObject("package_addon_price");
+          storedLineTotals.add(storedLineTotal == null ? null
+              : PricingEngine.toCents(storedLineTotal));
+        }
+
+        pricing.price(null, offerDiscount);
+        for (int line = 0; line < pricing.size(); line++) {
+          long lineTotal = pricing.getLineTotal(line);
+          Long stored = storedLineTotals.get(line);
+          if (stored == null || stored != lineTotal) {
+            updateLine.setBigDecimal(1, PricingEngine.toBigDecimal(lineTotal));
+            updateLine.setInt(2, offerId);
+            updateLine.setInt(3, packageIds.get(line));
+            updateLine.addBatch();
+            changedLines++;
+          }
+        }
+        BigDecimal offerPrice = PricingEngine.toBigDecimal(pricing.getOfferPrice());
+        BigDecimal offerTotal = PricingEngine.toBigDecimal(pricing.getOfferTotal());
+        if (storedOfferPrice != pricing.getOfferPrice()
+            || storedOfferTotal != pricing.getOfferTotal()) {
+          updateOffer.setBigDecimal(1, offerPrice);
+          updateOffer.setBigDecimal(2, offerTotal);
+          updateOffer.setInt(3, offerId);
+          updateOffer.addBatch();
+        }
+        repriced.add(new OfferTotals(offerId, offerPrice, offerTotal));
+      }
+      updateLine.executeBatch();
+      updateOffer.executeBatch();
+    }
+    LOG.info(String.format("repriced %d offers, %d offer lines changed", repriced.size(),
+        changedLines));
+    return repriced;
+  }
+
+  /**
+   * recomputes the package total prices, offer price and offer total of the offer on the given
+   * connection (i.e. within the caller's transaction) and returns the new values
+   */
+  private OfferTotals recalculateOfferTotals(Connection conn, int offerId) throws SQLException {
+    List<OfferTotals> repriced =
+        repriceOffers(conn, "?", Collections.singletonList(offerId));
+    return repriced.isEmpty() ? new OfferTotals(offerId, BigDecimal.ZERO, BigDecimal.ZERO)
+        : repriced.get(0);
+  }
+
+  /**
+   * Updates quantity, discount and total price of a package in an offer and recalculates the offer
+   * price and the offer total. Everything happens in one transaction on one connection, so
+   * concurrent edits of the same offer can't leave inconsistent totals behind. All prices are
+   * computed by the {@link PricingEngine}.
    *
    * @param package_count
    * @param offer_id
    * @param package_id
    * @param packagePriceType
-   * @param packageDiscount Be careful! This is the discount from the discount_per_sample_size.csv
+   * @param packageDiscount: discount of the package in basis points, e.g. 1800 for 18%
+   * @return the new offer price and total, or null if the update failed
    */
-  public void updatePackageQuantityAndRecalculatePrice(String package_count, String offer_id,
-      String package_id, String packagePriceType, float packageDiscount) {
-
-    LOG.info("started to update");
-
-    BigDecimal updatedPackageAddOnPrice = getPackagePrice(package_id, packagePriceType);
-
-    updatedPackageAddOnPrice = updatedPackageAddOnPrice.multiply(
-        new BigDecimal(Integer.parseInt(package_count)).multiply(new BigDecimal(packageDiscount)));
-    LOG.info("calc addonpackage " + updatedPackageAddOnPrice);
-
-    // format the package discount
-    DecimalFormat df = new DecimalFormat("#");
-    String packageDiscountFormatted = df.format((1 - packageDiscount) * 100) + "%";
-
-    // update the package_count, the package_addon_price and the package_discount in the
-    // offers_packages table
-    updateOffersPackages(offer_id, package_id, package_count, updatedPackageAddOnPrice,
-        packageDiscountFormatted);
-    LOG.info("updated addOnPrice");
-
-
-    // get the sum of all total package prices as offer price
-    BigDecimal offerPrice = calculateOfferPrice(offer_id);
-
-    // update the offer price in the offers database
-    updateOfferPrice(offer_id, offerPrice);
-    LOG.info("updated offerPrice");
-
-
-    // get the offer discount
-    BigDecimal offerDiscount = getOfferDiscount(offer_id);
-    LOG.info("get offer discount " + offerDiscount);
-
-
-    // apply the discount + recalculate the total offer price
-    BigDecimal offerTotalPrice = offerPrice
-        .multiply((new BigDecimal(100).subtract(offerDiscount)).divide(new BigDecimal(100)));
-    LOG.info("calc offer total price " + offerTotalPrice);
-
-
-    // update the total offer price
-    updateTotalOfferPrice(offer_id, offerTotalPrice);
-    LOG.info("update offerTotalPrice");
+  public OfferTotals updatePackageQuantityAndRecalculatePrice(String package_count,
+      String offer_id, String package_id, String packagePriceType, int packageDiscount) {
+
+    String sql = "UPDATE offers_packages SET package_count = ?, package_discount = ?, "
+        + "package_price_type = ? WHERE offer_id = ? AND package_id = ?";
+
+    try (Connection conn = login()) {
+      conn.setAutoCommit(false);
+      try (PreparedStatement statement = conn.prepareStatement(sql)) {
+        statement.setString(1, package_count);
+        statement.setString(2, PricingEngine.formatPercent(packageDiscount));
+        statement.setString(3, packagePriceType);
+        statement.setInt(4, Integer.parseInt(offer_id));
+        statement.setInt(5, Integer.parseInt(package_id));
+        statement.executeUpdate();
+
+        OfferTotals totals = recalculateOfferTotals(conn, Integer.parseInt(offer_id));
+        conn.commit();
+        LOG.info("updated package " + package_id + " and repriced " + totals);
+        return totals;
+      } catch (SQLException e) {
+        rollback(conn, false);
+        throw e;
+      }
+    } catch (SQLException e) {
+      e.printStackTrace();
+    }
+    return null;
   }
 
   /**
+   * Sets the price type of a package in an offer and recalculates its total price (keeping its
+   * quantity and discount) and the resulting offer price and offer total, in one transaction.
    *
    * @param offer_id
    * @param package_id
    * @param packagePriceType
+   * @return the new offer price and total, or null if the update failed
    */
-  public void updatePriceAndRecalculateTotalPrices(String offer_id, String package_id,
+  public OfferTotals updatePriceAndRecalculateTotalPrices(String offer_id, String package_id,
       String packagePriceType) {
 
-    int package_count = getPackageCount(offer_id, package_id);
-
-    BigDecimal packageDiscount =
-        new BigDecimal(getPackageDiscount(offer_id, package_id).replace("%", ""));
-    packageDiscount = new BigDecimal(1).subtract((packageDiscount.divide(new BigDecimal(100))));
-
-    BigDecimal updatedPackageAddOnPrice = getPackagePrice(package_id, packagePriceType);
-
-    updatedPackageAddOnPrice =
-        updatedPackageAddOnPrice.multiply(new BigDecimal(package_count).multiply(packageDiscount));
-
-    // update the package_count, the package_addon_price and the package_discount in the
-    // offers_packages table
-    updateOffersPackages(offer_id, package_id, updatedPackageAddOnPrice);
-
-    // get the sum of all total package prices as offer price
-    BigDecimal offerPrice = calculateOfferPrice(offer_id);
-
-    // update the offer price in the offers database
-    updateOfferPrice(offer_id, offerPrice);
-
-    // get the offer discount
-    BigDecimal offerDiscount = getOfferDiscount(offer_id);
+    String sql = "UPDATE offers_packages SET package_price_type = ? "
+        + "WHERE offer_id = ? AND package_id = ?";
 
-    // apply the discount + recalculate the total offer price
-    BigDecimal offerTotalPrice = offerPrice
-        .multiply((new BigDecimal(100).subtract(offerDiscount)).divide(new BigDecimal(100)));
-
-    // update the total offer price
-    updateTotalOfferPrice(offer_id, offerTotalPrice);
+    try (Connection conn = login()) {
+      conn.setAutoCommit(false);
+      try (PreparedStatement statement = conn.prepareStatement(sql)) {
+        statement.setString(1, packagePriceType);
+        statement.setInt(2, Integer.parseInt(offer_id));
+        statement.setInt(3, Integer.parseInt(package_id));
+        statement.executeUpdate();
 
+        OfferTotals totals = recalculateOfferTotals(conn, Integer.parseInt(offer_id));
+        conn.commit();
+        return totals;
+      } catch (SQLException e) {
+        rollback(conn, false);
+        throw e;
+      }
+    } catch (SQLException e) {
+      e.printStackTrace();
+    }
+    return null;
   }
 
   /**
-   * Calculate the offer price by summing up the prices for all packages in the offer
-   * 
+   * Adds a package to an offer (quantity 1, no discount) and recalculates its total price and the
+   * resulting offer price and offer total, in one transaction.
+   *
    * @param offer_id
-   * @return
+   * @param package_id
+   * @param package_unit_price: unit price the package total price starts with
+   * @return the new offer price and total, or null if the package could not be added
    */
-  private BigDecimal calculateOfferPrice(String offer_id) {
-    BigDecimal offerPrice = BigDecimal.ZERO;
+  public OfferTotals addPackageToOfferAndRecalculatePrice(int offer_id, int package_id,
+      BigDecimal package_unit_price) {
 
-    LOG.info("summing up packages for offer price");
+    String sql = "INSERT INTO offers_packages (offer_id, package_id, package_addon_price, "
+        + "package_count, package_discount) VALUES (?,?,?,?,?)";
+
+    try (Connection conn = login()) {
+      conn.setAutoCommit(false);
+      try (PreparedStatement statement = conn.prepareStatement(sql)) {
+        statement.setInt(1, offer_id);
+        statement.setInt(2, package_id);
+        statement.setBigDecimal(3, package_unit_price);
+        statement.setString(4, "1");
+        statement.setString(5, PricingEngine.formatPercent(0));
+        statement.executeUpdate();
+
+        OfferTotals totals = recalculateOfferTotals(conn, offer_id);
+        conn.commit();
+        LOG.info("added package " + package_id + " and repriced " + totals);
+        return totals;
+      } catch (SQLException e) {
+        rollback(conn, false);
+        throw e;
+      }
+    } catch (SQLException e) {
+      e.printStackTrace();
+    }
+    return null;
+  }
 
-    String sqlL = "SELECT SUM(package_addon_price) FROM offers_packages WHERE offer_id = ?";
-    try (Connection conn = login(); PreparedStatement statementL = conn.prepareStatement(sqlL)) {
+  /**
+   * Removes a package from an offer and recalculates the offer price and the offer total, in one
+   * transaction.
+   *
+   * @param packageId
+   * @param offerId
+   * @return the new offer price and total, or null if the package could not be removed
+   */
+  public OfferTotals removePackageFromOfferAndRecalculatePrice(int packageId, int offerId) {
 
-      statementL.setInt(1, Integer.parseInt(offer_id));
-      ResultSet rs = statementL.executeQuery();
-      if (rs.next())
-        offerPrice = rs.getBigDecimal(1);
+    String sql = "DELETE FROM offers_packages WHERE package_id = ? AND offer_id = ?";
 
+    try (Connection conn = login()) {
+      conn.setAutoCommit(false);
+      try (PreparedStatement statement = conn.prepareStatement(sql)) {
+        statement.setInt(1, packageId);
+        statement.setInt(2, offerId);
+        statement.executeUpdate();
+
+        OfferTotals totals = recalculateOfferTotals(conn, offerId);
+        conn.commit();
+        LOG.info("removed package " + packageId + " and repriced " + totals);
+        return totals;
+      } catch (SQLException e) {
+        rollback(conn, false);
+        throw e;
+      }
     } catch (SQLException e) {
       e.printStackTrace();
     }
+    return null;
+  }
+
+  /**
+   * Recalculates the package total price of every offers_packages row of the given package (based
+   * on the current package price, the price type, quantity and discount of the row) and the offer
+   * price and offer total of all affected offers with the {@link PricingEngine}. The affected
+   * offers are read with one query and the changed rows written in two batches, all in one
+   * transaction, independent of the number of offers using the package.
+   *
+   * @param package_id: id of the package whose price changed
+   * @return number of repriced offers, -1 if the repricing failed and was rolled back
+   */
+  public int repricePackageInAllOffers(int package_id) {
+    return repricePackagesInAllOffers(Collections.singletonList(package_id));
+  }
 
-    return offerPrice;
+  /**
+   * Same as {@link #repricePackageInAllOffers(int)} for several packages at once.
+   *
+   * @param packageIds: ids of the packages whose price changed
+   * @return number of repriced offers, -1 if the repricing failed and was rolled back
+   */
+  public int repricePackagesInAllOffers(Collection<Integer> packageIds) {
+    if (packageIds.isEmpty()) {
+      return 0;
+    }
+    try (Connection conn = login()) {
+      conn.setAutoCommit(false);
+      try {
+        int repricedOffers = repricePackages(conn, packageIds);
+        conn.commit();
+        return repricedOffers;
+      } catch (SQLException e) {
+        rollback(conn, false);
+        throw e;
+      }
+    } catch (SQLException e) {
+      e.printStackTrace();
+    }
+    return -1;
   }
 
+  // reprices the offer lines and offers using the packages on the connection, in its transaction
+  private int repricePackages(Connection conn, Collection<Integer> packageIds)
+      throws SQLException {
+    if (packageIds.isEmpty()) {
+      return 0;
+    }
+    String placeholders = String.join(",", Collections.nCopies(packageIds.size(), "?"));
+    List<OfferTotals> repriced = repriceOffers(conn,
+        "SELECT offer_id FROM offers_packages WHERE package_id IN (" + placeholders + ")",
+        packageIds);
+    return repriced.size();
+  }
 
   public void updateOffersPackages(String offer_id, String package_id, String package_count,
       BigDecimal updatedPackageAddOnPrice, String packageDiscountFormatted) {
@@ -787,28 +1113,42 @@ public class Database {
     }
   }
 
-  public BigDecimal getOfferDiscount(String offer_id) {
-    BigDecimal offerDiscount = BigDecimal.ZERO;
-
+  /**
+   * @return the discount of the offer in basis points (stored as e.g. "5%"), 0 if there is none
+   */
+  public int getOfferDiscount(String offer_id) {
     String sql = "SELECT discount FROM offers WHERE offer_id = ?";
     // The following statement is an try-with-resources statement, which declares two resources,
     // conn and statement, which will be automatically closed when the try block terminates
     try (Connection conn = login(); PreparedStatement statement = conn.prepareStatement(sql)) {
       statement.setInt(1, Integer.parseInt(offer_id));
-      // one represents the first '?' within the PreparedStatement --> insert the variable offer_id
-      // here
       ResultSet rs = statement.executeQuery();
-      if (rs.next())
-        // offerDiscount = rs.getInt(1);
-        LOG.info("Get String for discount " + rs.getNString(1));
-      // column discount is VARCHAR() --> get String --> cut '%' --> convert to integer
-      String discount = rs.getString(1);
-      offerDiscount = new BigDecimal(Integer.parseInt(discount.split("%")[0]));
+      if (rs.next()) {
+        // column discount is VARCHAR(), e.g. "5%"
+        return PricingEngine.parsePercent(rs.getString(1));
+      }
+    } catch (SQLException | NumberFormatException e) {
+      e.printStackTrace();
+    }
+    return 0;
+  }
+
+  /**
+   * sets the offer price (sum of the package prices) and the offer total (after the offer
+   * discount) of an offer priced by the {@link PricingEngine}
+   */
+  public void updateOfferPriceAndTotal(String offer_id, BigDecimal offerPrice,
+      BigDecimal offerTotal) {
+    String sql = "UPDATE offers SET offer_price = ?, offer_total = ? WHERE offer_id = ?";
 
+    try (Connection conn = login(); PreparedStatement statement = conn.prepareStatement(sql)) {
+      statement.setBigDecimal(1, offerPrice);
+      statement.setBigDecimal(2, offerTotal);
+      statement.setInt(3, Integer.parseInt(offer_id));
+      statement.executeUpdate();
     } catch (SQLException e) {
       e.printStackTrace();
     }
-    return offerDiscount;
   }
 
 
@@ -824,7 +1164,7 @@ public class Database {
     } catch (SQLException e) {
       e.printStackTrace();
     }
-
+    invalidatePackageCatalog();
   }
 
 
@@ -919,6 +1259,23 @@ public class Database {
     return status;
   }
 
+  /**
+   * @param offer_id: id of the offer
+   * @return the time the offer was last edited, null if it is not known
+   */
+  public Timestamp getOfferLastEdited(String offer_id) {
+    String sql = "SELECT last_edited FROM offers WHERE offer_id = ?";
+    try (Connection conn = login(); PreparedStatement statement = conn.prepareStatement(sql)) {
+      statement.setString(1, offer_id);
+      ResultSet rs = statement.executeQuery();
+      if (rs.next())
+        return rs.getTimestamp(1);
+    } catch (SQLException e) {
+      e.printStackTrace();
+    }
+    return null;
+  }
+
   public String getPriceFromPackageId(int package_id, String packagePriceType) {
     // we use String for the price, since ResultSet.getFloat returns 0.0 if the value in the
     // database is null
@@ -945,6 +1302,42 @@ public class Database {
   }
 
   public void addNewPackage(packageBean pack, String user) {
+    try {
+      addNewPackages(Collections.singletonList(pack), user);
+    } catch (SQLException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Inserts the packages with one JDBC batch in a single transaction: either all of them are added
+   * or, if the batch fails, none.
+   *
+   * @param packs: the packages to add, their external prices are computed from the internal price
+   * @param user: user the packages are added by
+   * @throws SQLException if the batch failed and was rolled back
+   */
+  public void addNewPackages(List<packageBean> packs, String user) throws SQLException {
+    if (packs.isEmpty()) {
+      return;
+    }
+    try (Connection conn = login()) {
+      conn.setAutoCommit(false);
+      try {
+        insertPackages(conn, packs, user);
+        conn.commit();
+      } catch (SQLException e) {
+        rollback(conn, false);
+        throw e;
+      }
+    } finally {
+      invalidatePackageCatalog();
+    }
+  }
+
+  // adds the packages with one JDBC batch on the connection, in its transaction
+  private void insertPackages(Connection conn, List<packageBean> packs, String user)
+      throws SQLException {
     java.sql.Date date = new java.sql.Date(System.currentTimeMillis());
 
     String sql =
@@ -952,34 +1345,204 @@ public class Database {
             + "package_price_internal, package_price_external_academic, package_price_external_commercial, "
             + "package_unit_type, package_date, added_by) VALUES(?,?,?,?,?,?,?,?,?,?)";
 
-    String pack_grp = pack.getpackage_group();
-    BigDecimal base_price = new BigDecimal(pack.getpackage_price());
-    BigDecimal ext_acad_price = computeExternalPrice(pack_grp, "external_academics", base_price);
-    BigDecimal ext_comm_price = computeExternalPrice(pack_grp, "external_commercial", base_price);
+    try (PreparedStatement statement = conn.prepareStatement(sql)) {
+      for (packageBean pack : packs) {
+        String pack_grp = pack.getpackage_group();
+        BigDecimal base_price = new BigDecimal(pack.getpackage_price());
+        statement.setString(1, pack.getpackage_name());
+        statement.setString(2, pack.getpackage_facility());
+        statement.setString(3, pack.getpackage_description());
+        statement.setString(4, pack_grp);
+        statement.setBigDecimal(5, base_price);
+        statement.setBigDecimal(6, PriceModificationHelper.computePrice(base_price,
+            "external_academics", pack_grp, pack.getpackage_facility()));
+        statement.setBigDecimal(7, PriceModificationHelper.computePrice(base_price,
+            "external_commercial", pack_grp, pack.getpackage_facility()));
+        statement.setString(8, pack.getPackage_unit_type());
+        statement.setDate(9, date);
+        statement.setString(10, user);
+        statement.addBatch();
+      }
+      statement.executeBatch();
+    }
+  }
+
+  /**
+   * Applies a reloaded price list in a single transaction: the new packages are inserted, the
+   * prices of the changed packages are updated with one set-based statement (the external prices
+   * are computed again) and the offers using the changed packages are repriced. If any step fails,
+   * or the price of a changed package is no longer the one the change was computed from, nothing is
+   * applied.
+   *
+   * @param added: packages to insert
+   * @param changed: price changes of existing packages
+   * @param user: user the packages are added by
+   * @return number of repriced offers
+   * @throws SQLException if the price list could not be applied and was rolled back
+   */
+  public int applyPriceList(List<packageBean> added, List<PriceListDiff.PriceChange> changed,
+      String user) throws SQLException {
+    String createUpdates = "CREATE TEMPORARY TABLE package_price_updates ("
+        + "package_id INT NOT NULL PRIMARY KEY, old_price DECIMAL(12,2), "
+        + "price_internal DECIMAL(12,2) NOT NULL, price_external_academic DECIMAL(12,2), "
+        + "price_external_commercial DECIMAL(12,2))";
+    String insertUpdate = "INSERT INTO package_price_updates (package_id, old_price, "
+        + "price_internal, price_external_academic, price_external_commercial) VALUES(?,?,?,?,?)";
+    // rows whose price changed since the diff was computed are not matched
+    String updatePackages = "UPDATE packages p INNER JOIN package_price_updates u "
+        + "ON u.package_id = p.package_id SET p.package_price_internal = u.price_internal, "
+        + "p.package_price_external_academic = u.price_external_academic, "
+        + "p.package_price_external_commercial = u.price_external_commercial "
+        + "WHERE ROUND(p.package_price_internal, 2) <=> u.old_price";
+    // temporary tables belong to the pooled connection, they must not outlive this call
+    String dropUpdates = "DROP TEMPORARY TABLE IF EXISTS package_price_updates";
+
+    long start = System.nanoTime();
+    try (Connection conn = login()) {
+      conn.setAutoCommit(false);
+      try (Statement statement = conn.createStatement()) {
+        int repricedOffers = 0;
+        insertPackages(conn, added, user);
+        if (!changed.isEmpty()) {
+          statement.execute(dropUpdates);
+          statement.execute(createUpdates);
+          try (PreparedStatement insert = conn.prepareStatement(insertUpdate)) {
+            for (PriceListDiff.PriceChange change : changed) {
+              insert.setInt(1, change.getPackageId());
+              insert.setBigDecimal(2, change.getOldPrice());
+              insert.setBigDecimal(3, change.getNewPrice());
+              insert.setBigDecimal(4, PriceModificationHelper.computePrice(change.getNewPrice(),
+                  "external_academics", change.getPackageGroup(), change.getPackageFacility()));
+              insert.setBigDecimal(5, PriceModificationHelper.computePrice(change.getNewPrice(),
+                  "external_commercial", change.getPackageGroup(), change.getPackageFacility()));
+              insert.addBatch();
+            }
+            insert.executeBatch();
+          }
+          int updated = statement.executeUpdate(updatePackages);
+          if (updated != changed.size()) {
+            throw new SQLException((changed.size() - updated)
+                + " of the changed packages have been edited since the preview");
+          }
+          List<Integer> changedIds = new ArrayList<>(changed.size());
+          for (PriceListDiff.PriceChange change : changed) {
+            changedIds.add(change.getPackageId());
+          }
+          repricedOffers = repricePackages(conn, changedIds);
+        }
+        conn.commit();
+        LOG.info(String.format("applied price list: %d packages added, %d repriced, %d offers "
+            + "repriced in %.1f ms", added.size(), changed.size(), repricedOffers,
+            (System.nanoTime() - start) / 1e6));
+        return repricedOffers;
+      } catch (SQLException e) {
+        rollback(conn, false);
+        throw e;
+      } finally {
+        try (Statement statement = conn.createStatement()) {
+          statement.execute(dropUpdates);
+        } catch (SQLException e) {
+          LOG.warn("could not drop package_price_updates: " + e.getMessage());
+        }
+      }
+    } finally {
+      invalidatePackageCatalog();
+    }
+  }
 
+  /**
+   * reads all packages from the database, bypassing the cached package catalog
+   *
+   * @return the packages ordered by id
+   * @throws SQLException if the packages could not be read
+   */
+  public List<PackageSummary> readPackageSummaries() throws SQLException {
+    String sql = "SELECT " + PACKAGE_SUMMARY_COLUMNS + " FROM packages ORDER BY package_id";
+    List<PackageSummary> packages = new ArrayList<>();
     try (Connection conn = login();
-        PreparedStatement statement = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-
-      statement.setString(1, pack.getpackage_name());
-      statement.setString(2, pack.getpackage_facility());
-      statement.setString(3, pack.getpackage_description());
-      statement.setString(4, pack_grp);
-      statement.setBigDecimal(5, base_price);
-      statement.setBigDecimal(6, ext_acad_price);
-      statement.setBigDecimal(7, ext_comm_price);
-      statement.setString(8, pack.getPackage_unit_type());
-      statement.setDate(9, date);
-      statement.setString(10, user);
-      statement.execute();
-    } catch (SQLException e) {
-      e.printStackTrace();
+        PreparedStatement statement = conn.prepareStatement(sql);
+        ResultSet rs = statement.executeQuery()) {
+      while (rs.next()) {
+        packages.add(readPackageSummary(rs));
+      }
     }
+    return packages;
   }
 
-  // this should probably be in a configuration file
-  private BigDecimal computeExternalPrice(String packageGroup, String priceType,
-      BigDecimal internalPrice) {
-    return PriceModificationHelper.computePrice(internalPrice, priceType, packageGroup);
+  /**
+   * Recomputes the external prices of all packages from their internal prices with the price
+   * modifiers in effect ({@link PriceModificationHelper#getTable()}) and reprices the offers using
+   * the changed packages, in one transaction. Packages without a package group or without a rule
+   * for their group keep their external prices, as do packages whose internal price is changed
+   * concurrently.
+   *
+   * @return number of packages with changed external prices
+   * @throws SQLException if the prices could not be updated, nothing has been changed then
+   */
+  public int recomputeExternalPrices() throws SQLException {
+    long start = System.nanoTime();
+    List<PackageSummary> packages = readPackageSummaries();
+    PriceModifierTable table = PriceModificationHelper.getTable();
+
+    int count = packages.size();
+    long[] internal = new long[count];
+    int[] rows = new int[count];
+    for (int i = 0; i < count; i++) {
+      PackageSummary pack = packages.get(i);
+      internal[i] = PricingEngine.toCents(pack.getPriceInternal());
+      rows[i] = pack.getPriceInternal() == null ? -1
+          : table.row(PackageGroup.fromDatabaseValue(pack.getPackageGroup()),
+              pack.getPackageFacility());
+    }
+    long[] academic = new long[count];
+    long[] commercial = new long[count];
+    table.computeExternalPrices(internal, rows, academic, commercial);
+
+    String sql = "UPDATE packages SET package_price_external_academic = ?, "
+        + "package_price_external_commercial = ? "
+        + "WHERE package_id = ? AND ROUND(package_price_internal, 2) = ?";
+    List<Integer> changedIds = new ArrayList<>();
+    try (Connection conn = login()) {
+      conn.setAutoCommit(false);
+      try (PreparedStatement statement = conn.prepareStatement(sql)) {
+        for (int i = 0; i < count; i++) {
+          PackageSummary pack = packages.get(i);
+          long academicPrice = academic[i] == PriceModifierTable.KEEP
+              ? PricingEngine.toCents(pack.getPriceExternalAcademic()) : academic[i];
+          long commercialPrice = commercial[i] == PriceModifierTable.KEEP
+              ? PricingEngine.toCents(pack.getPriceExternalCommercial()) : commercial[i];
+          if (academicPrice == PricingEngine.toCents(pack.getPriceExternalAcademic())
+              && commercialPrice == PricingEngine.toCents(pack.getPriceExternalCommercial())) {
+            continue;
+          }
+          statement.setBigDecimal(1, PricingEngine.toBigDecimal(academicPrice));
+          statement.setBigDecimal(2, PricingEngine.toBigDecimal(commercialPrice));
+          statement.setInt(3, pack.getPackageId());
+          statement.setBigDecimal(4, PricingEngine.toBigDecimal(internal[i]));
+          statement.addBatch();
+          changedIds.add(pack.getPackageId());
+        }
+        int[] updated = changedIds.isEmpty() ? new int[0] : statement.executeBatch();
+        // skips the packages whose internal price changed in the meantime
+        List<Integer> repricedIds = new ArrayList<>(changedIds.size());
+        for (int i = 0; i < updated.length; i++) {
+          if (updated[i] != 0) {
+            repricedIds.add(changedIds.get(i));
+          }
+        }
+        int repricedOffers = repricePackages(conn, repricedIds);
+        conn.commit();
+        LOG.info(String.format("recomputed the external prices of %d packages with %s in %.1f ms: "
+            + "%d changed, %d offers repriced", count, table, (System.nanoTime() - start) / 1e6,
+            repricedIds.size(), repricedOffers));
+        return repricedIds.size();
+      } catch (SQLException e) {
+        rollback(conn, false);
+        throw e;
+      }
+    } finally {
+      invalidatePackageCatalog();
+    }
   }
 
   public void addNewPackage(String name) {
@@ -994,7 +1557,7 @@ public class Database {
     } catch (SQLException e) {
       e.printStackTrace();
     }
-
+    invalidatePackageCatalog();
   }
 
   /**
@@ -1055,67 +1618,91 @@ public class Database {
   public int registerNewOffer(String offer_number, String offer_project_reference,
       String offer_facility, String offer_name, String offer_description, float offer_price,
       Date offer_date, String added_by, boolean internal) {
+    return registerNewOffer(offer_number, offer_project_reference, offer_facility, offer_name,
+        offer_description, offer_price, offer_date, added_by, internal, Collections.emptyMap());
+  }
 
-    Timestamp sql_offer_date = new Timestamp(offer_date.getTime());
+  /**
+   * registers a new offer together with its packages in one transaction: the offer is inserted,
+   * its generated offer_id is appended to the offer_number and all packages are inserted into
+   * offers_packages in one batch (with quantity 1 and no discount).
+   *
+   * @param packageUnitPrices: package_id -> package_addon_price of the packages of the offer, in
+   *        the order they should be inserted
+   * @return the offer_id of the new offer or 0 if the offer could not be registered
+   */
+  public int registerNewOffer(String offer_number, String offer_project_reference,
+      String offer_facility, String offer_name, String offer_description, float offer_price,
+      Date offer_date, String added_by, boolean internal,
+      Map<Integer, BigDecimal> packageUnitPrices) {
 
-    int offer_id = 0;
+    Timestamp sql_offer_date = new Timestamp(offer_date.getTime());
 
     String sql =
         "INSERT INTO offers (offer_number, offer_project_reference, offer_facility, offer_name, offer_description,"
             + " offer_price, offer_total, offer_date, added_by, offer_status, discount, internal) "
             + "VALUES(?,?,?,?,?,?,?,?,?,?,?,?)";
+    // update the offer_number by appending the offer_id to it
+    String sqlOfferNumber = "UPDATE offers SET offer_number = CONCAT(offer_number, '_', offer_id) "
+        + "WHERE offer_id = ?";
+    String sqlPackages =
+        "INSERT INTO offers_packages (offer_id, package_id, package_addon_price, package_count, package_discount) "
+            + "VALUES (?,?,?,?,?)";
+
+    try (Connection conn = login()) {
+      conn.setAutoCommit(false);
+      try (PreparedStatement statement =
+          conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+          PreparedStatement statementOfferNumber = conn.prepareStatement(sqlOfferNumber);
+          PreparedStatement statementPackages = conn.prepareStatement(sqlPackages)) {
+        statement.setString(1, offer_number);
+        statement.setString(2, offer_project_reference);
+        statement.setString(3, offer_facility);
+        statement.setString(4, offer_name);
+        statement.setString(5, offer_description);
+        statement.setFloat(6, offer_price);
+        statement.setFloat(7, offer_price);
+        statement.setTimestamp(8, sql_offer_date);
+        statement.setString(9, added_by);
+        statement.setString(10, "In Progress");
+        statement.setString(11, "0%");
+        statement.setBoolean(12, internal);
+        statement.executeUpdate();
+
+        int offer_id;
+        try (ResultSet keys = statement.getGeneratedKeys()) {
+          if (!keys.next()) {
+            throw new SQLException("no offer_id generated for offer " + offer_number);
+          }
+          offer_id = keys.getInt(1);
+        }
 
-    // The following statement is an try-with-resources statement, which declares two resources,
-    // conn and statement, which will be automatically closed when the try block terminates
-    try (Connection conn = login();
-        PreparedStatement statement = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-      statement.setString(1, offer_number);
-      statement.setString(2, offer_project_reference);
-      statement.setString(3, offer_facility);
-      statement.setString(4, offer_name);
-      statement.setString(5, offer_description);
-      statement.setFloat(6, offer_price);
-      statement.setFloat(7, offer_price);
-      statement.setTimestamp(8, sql_offer_date);
-      statement.setString(9, added_by);
-      statement.setString(10, "In Progress");
-      statement.setString(11, "0%");
-      statement.setBoolean(12, internal);
-      statement.execute();
-    } catch (SQLException e) {
-      e.printStackTrace();
-    }
-
-    // query the database for the current offer to get the offer id (there is probably a better
-    // way..)
-    String sql2 =
-        "SELECT offer_id FROM offers WHERE offer_project_reference = ? AND offer_price = ?";
-    try (Connection conn = login();
-        PreparedStatement statement2 =
-            conn.prepareStatement(sql2, Statement.RETURN_GENERATED_KEYS)) {
-      statement2.setString(1, offer_project_reference);
-      statement2.setFloat(2, offer_price);
-      ResultSet rs = statement2.executeQuery();
-      if (rs.next())
-        offer_id = rs.getInt(1);
-    } catch (SQLException e) {
-      e.printStackTrace();
-    }
+        statementOfferNumber.setInt(1, offer_id);
+        statementOfferNumber.executeUpdate();
+
+        if (!packageUnitPrices.isEmpty()) {
+          for (Map.Entry<Integer, BigDecimal> entry : packageUnitPrices.entrySet()) {
+            statementPackages.setInt(1, offer_id);
+            statementPackages.setInt(2, entry.getKey());
+            statementPackages.setBigDecimal(3, entry.getValue());
+            statementPackages.setInt(4, 1);
+            statementPackages.setString(5, "0%");
+            statementPackages.addBatch();
+          }
+          statementPackages.executeBatch();
+        }
 
-    // update the offer_number by appending the offer_id to it
-    offer_number = offer_number.concat("_").concat(String.valueOf(offer_id));
-    String sql3 = "UPDATE offers SET offer_number = ? WHERE offer_id = ?";
-    try (Connection conn = login();
-        PreparedStatement statement3 =
-            conn.prepareStatement(sql3, Statement.RETURN_GENERATED_KEYS)) {
-      statement3.setString(1, offer_number);
-      statement3.setInt(2, offer_id);
-      int rs = statement3.executeUpdate();
+        conn.commit();
+        return offer_id;
+      } catch (SQLException e) {
+        rollback(conn, false);
+        throw e;
+      }
     } catch (SQLException e) {
       e.printStackTrace();
     }
 
-    return offer_id;
+    return 0;
   }
 
   public int getFirstOfferIdForPackageId(int package_id) {
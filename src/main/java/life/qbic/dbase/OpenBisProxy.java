@@ -6,9 +6,21 @@ import ch.ethz.sis.openbis.generic.asapi.v3.dto.project.Project;
 import ch.ethz.sis.openbis.generic.asapi.v3.dto.project.fetchoptions.ProjectFetchOptions;
 import ch.ethz.sis.openbis.generic.asapi.v3.dto.project.search.ProjectSearchCriteria;
 import ch.systemsx.cisd.common.spring.HttpInvokerUtils;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import life.qbic.portal.utils.ConfigurationManager;
 import life.qbic.portal.utils.ConfigurationManagerFactory;
+import life.qbic.utils.ConfigurationUtils;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
@@ -16,46 +28,369 @@ import org.apache.logging.log4j.Logger;
 
 /**
  * Singleton that encapsulates access to openBIS.
+ * <p>
+ * The list of projects is kept as a {@link ProjectIndex} shared by all sessions. It is refreshed
+ * by a background thread every qoffer.openbis.projects.ttlSeconds [300]; if a refresh fails, the
+ * last good snapshot is kept. Between full refreshes (every
+ * qoffer.openbis.projects.fullRefreshMinutes [60], which also drop deleted projects) only the
+ * projects modified since the last refresh are fetched, as long as openBIS supports sorting the
+ * projects by modification date.
+ * <p>
+ * The openBIS session token is shared by all threads. It is considered valid for
+ * qoffer.openbis.session.validityMinutes [30] after the login without asking openBIS, renewed in
+ * the background every qoffer.openbis.session.refreshMinutes [15], and renewed right away if a call
+ * fails because openBIS does not know the session anymore. Callers never wait for each other, only
+ * for a login that is in progress when there is no usable token at all.
  */
 public class OpenBisProxy {
 
   private static final Logger LOG = LogManager.getLogger(OpenBisProxy.class);
 
-  private static OpenBisProxy INSTANCE;
+  // created on the first successful call of getInstance
+  private static volatile OpenBisProxy instance;
+
   private static final int TIMEOUT = 100000;
+  // projects fetched per request of an incremental refresh
+  private static final int PROJECT_PAGE_SIZE = 100;
 
-  private String sessionToken;
   private final IApplicationServerApi apiStub;
   private final String user;
   private final String password;
 
+  // current session, null before the first login or after openBIS rejected the token
+  private final AtomicReference<Session> session = new AtomicReference<>();
+  // login which is currently running, the callers without a usable token wait for it
+  private final AtomicReference<CompletableFuture<Session>> runningLogin = new AtomicReference<>();
+  private final long sessionValidityMillis;
+
+  // last good snapshot of the projects, null until the first refresh succeeded
+  private final AtomicReference<ProjectIndex> projectIndex = new AtomicReference<>();
+  // refreshes the projects and the session token
+  private final ScheduledExecutorService backgroundExecutor;
+  private final long fullProjectRefreshMillis;
+  // only touched by the refresher thread
+  private long lastFullProjectRefresh;
+  // false once openBIS turned out not to sort the projects by modification date
+  private boolean incrementalProjectRefresh = true;
+
   private OpenBisProxy(final String url, final String user, final String password) {
     this.user = user;
     this.password = password;
     LOG.info("openbis API URL:");
     LOG.info(url);
     this.apiStub = HttpInvokerUtils.createServiceStub(IApplicationServerApi.class, url, TIMEOUT);
+
+    this.fullProjectRefreshMillis = TimeUnit.MINUTES
+        .toMillis(ConfigurationUtils.getLong("qoffer.openbis.projects.fullRefreshMinutes", 60));
+    long ttlSeconds =
+        Math.max(1, ConfigurationUtils.getLong("qoffer.openbis.projects.ttlSeconds", 300));
+    this.sessionValidityMillis = TimeUnit.MINUTES.toMillis(
+        Math.max(1, ConfigurationUtils.getLong("qoffer.openbis.session.validityMinutes", 30)));
+    long sessionRefreshMinutes =
+        Math.max(1, ConfigurationUtils.getLong("qoffer.openbis.session.refreshMinutes", 15));
+
+    this.backgroundExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "qoffer-openbis");
+      thread.setDaemon(true);
+      return thread;
+    });
+    backgroundExecutor
+        .scheduleWithFixedDelay(this::refreshProjects, 0, ttlSeconds, TimeUnit.SECONDS);
+    backgroundExecutor.scheduleWithFixedDelay(this::refreshSession, sessionRefreshMinutes,
+        sessionRefreshMinutes, TimeUnit.MINUTES);
     LOG.info("OpenBisProxy instance created");
   }
 
-  // logs into openBIS if needed
-  private void activateSession() {
-    if (StringUtils.isBlank(sessionToken) || !apiStub.isSessionActive(sessionToken)) {
-      LOG.info("Logging into openBIS");
-      sessionToken = apiStub.login(user, password);
+  /**
+   * openBIS session token and the time until which it is used without asking openBIS
+   */
+  private static final class Session {
+    private final String token;
+    private final long validUntilMillis;
+
+    private Session(String token, long validUntilMillis) {
+      this.token = token;
+      this.validUntilMillis = validUntilMillis;
+    }
+
+    private boolean isValid() {
+      return System.currentTimeMillis() < validUntilMillis;
+    }
+  }
+
+  /**
+   * calls openBIS with the current session token. If openBIS rejects the token, the proxy logs in
+   * again and repeats the call once.
+   */
+  private <T> T withSession(final Function<String, T> call) {
+    final Session used = getSession();
+    try {
+      return call.apply(used.token);
+    } catch (RuntimeException e) {
+      if (!isInvalidSession(e)) {
+        throw e;
+      }
+      LOG.info("openBIS session expired, logging in again");
+      // only drop the session if no other caller replaced it in the meantime
+      session.compareAndSet(used, null);
+      return call.apply(getSession().token);
+    }
+  }
+
+  // the current session, or the session of a new login if there is no usable one
+  private Session getSession() {
+    final Session current = session.get();
+    if (current != null && current.isValid()) {
+      return current;
+    }
+    try {
+      return login().join();
+    } catch (CompletionException e) {
+      throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+    }
+  }
+
+  /**
+   * logs into openBIS, unless another thread already does: then its login is returned, so there is
+   * never more than one login at a time
+   */
+  private CompletableFuture<Session> login() {
+    while (true) {
+      final CompletableFuture<Session> running = runningLogin.get();
+      if (running != null) {
+        return running;
+      }
+      final CompletableFuture<Session> mine = new CompletableFuture<>();
+      if (!runningLogin.compareAndSet(null, mine)) {
+        continue;
+      }
+      try {
+        LOG.info("Logging into openBIS");
+        final String token = apiStub.login(user, password);
+        if (StringUtils.isBlank(token)) {
+          throw new IllegalStateException("openBIS login failed for user " + user);
+        }
+        final Session loggedIn =
+            new Session(token, System.currentTimeMillis() + sessionValidityMillis);
+        final Session replaced = session.getAndSet(loggedIn);
+        mine.complete(loggedIn);
+        if (replaced != null) {
+          logoutLater(replaced);
+        }
+      } catch (RuntimeException e) {
+        mine.completeExceptionally(e);
+      } finally {
+        runningLogin.compareAndSet(mine, null);
+      }
+      return mine;
+    }
+  }
+
+  /**
+   * ends the openBIS session of a replaced token once the calls which may still use it are done,
+   * i.e. after the call timeout; tokens openBIS rejected are dropped before and never get here
+   */
+  private void logoutLater(final Session replaced) {
+    backgroundExecutor.schedule(() -> {
+      try {
+        apiStub.logout(replaced.token);
+      } catch (RuntimeException e) {
+        LOG.debug("Could not log out of the replaced openBIS session: " + e.getMessage());
+      }
+    }, TIMEOUT, TimeUnit.MILLISECONDS);
+  }
+
+  // runs on the background thread: replaces the token before it runs out, callers keep using the
+  // old one until the new one is there
+  private void refreshSession() {
+    try {
+      login().join();
+    } catch (RuntimeException e) {
+      LOG.warn("Could not renew the openBIS session: " + e.getMessage());
+    }
+  }
+
+  /**
+   * @return true if openBIS rejected the call because the session token is unknown or expired
+   */
+  private static boolean isInvalidSession(final Throwable failure) {
+    for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+      if (cause.getClass().getSimpleName().equals("InvalidSessionException")) {
+        return true;
+      }
+      final String message = cause.getMessage();
+      if (message != null && message.toLowerCase().contains("session")
+          && (message.contains("expired") || message.contains("invalid")
+              || message.contains("does not exist"))) {
+        return true;
+      }
+      if (cause.getCause() == cause) {
+        break;
+      }
     }
+    return false;
   }
 
+  /**
+   * @return all openBIS projects ordered by code, as of the last refresh; empty if the projects
+   *         have not been loaded yet
+   */
   public List<Project> getProjects() {
-    final SearchResult<Project> searchResult = apiStub.searchProjects(sessionToken, new ProjectSearchCriteria(), new ProjectFetchOptions());
-    LOG.info("Found {} openBIS projects", searchResult.getTotalCount());
-    return searchResult.getObjects();
+    ProjectIndex index = projectIndex.get();
+    return index == null ? Collections.<Project>emptyList() : index.getProjects();
+  }
+
+  /**
+   * @return the current snapshot of the projects, null if the projects have not been loaded yet
+   */
+  public ProjectIndex getProjectIndex() {
+    return projectIndex.get();
+  }
+
+  /**
+   * searches openBIS for the projects whose code starts with or contains the given text, for when
+   * the project index is not available
+   *
+   * @param codePart: part of the project code, all projects if blank
+   * @param prefixOnly: true if the code has to start with codePart, false if it only has to contain
+   *        it
+   * @param from: index of the first project to return, in the order of the codes
+   * @param count: maximum number of projects to return
+   * @return the requested page of the matching projects and the total number of matching projects
+   */
+  public SearchResult<Project> searchProjects(final String codePart, final boolean prefixOnly,
+      final int from, final int count) {
+    final ProjectSearchCriteria criteria = new ProjectSearchCriteria();
+    if (StringUtils.isNotBlank(codePart)) {
+      // openBIS codes are upper case
+      final String code = codePart.trim().toUpperCase();
+      if (prefixOnly) {
+        criteria.withCode().thatStartsWith(code);
+      } else {
+        criteria.withCode().thatContains(code);
+      }
+    }
+    final ProjectFetchOptions fetchOptions = new ProjectFetchOptions();
+    fetchOptions.sortBy().code();
+    fetchOptions.from(from);
+    fetchOptions.count(count);
+    return withSession(token -> apiStub.searchProjects(token, criteria, fetchOptions));
+  }
+
+  /**
+   * asks openBIS whether there is a project with the code, for when the project index is not
+   * available
+   *
+   * @param projectCode: code of the project
+   */
+  public boolean projectExists(final String projectCode) {
+    final ProjectSearchCriteria criteria = new ProjectSearchCriteria();
+    criteria.withCode().thatEquals(projectCode);
+    final ProjectFetchOptions fetchOptions = new ProjectFetchOptions();
+    fetchOptions.count(1);
+    return withSession(token -> apiStub.searchProjects(token, criteria, fetchOptions))
+        .getTotalCount() > 0;
+  }
+
+  // runs on the refresher thread, must not throw or the refresh is not scheduled again
+  private void refreshProjects() {
+    try {
+      ProjectIndex current = projectIndex.get();
+      long now = System.currentTimeMillis();
+      ProjectIndex refreshed = null;
+
+      if (current != null && incrementalProjectRefresh
+          && now - lastFullProjectRefresh < fullProjectRefreshMillis
+          && current.getLatestModificationDate() != null) {
+        try {
+          refreshed = current.merge(fetchProjectsModifiedSince(current.getLatestModificationDate()),
+              now);
+        } catch (RuntimeException e) {
+          // timeouts, network errors etc. don't mean that the incremental refresh can't work
+          if (!isUnsupportedSorting(e)) {
+            LOG.warn("Incremental refresh of the openBIS projects failed, keeping the last "
+                + "snapshot until the next refresh: " + e.getMessage());
+            return;
+          }
+          LOG.warn("Incremental refresh of the openBIS projects is not supported, falling back to "
+              + "full refreshes: " + e.getMessage());
+          incrementalProjectRefresh = false;
+        }
+      }
+      if (refreshed == null) {
+        final SearchResult<Project> searchResult = withSession(token -> apiStub
+            .searchProjects(token, new ProjectSearchCriteria(), new ProjectFetchOptions()));
+        LOG.info("Found {} openBIS projects", searchResult.getTotalCount());
+        refreshed = new ProjectIndex(searchResult.getObjects(), now);
+        lastFullProjectRefresh = now;
+      }
+
+      projectIndex.set(refreshed);
+    } catch (RuntimeException e) {
+      LOG.error("Could not refresh the openBIS projects, keeping the last snapshot", e);
+    }
+  }
+
+  /**
+   * @return whether openBIS can not sort the projects by modification date, i.e. rejected the
+   *         search or ignored the sort order
+   */
+  private static boolean isUnsupportedSorting(Throwable e) {
+    if (e instanceof UnsupportedOperationException) {
+      // thrown by fetchProjectsModifiedSince
+      return true;
+    }
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      final String message = cause.getMessage();
+      if (message != null && message.toLowerCase(Locale.ROOT).contains("sort")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * fetches the projects ordered by modification date (newest first) page by page, until the
+   * projects are older than the given date
+   *
+   * @throws UnsupportedOperationException if openBIS ignores the sort order
+   */
+  private List<Project> fetchProjectsModifiedSince(final Date since) {
+    final List<Project> modified = new ArrayList<>();
+    final ProjectFetchOptions fetchOptions = new ProjectFetchOptions();
+    fetchOptions.sortBy().modificationDate().desc();
+    fetchOptions.count(PROJECT_PAGE_SIZE);
+    // modification date of the previous project, the dates must not increase
+    Date latest = null;
+    for (int from = 0; ; from += PROJECT_PAGE_SIZE) {
+      fetchOptions.from(from);
+      final List<Project> page = withSession(token -> apiStub
+          .searchProjects(token, new ProjectSearchCriteria(), fetchOptions)).getObjects();
+      for (final Project project : page) {
+        final Date modificationDate = project.getModificationDate();
+        if (modificationDate != null && latest != null && modificationDate.after(latest)) {
+          throw new UnsupportedOperationException("projects are not sorted by modification date");
+        }
+        if (modificationDate != null) {
+          latest = modificationDate;
+        }
+        if (modificationDate != null && modificationDate.before(since)) {
+          LOG.debug("Found {} modified openBIS projects", modified.size());
+          return modified;
+        }
+        modified.add(project);
+      }
+      if (page.size() < PROJECT_PAGE_SIZE) {
+        LOG.debug("Found {} modified openBIS projects", modified.size());
+        return modified;
+      }
+    }
   }
 
   public String getProjectDescription(final String projectCode) {
     final ProjectSearchCriteria projectSearchCriteria = new ProjectSearchCriteria();
     projectSearchCriteria.withCode().thatEquals(projectCode);
-    final SearchResult<Project> searchResult = apiStub.searchProjects(sessionToken, projectSearchCriteria, new ProjectFetchOptions());
+    final SearchResult<Project> searchResult = withSession(token -> apiStub.searchProjects(token, projectSearchCriteria, new ProjectFetchOptions()));
     if (searchResult.getTotalCount() == 0) {
       throw new RuntimeException("Could not find project with code " + projectCode);
     }
@@ -70,41 +405,53 @@ public class OpenBisProxy {
     return description;
   }
 
-  public static synchronized OpenBisProxy getInstance() {
-    init();
-    INSTANCE.activateSession();
-    return INSTANCE;
+  /**
+   * @return the proxy shared by the whole portlet; the proxy logs into openBIS lazily, so this
+   *         neither blocks nor calls openBIS
+   * @throws RuntimeException if the proxy can not be created, e.g. because the configuration can
+   *         not be read; the next call tries again
+   */
+  public static OpenBisProxy getInstance() {
+    OpenBisProxy proxy = instance;
+    if (proxy == null) {
+      synchronized (OpenBisProxy.class) {
+        proxy = instance;
+        if (proxy == null) {
+          proxy = create();
+          instance = proxy;
+        }
+      }
+    }
+    return proxy;
   }
 
-  private static void init() {
+  private static OpenBisProxy create() {
     LOG.info("Initializing OpenBisProxy");
-    if (INSTANCE == null) {
-      final String password, username, url;
-      //TODO local properties file path is now: src/main/resources/developer.properties
-
-//      if (isLiferayPortlet()) {
-        final ConfigurationManager conf = ConfigurationManagerFactory.getInstance();
-        password = conf.getDataSourcePassword();
-        username = conf.getDataSourceUser();
-        url = conf.getDataSourceUrl() + "/openbis/openbis" + IApplicationServerApi.SERVICE_URL;
-        //LOG.info("OpenBIS URL {}",url);
-//      } else {
-//        try (final InputStream input = new FileInputStream(qOfferManagerUtils.PROPERTIES_FILE_PATH)) {
+    final String password, username, url;
+    //TODO local properties file path is now: src/main/resources/developer.properties
+
+//    if (isLiferayPortlet()) {
+      final ConfigurationManager conf = ConfigurationManagerFactory.getInstance();
+      password = conf.getDataSourcePassword();
+      username = conf.getDataSourceUser();
+      url = conf.getDataSourceUrl() + "/openbis/openbis" + IApplicationServerApi.SERVICE_URL;
+      //LOG.info("OpenBIS URL {}",url);
+//    } else {
+//      try (final InputStream input = new FileInputStream(qOfferManagerUtils.PROPERTIES_FILE_PATH)) {
 //
-//          // load a properties file
-//          final Properties prop = new Properties();
-//          prop.load(input);
+//        // load a properties file
+//        final Properties prop = new Properties();
+//        prop.load(input);
 //
-//          password = prop.getProperty(LiferayConfigurationManager.DATASOURCE_PASS);
-//          username = prop.getProperty(LiferayConfigurationManager.DATASOURCE_USER);
-//          url = prop.getProperty(LiferayConfigurationManager.DATASOURCE_API_URL) + IApplicationServerApi.SERVICE_URL;
+//        password = prop.getProperty(LiferayConfigurationManager.DATASOURCE_PASS);
+//        username = prop.getProperty(LiferayConfigurationManager.DATASOURCE_USER);
+//        url = prop.getProperty(LiferayConfigurationManager.DATASOURCE_API_URL) + IApplicationServerApi.SERVICE_URL;
 //
-//        } catch (IOException ex) {
-//          throw new RuntimeException("Could not read configuration settings", ex);
-//        }
+//      } catch (IOException ex) {
+//        throw new RuntimeException("Could not read configuration settings", ex);
 //      }
-      INSTANCE = new OpenBisProxy(url, username, password);
-    }
+//    }
+    return new OpenBisProxy(url, username, password);
   }
 
 }
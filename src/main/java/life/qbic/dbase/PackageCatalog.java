@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+package life.qbic.dbase;
+
+import life.qbic.model.PackageSummary;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the packages table, indexed by package id, package name and package group.
+ * A snapshot is never modified after it has been built; the {@link Database} replaces it as a whole
+ * when the packages change, so it can be read by all sessions without locking.
+ * <p>
+ * Name and group lookups ignore case and trailing spaces, like the comparisons of MySQL with the
+ * default collation of the packages table do.
+ */
+final class PackageCatalog {
+
+  static final PackageCatalog EMPTY =
+      new PackageCatalog(Collections.<PackageSummary>emptyList(), 0L);
+
+  // like ORDER BY package_name: case insensitive, NULL first
+  private static final Comparator<PackageSummary> BY_NAME =
+      Comparator.comparing(PackageSummary::getPackageName,
+          Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER));
+
+  private final Map<Integer, PackageSummary> byId;
+  private final Map<String, PackageSummary> byName;
+  private final Map<String, List<PackageSummary>> byGroup;
+  private final List<String> idsAndNames;
+  private final Map<String, List<String>> idsAndNamesByGroup;
+  private final List<String> groups;
+  private final long loadedAtNanos;
+
+  /**
+   * @param packages: all packages, ordered by package_id
+   * @param loadedAtNanos: System.nanoTime() of the moment the packages were read
+   */
+  PackageCatalog(List<PackageSummary> packages, long loadedAtNanos) {
+    Map<Integer, PackageSummary> ids = new LinkedHashMap<>();
+    Map<String, PackageSummary> names = new HashMap<>();
+    Map<String, List<PackageSummary>> groupMembers = new HashMap<>();
+    List<String> allIdsAndNames = new ArrayList<>(packages.size());
+    Set<String> distinctGroups = new LinkedHashSet<>();
+
+    for (PackageSummary pack : packages) {
+      ids.put(pack.getPackageId(), pack);
+      // the first package with a name wins, as with the unordered lookup by name in the database
+      names.putIfAbsent(key(pack.getPackageName()), pack);
+      groupMembers.computeIfAbsent(key(pack.getPackageGroup()), group -> new ArrayList<>())
+          .add(pack);
+      allIdsAndNames.add(pack.getIdAndName());
+      distinctGroups.add(pack.getPackageGroup());
+    }
+
+    Map<String, List<PackageSummary>> sortedGroups = new HashMap<>();
+    Map<String, List<String>> groupIdsAndNames = new HashMap<>();
+    for (Map.Entry<String, List<PackageSummary>> entry : groupMembers.entrySet()) {
+      List<PackageSummary> members = entry.getValue();
+      members.sort(BY_NAME);
+      List<String> memberIdsAndNames = new ArrayList<>(members.size());
+      for (PackageSummary pack : members) {
+        memberIdsAndNames.add(pack.getIdAndName());
+      }
+      sortedGroups.put(entry.getKey(), Collections.unmodifiableList(members));
+      groupIdsAndNames.put(entry.getKey(), Collections.unmodifiableList(memberIdsAndNames));
+    }
+
+    this.byId = Collections.unmodifiableMap(ids);
+    this.byName = Collections.unmodifiableMap(names);
+    this.byGroup = Collections.unmodifiableMap(sortedGroups);
+    this.idsAndNames = Collections.unmodifiableList(allIdsAndNames);
+    this.idsAndNamesByGroup = Collections.unmodifiableMap(groupIdsAndNames);
+    this.groups = Collections.unmodifiableList(new ArrayList<>(distinctGroups));
+    this.loadedAtNanos = loadedAtNanos;
+  }
+
+  PackageSummary getById(int packageId) {
+    return byId.get(packageId);
+  }
+
+  PackageSummary getByName(String packageName) {
+    // as in SQL, nothing equals NULL
+    return packageName == null ? null : byName.get(key(packageName));
+  }
+
+  /**
+   * @return the packages of the group ordered by name, empty if the group has no packages
+   */
+  List<PackageSummary> getByGroup(String packageGroup) {
+    List<PackageSummary> members = packageGroup == null ? null : byGroup.get(key(packageGroup));
+    return members == null ? Collections.<PackageSummary>emptyList() : members;
+  }
+
+  /**
+   * @return all packages ordered by package_id
+   */
+  Iterable<PackageSummary> getAll() {
+    return byId.values();
+  }
+
+  /**
+   * @return packageId + ": " + packageName of all packages, ordered by package_id
+   */
+  List<String> getIdsAndNames() {
+    return idsAndNames;
+  }
+
+  /**
+   * @return packageId + ": " + packageName of the packages of the group, ordered by package_name
+   */
+  List<String> getIdsAndNames(String packageGroup) {
+    List<String> members =
+        packageGroup == null ? null : idsAndNamesByGroup.get(key(packageGroup));
+    return members == null ? Collections.<String>emptyList() : members;
+  }
+
+  /**
+   * @return the distinct package groups (including null if some packages have no group)
+   */
+  List<String> getGroups() {
+    return groups;
+  }
+
+  int size() {
+    return byId.size();
+  }
+
+  long getLoadedAtNanos() {
+    return loadedAtNanos;
+  }
+
+  private static String key(String value) {
+    if (value == null) {
+      return null;
+    }
+    int end = value.length();
+    while (end > 0 && value.charAt(end - 1) == ' ') {
+      end--;
+    }
+    return value.substring(0, end).toLowerCase(Locale.ROOT);
+  }
+}
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.dbase;
+
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.project.Project;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the openBIS projects, ordered by project code (ignoring case). Snapshots
+ * are shared by all sessions; {@link OpenBisProxy} replaces the current snapshot as a whole after
+ * each refresh.
+ */
+public final class ProjectIndex {
+
+  private static final Comparator<Project> BY_CODE =
+      Comparator.comparing((Project project) -> upperCase(project.getCode()))
+          .thenComparing(Project::getCode, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+  private final List<Project> projects;
+  private final List<String> codes;
+  // upper case codes in the order of codes, for binary searching a prefix
+  private final String[] upperCaseCodes;
+  private final Map<String, Project> byCode;
+  private final Date latestModificationDate;
+  private final long loadedAtMillis;
+
+  ProjectIndex(Collection<Project> projects, long loadedAtMillis) {
+    List<Project> sorted = new ArrayList<>(projects);
+    sorted.sort(BY_CODE);
+    List<String> sortedCodes = new ArrayList<>(sorted.size());
+    this.upperCaseCodes = new String[sorted.size()];
+    Map<String, Project> projectsByCode = new HashMap<>();
+    Date latest = null;
+    for (Project project : sorted) {
+      upperCaseCodes[sortedCodes.size()] = upperCase(project.getCode());
+      sortedCodes.add(project.getCode());
+      projectsByCode.put(project.getCode(), project);
+      Date modified = project.getModificationDate();
+      if (modified != null && (latest == null || modified.after(latest))) {
+        latest = modified;
+      }
+    }
+    this.projects = Collections.unmodifiableList(sorted);
+    this.codes = Collections.unmodifiableList(sortedCodes);
+    this.byCode = Collections.unmodifiableMap(projectsByCode);
+    this.latestModificationDate = latest;
+    this.loadedAtMillis = loadedAtMillis;
+  }
+
+  /**
+   * @param changed: projects created or modified since this snapshot was taken
+   * @param loadedAtMillis: time the changed projects were fetched
+   * @return a new snapshot with the changed projects replacing their old versions
+   */
+  ProjectIndex merge(Collection<Project> changed, long loadedAtMillis) {
+    Map<String, Project> merged = new HashMap<>(byCode);
+    for (Project project : changed) {
+      merged.put(project.getCode(), project);
+    }
+    return new ProjectIndex(merged.values(), loadedAtMillis);
+  }
+
+  /**
+   * @return all projects ordered by code
+   */
+  public List<Project> getProjects() {
+    return projects;
+  }
+
+  /**
+   * @return the codes of all projects in the order of {@link #getProjects()}
+   */
+  public List<String> getCodes() {
+    return codes;
+  }
+
+  /**
+   * @param prefix: start of the code, case is ignored
+   * @return view of the codes starting with the prefix, in the order of {@link #getCodes()}
+   */
+  public List<String> getCodesStartingWith(String prefix) {
+    String upperCasePrefix = upperCase(prefix);
+    int first = lowerBound(upperCasePrefix);
+    int last = first;
+    while (last < upperCaseCodes.length && upperCaseCodes[last].startsWith(upperCasePrefix)) {
+      last++;
+    }
+    return codes.subList(first, last);
+  }
+
+  /**
+   * @param part: part of the code, case is ignored
+   * @return the codes containing the part, in the order of {@link #getCodes()}
+   */
+  public List<String> getCodesContaining(String part) {
+    String upperCasePart = upperCase(part);
+    List<String> matches = new ArrayList<>();
+    for (int i = 0; i < upperCaseCodes.length; i++) {
+      if (upperCaseCodes[i].contains(upperCasePart)) {
+        matches.add(codes.get(i));
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * @return the project with the code or null if it is not in the snapshot
+   */
+  public Project getProject(String code) {
+    return byCode.get(code);
+  }
+
+  public int size() {
+    return projects.size();
+  }
+
+  /**
+   * @return the most recent modification date of all projects, null if none is known
+   */
+  Date getLatestModificationDate() {
+    return latestModificationDate;
+  }
+
+  public long getLoadedAtMillis() {
+    return loadedAtMillis;
+  }
+
+  // first index whose upper case code is not smaller than the key
+  private int lowerBound(String key) {
+    int low = 0;
+    int high = upperCaseCodes.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (upperCaseCodes[middle].compareTo(key) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private static String upperCase(String code) {
+    return code == null ? "" : code.toUpperCase(Locale.ROOT);
+  }
+}
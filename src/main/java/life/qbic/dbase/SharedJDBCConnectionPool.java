@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2017 Aydın Can Polatkan, 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+package life.qbic.dbase;
+
+import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.UI;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.sql.DataSource;
+
+/**
+ * JDBCConnectionPool for the vaadin SQLContainers (TableQuery, FreeformQuery) which hands out the
+ * connections of the pooled DataSource of {@link Database}, so all grids of all sessions share one
+ * bounded pool instead of opening a SimpleJDBCConnectionPool per container.
+ * <p>
+ * The connections are accounted per UI (or per VaadinSession if no UI is current), so the
+ * connections a UI still holds (e.g. of an unfinished container transaction) can be handed back
+ * with {@link #releaseLeases(Object)} once the UI is detached. The connections of a session are
+ * handed back when the session is destroyed. Connections can only be reserved by a UI or a
+ * session, there is nobody to hand back the others.
+ */
+public final class SharedJDBCConnectionPool implements JDBCConnectionPool {
+
+  private static final long serialVersionUID = -3226488937416640591L;
+
+  private static final Logger LOG = LogManager.getLogger(SharedJDBCConnectionPool.class);
+
+  private static final SharedJDBCConnectionPool INSTANCE = new SharedJDBCConnectionPool();
+
+  // owner (UI or VaadinSession) -> connections currently leased by it
+  private final transient Map<Object, Set<Connection>> leases = new ConcurrentHashMap<>();
+  // connection -> owner, for finding the owner when the connection is released
+  private final transient Map<Connection, Object> owners = new ConcurrentHashMap<>();
+
+  // services the session destroy listener is registered with
+  private final transient Set<VaadinService> services = ConcurrentHashMap.newKeySet();
+
+  private transient volatile DataSource dataSource;
+
+  private SharedJDBCConnectionPool() {}
+
+  public static SharedJDBCConnectionPool getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @throws SQLException if there is neither a current UI nor a current session
+   */
+  @Override
+  public Connection reserveConnection() throws SQLException {
+    Object owner = currentOwner();
+    if (owner == null) {
+      throw new SQLException(
+          "the shared connection pool can only be used by a UI or a session");
+    }
+    Connection conn = getDataSource().getConnection();
+    leases.computeIfAbsent(owner, key -> ConcurrentHashMap.newKeySet()).add(conn);
+    owners.put(conn, owner);
+    return conn;
+  }
+
+  @Override
+  public void releaseConnection(Connection conn) {
+    if (conn == null) {
+      return;
+    }
+    Object owner = owners.remove(conn);
+    if (owner != null) {
+      leases.computeIfPresent(owner, (key, leased) -> {
+        leased.remove(conn);
+        return leased.isEmpty() ? null : leased;
+      });
+    }
+    close(conn);
+  }
+
+  /**
+   * the pool is shared by all containers of all sessions, so a single container must not shut it
+   * down. Use {@link #releaseLeases(Object)} to clean up after a UI.
+   */
+  @Override
+  public void destroy() {
+    LOG.debug("ignoring destroy() of the shared connection pool");
+  }
+
+  /**
+   * returns all connections the given UI (or session) still holds back to the pool, rolling back
+   * anything that has not been committed.
+   *
+   * @param owner: the UI or VaadinSession that reserved the connections
+   * @return the number of connections that were released
+   */
+  public int releaseLeases(Object owner) {
+    if (owner == null) {
+      return 0;
+    }
+    Set<Connection> leased = leases.remove(owner);
+    if (leased == null) {
+      return 0;
+    }
+    int released = 0;
+    for (Connection conn : leased) {
+      owners.remove(conn);
+      rollbackQuietly(conn);
+      close(conn);
+      released++;
+    }
+    if (released > 0) {
+      LOG.info("Returned {} leaked connection(s) of a detached UI or destroyed session to the "
+          + "pool", released);
+    }
+    return released;
+  }
+
+  /**
+   * @param owner: UI or VaadinSession
+   * @return number of connections currently leased by the owner
+   */
+  public int getLeaseCount(Object owner) {
+    Set<Connection> leased = owner == null ? null : leases.get(owner);
+    return leased == null ? 0 : leased.size();
+  }
+
+  /**
+   * @return number of connections currently leased by all containers
+   */
+  public int getTotalLeaseCount() {
+    return owners.size();
+  }
+
+  private DataSource getDataSource() {
+    DataSource ds = dataSource;
+    if (ds == null) {
+      ds = Database.getInstance().getDataSource();
+      dataSource = ds;
+    }
+    return ds;
+  }
+
+  // the current UI, else the current session, null if there is neither
+  private Object currentOwner() {
+    UI ui = UI.getCurrent();
+    if (ui != null) {
+      return ui;
+    }
+    VaadinSession session = VaadinSession.getCurrent();
+    if (session != null) {
+      releaseLeasesOnDestroy(session.getService());
+    }
+    return session;
+  }
+
+  // hands back the connections of the sessions of the service once they are destroyed
+  private void releaseLeasesOnDestroy(VaadinService service) {
+    if (service != null && services.add(service)) {
+      service.addSessionDestroyListener(event -> releaseLeases(event.getSession()));
+    }
+  }
+
+  private static void rollbackQuietly(Connection conn) {
+    try {
+      if (!conn.isClosed() && !conn.getAutoCommit()) {
+        conn.rollback();
+      }
+    } catch (SQLException e) {
+      LOG.warn("could not roll back leased connection: " + e.getMessage());
+    }
+  }
+
+  private static void close(Connection conn) {
+    try {
+      conn.close();
+    } catch (SQLException e) {
+      LOG.warn("could not return connection to the pool: " + e.getMessage());
+    }
+  }
+
+  // there is only one pool per JVM, also after the session got deserialized
+  private Object readResolve() {
+    return INSTANCE;
+  }
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.model;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * One row of the work packages table of an offer document, with the values formatted as they are
+ * printed.
+ */
+public final class OfferLine implements Serializable {
+
+  private static final long serialVersionUID = -4125183542036870318L;
+
+  private final String packageId;
+  private final String name;
+  private final String quantity;
+  private final String unitPrice;
+  private final String amount;
+  private final int discount;
+  private final String discountedUnitPrice;
+
+  /**
+   * @param packageId: id of the work package
+   * @param name: name (and description) of the work package
+   * @param quantity: number of packages
+   * @param unitPrice: price of one package
+   * @param amount: total price of the packages
+   * @param discount: discount in percent, 0 if there is none
+   * @param discountedUnitPrice: price of one package after the discount
+   */
+  public OfferLine(String packageId, String name, String quantity, String unitPrice, String amount,
+      int discount, String discountedUnitPrice) {
+    this.packageId = packageId;
+    this.name = name;
+    this.quantity = quantity;
+    this.unitPrice = unitPrice;
+    this.amount = amount;
+    this.discount = discount;
+    this.discountedUnitPrice = discountedUnitPrice;
+  }
+
+  public String getPackageId() {
+    return packageId;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getQuantity() {
+    return quantity;
+  }
+
+  public String getUnitPrice() {
+    return unitPrice;
+  }
+
+  public String getAmount() {
+    return amount;
+  }
+
+  public int getDiscount() {
+    return discount;
+  }
+
+  public String getDiscountedUnitPrice() {
+    return discountedUnitPrice;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof OfferLine)) {
+      return false;
+    }
+    OfferLine other = (OfferLine) o;
+    return discount == other.discount && Objects.equals(packageId, other.packageId)
+        && Objects.equals(name, other.name) && Objects.equals(quantity, other.quantity)
+        && Objects.equals(unitPrice, other.unitPrice) && Objects.equals(amount, other.amount)
+        && Objects.equals(discountedUnitPrice, other.discountedUnitPrice);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(packageId, name, quantity, unitPrice, amount, discount,
+        discountedUnitPrice);
+  }
+}
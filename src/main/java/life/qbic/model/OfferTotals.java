@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.model;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * Offer price (sum of all package prices) and offer total (offer price minus the offer discount)
+ * of an offer as stored in the offers table right after a repricing.
+ */
+public final class OfferTotals implements Serializable {
+
+  private static final long serialVersionUID = 2920710286271418470L;
+
+  private final int offerId;
+  private final BigDecimal offerPrice;
+  private final BigDecimal offerTotal;
+
+  public OfferTotals(int offerId, BigDecimal offerPrice, BigDecimal offerTotal) {
+    this.offerId = offerId;
+    this.offerPrice = offerPrice;
+    this.offerTotal = offerTotal;
+  }
+
+  public int getOfferId() {
+    return offerId;
+  }
+
+  public BigDecimal getOfferPrice() {
+    return offerPrice;
+  }
+
+  public BigDecimal getOfferTotal() {
+    return offerTotal;
+  }
+
+  @Override
+  public String toString() {
+    return "offer " + offerId + ": price " + offerPrice + ", total " + offerTotal;
+  }
+}
@@ -4,6 +4,8 @@ public enum PackageGroup {
 
   Sequencing, Mass_Spectrometry, Bioinformatics_Analysis, Project_Management, Other;
 
+  private static final PackageGroup[] VALUES = values();
+
   public static boolean contains(String test) {
     for (PackageGroup c : PackageGroup.values()) {
       if (c.name().equals(test)) {
@@ -12,4 +14,45 @@ public enum PackageGroup {
     }
     return false;
   }
+
+  /**
+   * @param value: package_group of the packages table, e.g. "Mass Spectrometry"
+   * @return the group whose name matches ignoring case, surrounding blanks and '_' for ' ', null
+   *         for null and unknown groups
+   */
+  public static PackageGroup fromDatabaseValue(String value) {
+    if (value == null) {
+      return null;
+    }
+    int start = 0;
+    int end = value.length();
+    while (start < end && value.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && value.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    for (PackageGroup group : VALUES) {
+      if (group.matches(value, start, end)) {
+        return group;
+      }
+    }
+    return null;
+  }
+
+  private boolean matches(String value, int start, int end) {
+    String name = name();
+    if (name.length() != end - start) {
+      return false;
+    }
+    for (int i = 0; i < name.length(); i++) {
+      char expected = name.charAt(i);
+      char actual = value.charAt(start + i);
+      if (expected == '_' ? actual != '_' && actual != ' '
+          : Character.toLowerCase(expected) != Character.toLowerCase(actual)) {
+        return false;
+      }
+    }
+    return true;
+  }
 }
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.model;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+/**
+ * Immutable copy of one row of the packages table, as held by the package catalog of the
+ * {@link life.qbic.dbase.Database}. Prices are null if they are not set in the database.
+ */
+public final class PackageSummary implements Serializable {
+
+  private static final long serialVersionUID = -2093482160375093188L;
+
+  private final int packageId;
+  private final String packageName;
+  private final String packageFacility;
+  private final String packageDescription;
+  private final String packageGroup;
+  private final BigDecimal priceInternal;
+  private final BigDecimal priceExternalAcademic;
+  private final BigDecimal priceExternalCommercial;
+  private final String packageUnitType;
+  private final Timestamp packageDate;
+
+  public PackageSummary(int packageId, String packageName, String packageFacility,
+      String packageDescription, String packageGroup, BigDecimal priceInternal,
+      BigDecimal priceExternalAcademic, BigDecimal priceExternalCommercial, String packageUnitType,
+      Timestamp packageDate) {
+    this.packageId = packageId;
+    this.packageName = packageName;
+    this.packageFacility = packageFacility;
+    this.packageDescription = packageDescription;
+    this.packageGroup = packageGroup;
+    this.priceInternal = priceInternal;
+    this.priceExternalAcademic = priceExternalAcademic;
+    this.priceExternalCommercial = priceExternalCommercial;
+    this.packageUnitType = packageUnitType;
+    this.packageDate = packageDate == null ? null : new Timestamp(packageDate.getTime());
+  }
+
+  public int getPackageId() {
+    return packageId;
+  }
+
+  public String getPackageName() {
+    return packageName;
+  }
+
+  public String getPackageFacility() {
+    return packageFacility;
+  }
+
+  public String getPackageDescription() {
+    return packageDescription;
+  }
+
+  public String getPackageGroup() {
+    return packageGroup;
+  }
+
+  public BigDecimal getPriceInternal() {
+    return priceInternal;
+  }
+
+  public BigDecimal getPriceExternalAcademic() {
+    return priceExternalAcademic;
+  }
+
+  public BigDecimal getPriceExternalCommercial() {
+    return priceExternalCommercial;
+  }
+
+  /**
+   * @param packagePriceType: one of "internal", "external_academic", "external_commercial"; any
+   *        other value falls back to the internal price, like the package_price_type of
+   *        offers_packages does
+   * @return the price of the package for the given price type, null if not set
+   */
+  public BigDecimal getPrice(String packagePriceType) {
+    if ("external_academic".equals(packagePriceType)) {
+      return priceExternalAcademic;
+    } else if ("external_commercial".equals(packagePriceType)) {
+      return priceExternalCommercial;
+    }
+    return priceInternal;
+  }
+
+  public String getPackageUnitType() {
+    return packageUnitType;
+  }
+
+  public Timestamp getPackageDate() {
+    return packageDate == null ? null : new Timestamp(packageDate.getTime());
+  }
+
+  /**
+   * @return the package as shown in the package selections: packageId + ": " + packageName
+   */
+  public String getIdAndName() {
+    return packageId + ": " + packageName;
+  }
+
+  @Override
+  public String toString() {
+    return getIdAndName();
+  }
+}
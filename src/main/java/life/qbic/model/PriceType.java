@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.model;
+
+/**
+ * Price type of a package in an offer, as stored in package_price_type of offers_packages.
+ */
+public enum PriceType {
+
+  INTERNAL("internal"), EXTERNAL_ACADEMIC("external_academic"), EXTERNAL_COMMERCIAL(
+      "external_commercial");
+
+  private static final PriceType[] VALUES = values();
+
+  private final String databaseValue;
+
+  PriceType(String databaseValue) {
+    this.databaseValue = databaseValue;
+  }
+
+  /**
+   * @return the value of the enum column package_price_type
+   */
+  public String getDatabaseValue() {
+    return databaseValue;
+  }
+
+  /**
+   * @return name of the packages column holding the price of this type, e.g.
+   *         package_price_external_academic
+   */
+  public String getPriceColumn() {
+    return "package_price_" + databaseValue;
+  }
+
+  /**
+   * @param value: value of package_price_type, may be null
+   * @return the price type; null, empty and unknown values are internal, like the database
+   *         computes the prices
+   */
+  public static PriceType fromDatabaseValue(Object value) {
+    if (value != null) {
+      String text = value.toString();
+      for (PriceType type : VALUES) {
+        if (type.databaseValue.equals(text)) {
+          return type;
+        }
+      }
+    }
+    return INTERNAL;
+  }
+
+  /**
+   * @param customerGroup: customer group of a price modification, e.g. "external_academics"
+   * @return the price type, null if the customer group is unknown
+   */
+  public static PriceType fromCustomerGroup(String customerGroup) {
+    if (customerGroup == null) {
+      return null;
+    }
+    for (PriceType type : VALUES) {
+      // the customer groups of the price modifiers have been called "external_academics"
+      if (customerGroup.startsWith(type.databaseValue)
+          && (customerGroup.length() == type.databaseValue.length()
+              || customerGroup.length() == type.databaseValue.length() + 1
+                  && customerGroup.endsWith("s"))) {
+        return type;
+      }
+    }
+    return null;
+  }
+}
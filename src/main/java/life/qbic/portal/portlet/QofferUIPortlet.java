@@ -5,6 +5,7 @@ import com.vaadin.annotations.Widgetset;
 import com.vaadin.server.VaadinRequest;
 import com.vaadin.ui.Layout;
 import life.qbic.components.qOfferManager;
+import life.qbic.dbase.SharedJDBCConnectionPool;
 import com.vaadin.ui.HorizontalLayout;
 import java.io.IOException;
 import org.apache.logging.log4j.LogManager;
@@ -27,6 +28,9 @@ public class QofferUIPortlet extends QBiCPortletUI {
   protected Layout getPortletContent(final VaadinRequest request) {
     LOG.info("Generating content for {}", QofferUIPortlet.class);
 
+    // hand back the database connections the grids of this UI might still hold
+    addDetachListener(event -> SharedJDBCConnectionPool.getInstance().releaseLeases(this));
+
     HorizontalLayout pLayout = new HorizontalLayout();
 
     try {
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Reads the optional tuning settings of the offer manager (pool sizes, timeouts, etc.).
+ * <p>
+ * The ConfigurationManager of the portal-utils-lib only knows the settings shared by all portlets,
+ * so the offer manager specific values are passed as JVM system properties (e.g.
+ * {@code -Dqoffer.mysql.pool.maxSize=20} in the setenv script of the portal) and fall back to the
+ * given default if they are missing or malformed.
+ */
+public final class ConfigurationUtils {
+
+  private static final Logger LOG = LogManager.getLogger(ConfigurationUtils.class);
+
+  private ConfigurationUtils() {}
+
+  public static int getInt(String key, int defaultValue) {
+    return (int) getLong(key, defaultValue);
+  }
+
+  public static long getLong(String key, long defaultValue) {
+    String value = System.getProperty(key);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      LOG.warn("could not parse setting {}={}, using default {}", key, value, defaultValue);
+      return defaultValue;
+    }
+  }
+
+  public static boolean getBoolean(String key, boolean defaultValue) {
+    String value = System.getProperty(key);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    return Boolean.parseBoolean(value.trim());
+  }
+
+  public static String getString(String key, String defaultValue) {
+    String value = System.getProperty(key);
+    return (value == null || value.trim().isEmpty()) ? defaultValue : value.trim();
+  }
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled form of the xml file holding the content for the bindings of the .docx template (see
+ * contentControlTemplate.xml).
+ * <p>
+ * The file is parsed once per JVM (and again if it changes on disk). For every tag name the
+ * position of its first element is stored as the path of child indices from the document node, so
+ * a field of an offer's document is found by walking that path instead of scanning the whole
+ * document like {@link XMLUtils#changeNodeTextContent(Document, String, String)} does. The
+ * document of an offer is a deep clone of the parsed skeleton.
+ */
+public final class ContentControlTemplate {
+
+  private static final Logger LOG = LogManager.getLogger(ContentControlTemplate.class);
+
+  // absolute path of the xml file -> compiled template
+  private static final Map<String, ContentControlTemplate> TEMPLATES = new ConcurrentHashMap<>();
+
+  private final Document skeleton;
+  private final long lastModified;
+  // tag name -> child indices leading from the document node to the first element with the name
+  private final Map<String, int[]> paths;
+
+  private ContentControlTemplate(Document skeleton, long lastModified) {
+    this.skeleton = skeleton;
+    this.lastModified = lastModified;
+    this.paths = Collections.unmodifiableMap(indexElements(skeleton));
+  }
+
+  /**
+   * @param filename: path of the content control xml file
+   * @return the compiled template of the file
+   */
+  public static ContentControlTemplate forFile(String filename) {
+    File file = new File(filename);
+    String key = file.getAbsolutePath();
+    long lastModified = file.lastModified();
+
+    ContentControlTemplate template = TEMPLATES.get(key);
+    if (template == null || template.lastModified != lastModified) {
+      template = new ContentControlTemplate(parse(file), lastModified);
+      TEMPLATES.put(key, template);
+      LOG.info("compiled content control template " + key + " with " + template.paths.size()
+          + " fields");
+    }
+    return template;
+  }
+
+  private static Document parse(File file) {
+    try {
+      DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+      // expand the whole tree while parsing, the skeleton is only read afterwards
+      dbFactory.setFeature("http://apache.org/xml/features/dom/defer-node-expansion", false);
+      return dbFactory.newDocumentBuilder().parse(file);
+    } catch (ParserConfigurationException | SAXException | IOException e) {
+      throw new IllegalStateException("could not parse content control template " + file, e);
+    }
+  }
+
+  // depth first, so the first element found for a tag name is the one getElementsByTagName returns
+  private static Map<String, int[]> indexElements(Document doc) {
+    Map<String, int[]> index = new HashMap<>();
+    Deque<Integer> path = new ArrayDeque<>();
+    indexChildren(doc, path, index);
+    return index;
+  }
+
+  private static void indexChildren(Node parent, Deque<Integer> path, Map<String, int[]> index) {
+    Node child = parent.getFirstChild();
+    for (int i = 0; child != null; i++, child = child.getNextSibling()) {
+      if (child.getNodeType() != Node.ELEMENT_NODE) {
+        continue;
+      }
+      path.addLast(i);
+      if (!index.containsKey(child.getNodeName())) {
+        int[] childPath = new int[path.size()];
+        int depth = 0;
+        for (Integer position : path) {
+          childPath[depth++] = position;
+        }
+        index.put(child.getNodeName(), childPath);
+      }
+      indexChildren(child, path, index);
+      path.removeLast();
+    }
+  }
+
+  /**
+   * @return a new document with the content of the skeleton, to be filled for one offer
+   */
+  public Document newDocument() {
+    // the DOM implementation is not thread safe, not even for reading
+    synchronized (skeleton) {
+      return (Document) skeleton.cloneNode(true);
+    }
+  }
+
+  /**
+   * @param doc: document created by {@link #newDocument()}
+   * @param tagName: tag name of the element
+   * @return the first element with the tag name (in document order), null if there is none
+   */
+  public Element getElement(Document doc, String tagName) {
+    int[] path = paths.get(tagName);
+    if (path == null) {
+      return null;
+    }
+    Node node = doc;
+    for (int position : path) {
+      node = node.getChildNodes().item(position);
+    }
+    return (Element) node;
+  }
+
+  /**
+   * Changes the text content of the first element with the tag name, like
+   * {@link XMLUtils#changeNodeTextContent(Document, String, String)}.
+   * @param doc: document created by {@link #newDocument()}
+   * @param tagName: tag name of the element to modify
+   * @param newTextContent: new text content, nothing is changed if it is null
+   */
+  public void setText(Document doc, String tagName, String newTextContent) {
+    // we can only set the text content if its not null
+    if (newTextContent == null) {
+      return;
+    }
+    Element element = getElement(doc, tagName);
+    if (element == null) {
+      LOG.warn("content control template has no field " + tagName);
+      return;
+    }
+    element.setTextContent(newTextContent);
+  }
+}
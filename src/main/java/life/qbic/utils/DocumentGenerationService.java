@@ -0,0 +1,308 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.utils;
+
+import com.vaadin.util.CurrentInstance;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Runs the generation of offer documents (docx4j and JAXB work) on its own pool of
+ * qoffer.generation.workers [2] threads instead of the common ForkJoinPool, which is shared with
+ * the rest of the servlet container.
+ * <p>
+ * At most qoffer.generation.queueSize [10] jobs wait for a worker; further jobs are rejected with a
+ * {@link QueueFullException} instead of piling up. The Vaadin instances of the submitting thread
+ * (UI, session, ...) are available as current instances while a job runs, and the waiting and
+ * running times of the jobs are recorded.
+ * <p>
+ * Jobs submitted with {@link #submitIfIdle(String, Supplier)} never take the last idle worker, so
+ * there is always one worker left for the documents users are waiting for.
+ */
+public final class DocumentGenerationService {
+
+  private static final Logger LOG = LogManager.getLogger(DocumentGenerationService.class);
+
+  private static final DocumentGenerationService INSTANCE = new DocumentGenerationService();
+
+  private final int workers =
+      Math.max(1, ConfigurationUtils.getInt("qoffer.generation.workers", 2));
+  private final int queueSize =
+      Math.max(1, ConfigurationUtils.getInt("qoffer.generation.queueSize", 10));
+
+  private final AtomicInteger threadNumber = new AtomicInteger();
+  private final ThreadPoolExecutor executor = new ThreadPoolExecutor(workers, workers, 60L,
+      TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), runnable -> {
+        Thread thread =
+            new Thread(runnable, "qoffer-generation-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private final AtomicLong submitted = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong succeeded = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong waitNanos = new AtomicLong();
+  private final AtomicLong runNanos = new AtomicLong();
+  private final AtomicLong maxRunNanos = new AtomicLong();
+  private final AtomicInteger maxQueueDepth = new AtomicInteger();
+  // jobs of submitIfIdle which have not finished yet
+  private final AtomicInteger speculativeJobs = new AtomicInteger();
+
+  private DocumentGenerationService() {
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  public static DocumentGenerationService getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param jobName: name of the job for the log, e.g. the offer number
+   * @param job: the generation to run
+   * @return the submitted job
+   * @throws QueueFullException if all workers are busy and the queue is full
+   */
+  public <T> Job<T> submit(String jobName, Supplier<T> job) throws QueueFullException {
+    Task<T> task = new Task<>(jobName, job, false);
+    // jobs already waiting, the new job is queued behind them if no worker is idle
+    int waiting = executor.getQueue().size();
+    int position = executor.getActiveCount() < workers && waiting == 0 ? 0 : waiting + 1;
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      rejected.incrementAndGet();
+      LOG.warn("generation of " + jobName + " rejected: queue full; " + getStatistics());
+      throw new QueueFullException(queueSize + 1);
+    }
+    submitted.incrementAndGet();
+    maxQueueDepth.accumulateAndGet(executor.getQueue().size(), Math::max);
+    return new Job<>(task, position);
+  }
+
+  /**
+   * Submits a job which may only be useful later on, like generating a document before it is asked
+   * for. The job is only accepted if another worker stays idle besides the one it takes and no
+   * other job waits, and it runs with the lowest thread priority. With a single worker no such job
+   * is accepted. {@link Job#cancel()} skips the job if no worker has started it yet and interrupts
+   * it otherwise.
+   * @param jobName: name of the job for the log
+   * @param job: the generation to run
+   * @return the submitted job, null if the workers are busy
+   */
+  public synchronized <T> Job<T> submitIfIdle(String jobName, Supplier<T> job) {
+    int busy = Math.max(executor.getActiveCount(), speculativeJobs.get());
+    if (busy + 1 >= workers || !executor.getQueue().isEmpty()) {
+      return null;
+    }
+    Task<T> task = new Task<>(jobName, job, true);
+    speculativeJobs.incrementAndGet();
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      speculativeJobs.decrementAndGet();
+      return null;
+    }
+    submitted.incrementAndGet();
+    return new Job<>(task, 0);
+  }
+
+  /**
+   * @return number of jobs waiting for a worker
+   */
+  public int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * @return number of jobs being run right now
+   */
+  public int getActiveJobs() {
+    return executor.getActiveCount();
+  }
+
+  /**
+   * @return job counts, queue depth and the average times jobs waited and ran
+   */
+  public String getStatistics() {
+    long finished = succeeded.get() + failed.get();
+    return String.format("%d submitted, %d rejected, %d succeeded, %d failed, %d running, "
+        + "%d queued (max %d), avg wait %.1f ms, avg run %.1f ms (max %.1f ms)", submitted.get(),
+        rejected.get(), succeeded.get(), failed.get(), getActiveJobs(), getQueueDepth(),
+        maxQueueDepth.get(), finished == 0 ? 0 : waitNanos.get() / 1e6 / finished,
+        finished == 0 ? 0 : runNanos.get() / 1e6 / finished, maxRunNanos.get() / 1e6);
+  }
+
+  public long getSubmitted() {
+    return submitted.get();
+  }
+
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  /**
+   * runs a job with the Vaadin instances of the submitting thread and records its times
+   */
+  private final class Task<T> implements Runnable {
+
+    private final String jobName;
+    private final Supplier<T> job;
+    private final boolean lowPriority;
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private final Map<Class<?>, CurrentInstance> instances = CurrentInstance.getInstances(false);
+    private final long submittedAt = System.nanoTime();
+    // the worker running the job, null while it waits or once it is done
+    private Thread runner;
+
+    private Task(String jobName, Supplier<T> job, boolean lowPriority) {
+      this.jobName = jobName;
+      this.job = job;
+      this.lowPriority = lowPriority;
+    }
+
+    @Override
+    public void run() {
+      Thread worker = Thread.currentThread();
+      synchronized (this) {
+        if (result.isDone()) {
+          // cancelled while waiting
+          finished();
+          return;
+        }
+        runner = worker;
+      }
+      long startedAt = System.nanoTime();
+      long waited = startedAt - submittedAt;
+      waitNanos.addAndGet(waited);
+      int priority = worker.getPriority();
+      if (lowPriority) {
+        worker.setPriority(Thread.MIN_PRIORITY);
+      }
+      // the worker threads are reused, so the instances of the previous job must not leak
+      CurrentInstance.clearAll();
+      CurrentInstance.restoreInstances(instances);
+      try {
+        result.complete(job.get());
+        succeeded.incrementAndGet();
+      } catch (Throwable e) {
+        if (result.isCancelled()) {
+          LOG.info("generation of " + jobName + " cancelled");
+        } else {
+          failed.incrementAndGet();
+          LOG.error("generation of " + jobName + " failed", e);
+          result.completeExceptionally(e);
+        }
+      } finally {
+        synchronized (this) {
+          runner = null;
+          // an interrupt of a cancelled job must not hit the next job of the worker
+          Thread.interrupted();
+        }
+        finished();
+        CurrentInstance.clearAll();
+        worker.setPriority(priority);
+        long ran = System.nanoTime() - startedAt;
+        runNanos.addAndGet(ran);
+        maxRunNanos.accumulateAndGet(ran, Math::max);
+        LOG.info(String.format("generation of %s: waited %.1f ms, ran %.1f ms; %s", jobName,
+            waited / 1e6, ran / 1e6, getStatistics()));
+      }
+    }
+
+    private void finished() {
+      if (lowPriority) {
+        speculativeJobs.decrementAndGet();
+      }
+    }
+
+    private synchronized void cancel() {
+      result.cancel(false);
+      if (runner != null) {
+        runner.interrupt();
+      }
+    }
+  }
+
+  /**
+   * a submitted generation
+   */
+  public static final class Job<T> {
+
+    private final Task<T> task;
+    private final int queuePosition;
+
+    private Job(Task<T> task, int queuePosition) {
+      this.task = task;
+      this.queuePosition = queuePosition;
+    }
+
+    /**
+     * @return completes on the worker thread once the generation is done
+     */
+    public CompletableFuture<T> getResult() {
+      return task.result;
+    }
+
+    /**
+     * cancels the result; the job is skipped if it is still waiting and interrupted if it runs
+     */
+    public void cancel() {
+      task.cancel();
+    }
+
+    /**
+     * @return position in the queue at the time of submission, 0 if a worker started right away
+     */
+    public int getQueuePosition() {
+      return queuePosition;
+    }
+  }
+
+  /**
+   * thrown if a job is submitted while the queue is full
+   */
+  public static final class QueueFullException extends Exception {
+
+    private static final long serialVersionUID = -3052818563446254741L;
+
+    private final int position;
+
+    private QueueFullException(int position) {
+      super("queue full, position " + position);
+      this.position = position;
+    }
+
+    /**
+     * @return position the job would have had in the queue
+     */
+    public int getPosition() {
+      return position;
+    }
+  }
+}
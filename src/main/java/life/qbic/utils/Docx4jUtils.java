@@ -26,8 +26,6 @@ import org.docx4j.openpackaging.parts.Part;
 import org.docx4j.openpackaging.parts.WordprocessingML.FooterPart;
 import org.docx4j.openpackaging.parts.WordprocessingML.HeaderPart;
 
-import java.io.File;
-
 public final class Docx4jUtils {
 
   private static final Logger LOG = LogManager.getLogger(Docx4jUtils.class);
@@ -41,11 +39,10 @@ public final class Docx4jUtils {
    */
   public static WordprocessingMLPackage applyBindings(org.w3c.dom.Document contentControlFilename, String templateFilename) {
 
-    // get the template file
+    // get a parsed copy of the template file, which is ours to modify
     WordprocessingMLPackage wordProcessor = null;
     try {
-      File templateFile = new File(templateFilename);
-      wordProcessor = WordprocessingMLPackage.load(templateFile);
+      wordProcessor = DocxTemplateRegistry.getInstance().getCopy(templateFilename);
     } catch (Docx4JException e) {
       e.printStackTrace();
     }
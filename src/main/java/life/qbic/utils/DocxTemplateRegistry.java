@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.docx4j.openpackaging.exceptions.Docx4JException;
+import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out parsed copies of the .docx templates for the offer generation.
+ * <p>
+ * Each template file is read once and kept in memory; it is read again when its modification time
+ * or size on disk changes. docx4j has no deep copy which is cheaper than parsing (the clone of a
+ * package zips and parses it again), so instead a background thread keeps
+ * qoffer.docx.template.spares [2] parsed copies of each template ready. A request takes one of
+ * them (a hit) and only parses the template itself if none is left (a miss). Every copy is handed
+ * out once, so it can be bound and modified freely.
+ */
+public final class DocxTemplateRegistry {
+
+  private static final Logger LOG = LogManager.getLogger(DocxTemplateRegistry.class);
+
+  private static final DocxTemplateRegistry INSTANCE = new DocxTemplateRegistry();
+
+  private final int spares =
+      Math.max(0, ConfigurationUtils.getInt("qoffer.docx.template.spares", 2));
+
+  // absolute path of the template file -> template
+  private final ConcurrentHashMap<String, Template> templates = new ConcurrentHashMap<>();
+
+  private final ExecutorService preparer = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "qoffer-docx-templates");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong fileReads = new AtomicLong();
+  private final AtomicLong parses = new AtomicLong();
+  private final AtomicLong parseNanos = new AtomicLong();
+  private final AtomicLong acquireNanos = new AtomicLong();
+
+  private DocxTemplateRegistry() {}
+
+  public static DocxTemplateRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param templateFilename: path of the .docx template
+   * @return a parsed copy of the template which is not shared with anyone else
+   * @throws Docx4JException if the template can not be read or parsed
+   */
+  public WordprocessingMLPackage getCopy(String templateFilename) throws Docx4JException {
+    long start = System.nanoTime();
+    Template template = getTemplate(new File(templateFilename));
+
+    WordprocessingMLPackage copy = template.readyCopies.poll();
+    boolean hit = copy != null;
+    if (hit) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+      copy = template.parse();
+    }
+    template.prepareCopies();
+
+    long took = System.nanoTime() - start;
+    acquireNanos.addAndGet(took);
+    LOG.debug(String.format("template copy of %s in %.1f ms (%s); %s", templateFilename,
+        took / 1e6, hit ? "hit" : "miss", getStatistics()));
+    return copy;
+  }
+
+  /**
+   * @return hits, misses and the average time for parsing a template and for handing out a copy
+   */
+  public String getStatistics() {
+    long totalParses = parses.get();
+    long totalCopies = hits.get() + misses.get();
+    return String.format("%d hits, %d misses, %d file reads, %d parses (avg %.1f ms), "
+        + "avg %.1f ms per copy handed out", hits.get(), misses.get(), fileReads.get(), totalParses,
+        totalParses == 0 ? 0 : parseNanos.get() / 1e6 / totalParses,
+        totalCopies == 0 ? 0 : acquireNanos.get() / 1e6 / totalCopies);
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  // the template as currently on disk, read again if the file changed
+  private Template getTemplate(File file) throws Docx4JException {
+    String key = file.getAbsolutePath();
+    long lastModified = file.lastModified();
+    long length = file.length();
+
+    Template template = templates.get(key);
+    if (template != null && template.lastModified == lastModified && template.length == length) {
+      return template;
+    }
+    try {
+      Template read = new Template(Files.readAllBytes(file.toPath()), lastModified, length);
+      fileReads.incrementAndGet();
+      LOG.info("read docx template " + key);
+      // copies prepared from the previous version are dropped together with it
+      templates.put(key, read);
+      return read;
+    } catch (IOException e) {
+      throw new Docx4JException("could not read template " + key, e);
+    }
+  }
+
+  /**
+   * one version of a template file together with the copies prepared from it
+   */
+  private final class Template {
+
+    private final byte[] content;
+    private final long lastModified;
+    private final long length;
+    private final Queue<WordprocessingMLPackage> readyCopies = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger preparing = new AtomicInteger();
+
+    private Template(byte[] content, long lastModified, long length) {
+      this.content = content;
+      this.lastModified = lastModified;
+      this.length = length;
+    }
+
+    private WordprocessingMLPackage parse() throws Docx4JException {
+      long start = System.nanoTime();
+      WordprocessingMLPackage parsed =
+          WordprocessingMLPackage.load(new ByteArrayInputStream(content));
+      parseNanos.addAndGet(System.nanoTime() - start);
+      parses.incrementAndGet();
+      return parsed;
+    }
+
+    // tops up the ready copies in the background
+    private void prepareCopies() {
+      while (readyCopies.size() + preparing.get() < spares) {
+        preparing.incrementAndGet();
+        try {
+          preparer.execute(() -> {
+            try {
+              readyCopies.offer(parse());
+            } catch (Docx4JException | RuntimeException e) {
+              LOG.warn("could not prepare a copy of a docx template: " + e.getMessage());
+            } finally {
+              preparing.decrementAndGet();
+            }
+          });
+        } catch (RejectedExecutionException e) {
+          preparing.decrementAndGet();
+          return;
+        }
+      }
+    }
+  }
+}
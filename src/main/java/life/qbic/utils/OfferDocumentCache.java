@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.utils;
+
+import life.qbic.model.OfferLine;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of generated offer documents, keyed by the SHA-256 hash of everything bound into the
+ * document (see {@link #keyOf(Map, List, String...)}). A hit returns the bytes of the document
+ * generated before, so downloading an unchanged offer again does not render it again.
+ * <p>
+ * The documents are kept in memory up to qoffer.documents.cache.memoryBytes [32 MB], evicting the
+ * least recently used ones, and as files in the {@link TmpFolderStorage}, which limits their age
+ * and their total size. A document found on disk only is moved back into memory.
+ */
+public final class OfferDocumentCache {
+
+  private static final Logger LOG = LogManager.getLogger(OfferDocumentCache.class);
+
+  private static final OfferDocumentCache INSTANCE = new OfferDocumentCache();
+
+  // changes whenever the generation changes in a way the key does not cover
+  private static final String KEY_VERSION = "1";
+
+  private static final String FILE_PREFIX = "offer-document_";
+
+  private final long memoryLimit =
+      ConfigurationUtils.getLong("qoffer.documents.cache.memoryBytes", 32L * 1024 * 1024);
+  // key -> document, in the order of access; guarded by this
+  private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+  private long memoryBytes;
+
+  private final AtomicLong memoryHits = new AtomicLong();
+  private final AtomicLong diskHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  private OfferDocumentCache() {}
+
+  public static OfferDocumentCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param fields: tag name -> text of the content controls bound into the document
+   * @param lines: rows of the work packages table
+   * @param templateFiles: the template files the document is generated from; their size and
+   *        modification time are part of the key, so changing a template invalidates the cache
+   * @return hex encoded SHA-256 hash of all inputs
+   */
+  public static String keyOf(Map<String, String> fields, List<OfferLine> lines,
+      String... templateFiles) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    update(digest, KEY_VERSION);
+    for (String templateFile : templateFiles) {
+      File file = new File(templateFile);
+      update(digest, file.getAbsolutePath());
+      update(digest, Long.toString(file.length()));
+      update(digest, Long.toString(file.lastModified()));
+    }
+    update(digest, Integer.toString(fields.size()));
+    for (Map.Entry<String, String> field : fields.entrySet()) {
+      update(digest, field.getKey());
+      update(digest, field.getValue());
+    }
+    update(digest, Integer.toString(lines.size()));
+    for (OfferLine line : lines) {
+      update(digest, line.getPackageId());
+      update(digest, line.getName());
+      update(digest, line.getQuantity());
+      update(digest, line.getUnitPrice());
+      update(digest, line.getAmount());
+      update(digest, Integer.toString(line.getDiscount()));
+      update(digest, line.getDiscountedUnitPrice());
+    }
+
+    StringBuilder key = new StringBuilder();
+    for (byte b : digest.digest()) {
+      key.append(String.format("%02x", b));
+    }
+    return key.toString();
+  }
+
+  // length prefixed, so no two different sequences of values are hashed alike
+  private static void update(MessageDigest digest, String value) {
+    if (value == null) {
+      digest.update((byte) 0);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    digest.update((byte) 1);
+    digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) ':');
+    digest.update(bytes);
+  }
+
+  /**
+   * @param key: key of the document, see {@link #keyOf(Map, List, String...)}
+   * @return the cached document, null if it is not cached; must not be modified
+   */
+  public byte[] get(String key) {
+    synchronized (this) {
+      byte[] content = memory.get(key);
+      if (content != null) {
+        memoryHits.incrementAndGet();
+        return content;
+      }
+    }
+    byte[] content = TmpFolderStorage.getInstance().read(fileName(key));
+    if (content != null) {
+      diskHits.incrementAndGet();
+      synchronized (this) {
+        putInMemory(key, content);
+      }
+      return content;
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * @param key: key of the document, see {@link #keyOf(Map, List, String...)}
+   * @param content: the generated document; must not be modified afterwards
+   */
+  public void put(String key, byte[] content) {
+    synchronized (this) {
+      putInMemory(key, content);
+    }
+    try {
+      TmpFolderStorage.getInstance().put(fileName(key), content);
+    } catch (IOException e) {
+      LOG.warn("could not write cached offer document " + key + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * @return hits and misses of both tiers and the size of the memory tier
+   */
+  public synchronized String getStatistics() {
+    return String.format(
+        "%d memory hits, %d disk hits, %d misses, %d evictions, %d documents in memory (%d kB)",
+        memoryHits.get(), diskHits.get(), misses.get(), evictions.get(), memory.size(),
+        memoryBytes / 1024);
+  }
+
+  public long getHits() {
+    return memoryHits.get() + diskHits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  private static String fileName(String key) {
+    return FILE_PREFIX + key + ".docx";
+  }
+
+  private void putInMemory(String key, byte[] content) {
+    if (content.length > memoryLimit) {
+      return;
+    }
+    byte[] previous = memory.put(key, content);
+    memoryBytes += content.length - (previous == null ? 0 : previous.length);
+    Iterator<byte[]> eldest = memory.values().iterator();
+    while (memoryBytes > memoryLimit && eldest.hasNext()) {
+      memoryBytes -= eldest.next().length;
+      eldest.remove();
+      evictions.incrementAndGet();
+    }
+  }
+}
@@ -2,222 +2,593 @@ package life.qbic.utils;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import javax.xml.bind.JAXBException;
-
-import life.qbic.Constants;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import life.qbic.dbase.Database;
 import life.qbic.model.PackageGroup;
+import life.qbic.model.PackageSummary;
 import life.qbic.model.packageBean;
-import life.qbic.portal.portlet.QBiCPortletUI;
-import life.qbic.portal.utils.ConfigurationManager;
-import life.qbic.portal.utils.ConfigurationManagerFactory;
-import life.qbic.portal.utils.PropertiesBasedConfigurationManager;
 
+/**
+ * Imports packages from a TSV file with the columns package_name, package_facility,
+ * package_description, package_group, price_internal and unit_type (in any order, further columns
+ * are ignored).
+ * <p>
+ * The file is streamed: rows are parsed and validated one at a time and inserted in chunks of
+ * qoffer.import.batchSize [500] rows, each chunk as one JDBC batch in its own transaction. An
+ * invalid row is reported with its line number and skipped. If the batch of a chunk fails, its rows
+ * are inserted one by one so only the failing rows are reported. The progress is reported after
+ * every chunk.
+ * <p>
+ * A yearly price list is reloaded with {@link #diffPriceList(InputStream, Database)} instead,
+ * which matches the rows to the existing packages and yields a {@link PriceListDiff} to preview
+ * before it is applied in one transaction.
+ */
 public class PackageBatchReader {
 
   private static final Logger logger = LogManager.getLogger(PackageBatchReader.class);
-  private List<String> mandatory;
-  private List<String> optional;
 
-  private String error;
-  private List<String> tsvByRows;
-  private List<packageBean> packages;
+  private static final int BATCH_SIZE =
+      Math.max(1, ConfigurationUtils.getInt("qoffer.import.batchSize", 500));
+  // errors beyond this number are only counted
+  private static final int MAX_REPORTED_ERRORS =
+      Math.max(0, ConfigurationUtils.getInt("qoffer.import.maxReportedErrors", 100));
+
+  // one import at a time, so concurrent uploads do not compete for the connections of the pool
+  private static final ExecutorService IMPORT_EXECUTOR = Executors.newSingleThreadExecutor(
+      runnable -> {
+        Thread thread = new Thread(runnable, "qoffer-import");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  public static final String UTF8_BOM = "\uFEFF";
+
+  private final List<String> mandatory;
+
+  /**
+   * receives the progress of an import, on the thread running the import
+   */
+  public interface ProgressListener {
+
+    void progress(ImportResult progress);
+  }
 
   public PackageBatchReader() {
-    Set<String> mandatory = new HashSet<String>(Arrays.asList("package_name", "package_facility",
-        "package_description", "package_group", "price_internal", "unit_type"));// , "added_by"));
-    //
-    this.mandatory = new ArrayList<String>(mandatory);
-    Set<String> optional = new HashSet<String>(Arrays.asList());
-    this.optional = new ArrayList<String>(optional);
-  }
-
-  public static void main(String[] args) throws JAXBException {
-    String user = "andreas";
-    try {
-      Properties properties = new Properties();
-
-      PackageBatchReader p = new PackageBatchReader();
-      // TODO Remove this, after batch upload is supported in qOffer
-      if (p.readPackageFile(new File(Constants.QOFFER_PACKAGES_LIST_PATH))) {
-
-        try (final InputStream inputStream = ConfigurationManagerFactory.class.getClassLoader()
-            .getResourceAsStream(QBiCPortletUI.DEVELOPER_PROPERTIES_FILE_PATH)) {
-          if (inputStream == null) {
-            logger.warn(
-                "Your local configuration file was not found in the classpath. This might not be a problem. Perhaps you forgot to add {} in the classpath?",
-                QBiCPortletUI.DEVELOPER_PROPERTIES_FILE_PATH);
+    this.mandatory = Arrays.asList("package_name", "package_facility", "package_description",
+        "package_group", "price_internal", "unit_type");
+  }
+
+  private static String removeUTF8BOM(String s) {
+    if (s.startsWith(UTF8_BOM)) {
+      s = s.substring(1);
+    }
+    return s;
+  }
+
+  /**
+   * Imports the file on a background thread, one import after the other.
+   *
+   * @param file: the TSV file
+   * @param db: database the packages are added to
+   * @param user: user the packages are added by
+   * @param listener: receives the progress on the import thread
+   * @return completes with the result of the import, or exceptionally if the file can not be read
+   */
+  public static CompletableFuture<ImportResult> importInBackground(File file, Database db,
+      String user, ProgressListener listener) {
+    CompletableFuture<ImportResult> result = new CompletableFuture<>();
+    IMPORT_EXECUTOR.execute(() -> {
+      try {
+        result.complete(new PackageBatchReader().importPackages(file, db, user, listener));
+      } catch (Throwable e) {
+        logger.error("import of " + file + " failed", e);
+        result.completeExceptionally(e);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * like {@link #importPackages(InputStream, long, Database, String, ProgressListener)} for a file
+   */
+  public ImportResult importPackages(File file, Database db, String user,
+      ProgressListener listener) throws IOException {
+    try (InputStream in = new FileInputStream(file)) {
+      return importPackages(in, file.length(), db, user, listener);
+    }
+  }
+
+  /**
+   * Streams the packages of the TSV into the database.
+   *
+   * @param in: the UTF-8 encoded TSV, it is not closed
+   * @param totalBytes: size of the TSV for the progress, -1 if it is not known
+   * @param db: database the packages are added to
+   * @param user: user the packages are added by
+   * @param listener: receives the progress after every chunk, may be null
+   * @return numbers of rows read and imported and the errors; if the header is invalid nothing is
+   *         imported and the result holds the error of line 1
+   * @throws IOException if the TSV can not be read
+   */
+  public ImportResult importPackages(InputStream in, long totalBytes, Database db, String user,
+      ProgressListener listener) throws IOException {
+    Import run = new Import(in, totalBytes, db, user, listener);
+    run.run(new RowSink() {
+      @Override
+      public void row(int lineNumber, packageBean pack) {
+        run.insert(lineNumber, pack);
+      }
+
+      @Override
+      public void end() {
+        run.flush();
+      }
+    });
+    return run.result(true);
+  }
+
+  /**
+   * Computes the difference between the price list in the file and the packages in the database
+   * on a background thread, like {@link #importInBackground(File, Database, String,
+   * ProgressListener)}. Nothing is changed in the database.
+   *
+   * @param file: the TSV file
+   * @param db: database holding the packages
+   * @return completes with the difference, or exceptionally if the file or the packages can not
+   *         be read
+   */
+  public static CompletableFuture<PriceListDiff> diffInBackground(File file, Database db) {
+    CompletableFuture<PriceListDiff> result = new CompletableFuture<>();
+    IMPORT_EXECUTOR.execute(() -> {
+      try (InputStream in = new FileInputStream(file)) {
+        result.complete(new PackageBatchReader().diffPriceList(in, db));
+      } catch (Throwable e) {
+        logger.error("price list " + file + " could not be compared", e);
+        result.completeExceptionally(e);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Applies the difference computed by {@link #diffInBackground(File, Database)} on the import
+   * thread.
+   *
+   * @param diff: the difference to apply
+   * @param db: database holding the packages
+   * @param user: user the new packages are added by
+   * @return completes with the number of repriced offers, or exceptionally if nothing was applied
+   */
+  public static CompletableFuture<Integer> applyInBackground(PriceListDiff diff, Database db,
+      String user) {
+    CompletableFuture<Integer> result = new CompletableFuture<>();
+    IMPORT_EXECUTOR.execute(() -> {
+      try {
+        result.complete(db.applyPriceList(diff.getAdded(), diff.getChanged(), user));
+      } catch (Throwable e) {
+        logger.error("price list could not be applied", e);
+        result.completeExceptionally(e);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Matches the rows of a price list to the packages in the database by their natural key (see
+   * {@link PriceListDiff}). Rows repeating the key of an earlier row are reported as errors.
+   *
+   * @param in: the UTF-8 encoded TSV, it is not closed
+   * @param db: database holding the packages
+   * @return the difference, nothing is changed in the database
+   * @throws IOException if the TSV can not be read
+   * @throws SQLException if the packages can not be read
+   */
+  public PriceListDiff diffPriceList(InputStream in, Database db)
+      throws IOException, SQLException {
+    Map<String, List<PackageSummary>> existing = new HashMap<>();
+    for (PackageSummary pack : db.readPackageSummaries()) {
+      existing.computeIfAbsent(PriceListDiff.keyOf(pack.getPackageName(),
+          pack.getPackageFacility(), pack.getPackageGroup()), key -> new ArrayList<>()).add(pack);
+    }
+
+    Map<String, Integer> seen = new HashMap<>();
+    List<packageBean> added = new ArrayList<>();
+    List<PriceListDiff.PriceChange> changed = new ArrayList<>();
+    int[] unchanged = new int[1];
+    Import run = new Import(in, -1, db, null, null);
+    run.run(new RowSink() {
+      @Override
+      public void row(int lineNumber, packageBean pack) {
+        String key = PriceListDiff.keyOf(pack.getpackage_name(), pack.getpackage_facility(),
+            pack.getpackage_group());
+        Integer earlier = seen.putIfAbsent(key, lineNumber);
+        if (earlier != null) {
+          run.error(lineNumber, "Same name, facility and group as line " + earlier + ".");
+          return;
+        }
+        List<PackageSummary> matches = existing.get(key);
+        if (matches == null) {
+          added.add(pack);
+          return;
+        }
+        BigDecimal newPrice = cents(BigDecimal.valueOf(pack.getpackage_price()));
+        // packages entered more than once before are all updated
+        for (PackageSummary match : matches) {
+          BigDecimal oldPrice =
+              match.getPriceInternal() == null ? null : cents(match.getPriceInternal());
+          if (oldPrice != null && oldPrice.compareTo(newPrice) == 0) {
+            unchanged[0]++;
           } else {
-            properties.load(inputStream);
+            changed.add(new PriceListDiff.PriceChange(match.getPackageId(),
+                match.getPackageName(), match.getPackageFacility(), match.getPackageGroup(),
+                oldPrice, newPrice));
           }
-        } catch (IOException e) {
-          throw new RuntimeException("Could not load local configuration file "
-              + QBiCPortletUI.DEVELOPER_PROPERTIES_FILE_PATH, e);
         }
-        final String MSQL_HOST = "mysql.host";
-        final String MSQL_DB = "mysql.db";
-        final String MSQL_USER = "mysql.user";
-        final String MSQL_PORT = "mysql.port";
-        final String MSQL_PASS = "mysql.pass";
-
-        String msqlHost = properties.getProperty(MSQL_HOST);
-        String msqlDB = properties.getProperty(MSQL_DB);
-        String msqlUser = properties.getProperty(MSQL_USER);
-        String msqlPort = properties.getProperty(MSQL_PORT);
-        String msqlPass = properties.getProperty(MSQL_PASS);
-
-        Database db = new Database(msqlUser, msqlPass, msqlHost, msqlPort, msqlDB);
-        for (packageBean pack : p.getPackages()) {
-          db.addNewPackage(pack, user);
-        }
-      } else {
-        System.out.println(p.getError());
       }
-    } catch (
 
-    IOException e) {
-      e.printStackTrace();
+      @Override
+      public void end() {}
+    });
+
+    List<PackageSummary> missing = new ArrayList<>();
+    for (Map.Entry<String, List<PackageSummary>> entry : existing.entrySet()) {
+      if (!seen.containsKey(entry.getKey())) {
+        missing.addAll(entry.getValue());
+      }
     }
+    PriceListDiff diff = new PriceListDiff(added, changed, unchanged[0], missing, run.failed,
+        new ArrayList<>(run.errors));
+    logger.info("price list compared: " + diff.getSummary());
+    return diff;
   }
 
-  public List<packageBean> getPackages() {
-    return packages;
+  private static BigDecimal cents(BigDecimal price) {
+    return price.setScale(2, RoundingMode.HALF_UP);
   }
 
-  public static final String UTF8_BOM = "\uFEFF";
-
-  private static String removeUTF8BOM(String s) {
-    if (s.startsWith(UTF8_BOM)) {
-      s = s.substring(1);
+  /**
+   * splits the line at the tabs, keeping empty trailing fields
+   *
+   * @return number of fields, -1 if the line has more fields than the array holds
+   */
+  static int splitTabs(String line, String[] fields) {
+    int count = 0;
+    int start = 0;
+    while (true) {
+      int tab = line.indexOf('\t', start);
+      if (count == fields.length) {
+        return -1;
+      }
+      if (tab < 0) {
+        fields[count++] = line.substring(start);
+        return count;
+      }
+      fields[count++] = line.substring(start, tab);
+      start = tab + 1;
     }
-    return s;
   }
 
   /**
-   * Reads in a TSV file containing samples that should be registered. Returns a List of
-   * TSVSampleBeans containing all the necessary information to register each sample with its meta
-   * information to openBIS, given that the types and parents exist.
-   * 
-   * @param file
-   * @return ArrayList of TSVSampleBeans
-   * @throws IOException
-   * @throws JAXBException
+   * receives the valid rows of the file
    */
-  public boolean readPackageFile(File file) throws IOException {
-    packages = new ArrayList<packageBean>();
-    tsvByRows = new ArrayList<String>();
-    BufferedReader reader = new BufferedReader(new FileReader(file));
-    ArrayList<String[]> data = new ArrayList<String[]>();
-    String next;
-    int i = 0;
-    // isPilot = false;
-    while ((next = reader.readLine()) != null) {
-      i++;
-      next = removeUTF8BOM(next);
-      tsvByRows.add(next);
-      String[] nextLine = next.split("\t", -1);// this is needed for trailing tabs
-      if (data.isEmpty() || nextLine.length == data.get(0).length) {
-        data.add(nextLine);
-      } else {
-        error = "Wrong number of columns in row " + i;
-        reader.close();
-        return false;
-      }
-    }
-    reader.close();
-
-    if (data.isEmpty()) {
-      error = "File is empty.";
-      return false;
-    }
-    String[] header = data.get(0);
-    data.remove(0);
-
-    Map<String, Integer> headerMapping = new HashMap<String, Integer>();
-
-    ArrayList<String> found = new ArrayList<String>(Arrays.asList(header));
-    for (int j = 0; j < found.size(); j++)
-      found.set(j, found.get(j).toLowerCase());
-
-    for (String col : mandatory) {
-      if (!found.contains(col)) {
-        error = "Mandatory column " + col + " not found.";
-        return false;
-      }
-    }
-    for (i = 0; i < header.length; i++) {
-      String name = header[i].toLowerCase();
-      int position = mandatory.indexOf(name);
-      if (position > -1) {
-        headerMapping.put(name, i);
-      } else {
-        position = optional.indexOf(name);
-        if (position > -1) {
+  private interface RowSink {
+
+    void row(int lineNumber, packageBean pack);
+
+    void end();
+  }
+
+  /**
+   * the state of one import
+   */
+  private final class Import {
+
+    private final CountingInputStream in;
+    private final long totalBytes;
+    private final Database db;
+    private final String user;
+    private final ProgressListener listener;
+    private final long start = System.nanoTime();
+
+    private final List<packageBean> chunk = new ArrayList<>(BATCH_SIZE);
+    private final List<Integer> chunkLines = new ArrayList<>(BATCH_SIZE);
+    private final List<RowError> errors = new ArrayList<>();
+    private long rowsRead;
+    private long imported;
+    private long failed;
+
+    private Import(InputStream in, long totalBytes, Database db, String user,
+        ProgressListener listener) {
+      this.in = new CountingInputStream(in);
+      this.totalBytes = totalBytes;
+      this.db = db;
+      this.user = user;
+      this.listener = listener;
+    }
+
+    private void run(RowSink sink) throws IOException {
+      BufferedReader reader =
+          new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+      String headerLine = reader.readLine();
+      if (headerLine == null) {
+        error(1, "File is empty.");
+        return;
+      }
+      String[] header = removeUTF8BOM(headerLine).split("\t", -1);
+      Map<String, Integer> headerMapping = new HashMap<>();
+      for (int i = 0; i < header.length; i++) {
+        String name = header[i].trim().toLowerCase();
+        if (mandatory.contains(name)) {
           headerMapping.put(name, i);
         }
       }
-
-    }
-    // create person objects
-    int rowID = 0;
-    for (String[] row : data) {
-      rowID++;
       for (String col : mandatory) {
-        if (row[headerMapping.get(col)].isEmpty()) {
-          error = col + " is a mandatory field, but it is not set for row " + rowID + "!";
-          return false;
+        if (!headerMapping.containsKey(col)) {
+          error(1, "Mandatory column " + col + " not found.");
+          return;
         }
       }
 
-      String name = row[headerMapping.get("package_name")];
-      String facility = row[headerMapping.get("package_facility")];
-      String desc = row[headerMapping.get("package_description")];
-      String group = row[headerMapping.get("package_group")];
+      int nameColumn = headerMapping.get("package_name");
+      int facilityColumn = headerMapping.get("package_facility");
+      int descriptionColumn = headerMapping.get("package_description");
+      int groupColumn = headerMapping.get("package_group");
+      int priceColumn = headerMapping.get("price_internal");
+      int unitColumn = headerMapping.get("unit_type");
 
-      if (!PackageGroup.contains(group.replace(" ", "_"))) {
-        error = group + " is not a known package group! Known groups are: " + PackageGroup.values();
-        return false;
+      String[] fields = new String[header.length];
+      String line;
+      int lineNumber = 1;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        if (line.isEmpty()) {
+          continue;
+        }
+        rowsRead++;
+        if (splitTabs(line, fields) != header.length) {
+          error(lineNumber, "Wrong number of columns, expected " + header.length + ".");
+          continue;
+        }
+        String missing = null;
+        for (String col : mandatory) {
+          if (fields[headerMapping.get(col)].isEmpty()) {
+            missing = col;
+            break;
+          }
+        }
+        if (missing != null) {
+          error(lineNumber, missing + " is a mandatory field, but it is not set.");
+          continue;
+        }
+        String group = fields[groupColumn];
+        if (!PackageGroup.contains(group.replace(" ", "_"))) {
+          error(lineNumber, group + " is not a known package group! Known groups are: "
+              + Arrays.toString(PackageGroup.values()));
+          continue;
+        }
+        double price;
+        try {
+          price = Double.parseDouble(fields[priceColumn]);
+        } catch (NumberFormatException e) {
+          error(lineNumber, fields[priceColumn] + " is not a valid internal price.");
+          continue;
+        }
+
+        sink.row(lineNumber, new packageBean(fields[nameColumn], fields[facilityColumn],
+            fields[descriptionColumn], group, price, fields[unitColumn]));
       }
+      sink.end();
+    }
 
-      double price = Double.parseDouble(row[headerMapping.get("price_internal")]);
-      String unit = row[headerMapping.get("unit_type")];
-      // String added_by = row[headerMapping.get("added_by")];
+    // collects the rows in chunks and inserts them
+    private void insert(int lineNumber, packageBean pack) {
+      chunk.add(pack);
+      chunkLines.add(lineNumber);
+      if (chunk.size() == BATCH_SIZE) {
+        flush();
+      }
+    }
 
-      // TODO
-      packageBean p = new packageBean(name, facility, desc, group, price, unit);
-      // new packageBean(title, first, last, mail);
-      // if (headerMapping.get("optional") != null)
-      // p.setPhone(row[headerMapping.get("phone")]);
-      packages.add(p);
+    // inserts the rows of the chunk and reports the progress
+    private void flush() {
+      if (!chunk.isEmpty()) {
+        try {
+          db.addNewPackages(chunk, user);
+          imported += chunk.size();
+        } catch (SQLException batchError) {
+          logger.warn("batch of " + chunk.size() + " packages failed, inserting them one by one: "
+              + batchError.getMessage());
+          for (int i = 0; i < chunk.size(); i++) {
+            try {
+              db.addNewPackages(Collections.singletonList(chunk.get(i)), user);
+              imported++;
+            } catch (SQLException e) {
+              error(chunkLines.get(i), e.getMessage());
+            }
+          }
+        }
+        chunk.clear();
+        chunkLines.clear();
+      }
+      if (listener != null) {
+        listener.progress(result(false));
+      }
+    }
+
+    private void error(int lineNumber, String message) {
+      failed++;
+      if (errors.size() < MAX_REPORTED_ERRORS) {
+        errors.add(new RowError(lineNumber, message));
+      }
+    }
+
+    private ImportResult result(boolean done) {
+      return new ImportResult(rowsRead, imported, failed, new ArrayList<>(errors), in.getCount(),
+          totalBytes, System.nanoTime() - start, done);
     }
-    return true;
   }
 
-  public String getError() {
-    if (error != null)
-      logger.error(error);
-    else
-      logger.info("Parsing of experimental design successful.");
-    return error;
+  /**
+   * progress or result of an import
+   */
+  public static final class ImportResult {
+
+    private final long rowsRead;
+    private final long imported;
+    private final long failed;
+    private final List<RowError> errors;
+    private final long bytesRead;
+    private final long totalBytes;
+    private final long elapsedNanos;
+    private final boolean done;
+
+    private ImportResult(long rowsRead, long imported, long failed, List<RowError> errors,
+        long bytesRead, long totalBytes, long elapsedNanos, boolean done) {
+      this.rowsRead = rowsRead;
+      this.imported = imported;
+      this.failed = failed;
+      this.errors = Collections.unmodifiableList(errors);
+      this.bytesRead = bytesRead;
+      this.totalBytes = totalBytes;
+      this.elapsedNanos = elapsedNanos;
+      this.done = done;
+    }
+
+    public long getRowsRead() {
+      return rowsRead;
+    }
+
+    public long getImported() {
+      return imported;
+    }
+
+    /**
+     * @return number of rows which could not be imported, see {@link #getErrors()}
+     */
+    public long getFailed() {
+      return failed;
+    }
+
+    /**
+     * @return the first qoffer.import.maxReportedErrors [100] errors
+     */
+    public List<RowError> getErrors() {
+      return errors;
+    }
+
+    /**
+     * @return share of the file read so far between 0 and 1, -1 if the size is not known
+     */
+    public float getFractionRead() {
+      return totalBytes <= 0 ? -1 : Math.min(1f, (float) bytesRead / totalBytes);
+    }
+
+    public double getRowsPerSecond() {
+      return elapsedNanos == 0 ? 0 : rowsRead * 1e9 / elapsedNanos;
+    }
+
+    public boolean isDone() {
+      return done;
+    }
+
+    /**
+     * @return e.g. "1000 rows read, 998 imported, 2 failed (2500 rows/s)"
+     */
+    public String getSummary() {
+      return String.format("%d rows read, %d imported, %d failed (%.0f rows/s)", rowsRead,
+          imported, failed, getRowsPerSecond());
+    }
   }
 
-  public List<String> getTSVByRows() {
-    return tsvByRows;
+  /**
+   * a row which could not be imported
+   */
+  public static final class RowError {
+
+    private final int line;
+    private final String message;
+
+    private RowError(int line, String message) {
+      this.line = line;
+      this.message = message;
+    }
+
+    /**
+     * @return line number in the file, starting with 1 for the header
+     */
+    public int getLine() {
+      return line;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+
+    @Override
+    public String toString() {
+      return "line " + line + ": " + message;
+    }
   }
 
+  /**
+   * counts the bytes read for the progress
+   */
+  private static final class CountingInputStream extends FilterInputStream {
+
+    private long count;
+
+    private CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        count += n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+
+    private long getCount() {
+      return count;
+    }
+  }
 }
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.utils;
+
+import life.qbic.model.PackageSummary;
+import life.qbic.model.packageBean;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Difference between a reloaded price list and the packages in the database, computed by
+ * {@link PackageBatchReader#diffPriceList} and applied with
+ * {@link life.qbic.dbase.Database#applyPriceList(List, List, String)}.
+ * <p>
+ * Rows are matched to packages by their natural key: name, facility and group, compared without
+ * surrounding blanks and ignoring case (and '_' in the group). Prices are compared in cents.
+ */
+public final class PriceListDiff {
+
+  private final List<packageBean> added;
+  private final List<PriceChange> changed;
+  private final int unchanged;
+  private final List<PackageSummary> missing;
+  private final long failed;
+  private final List<PackageBatchReader.RowError> errors;
+
+  PriceListDiff(List<packageBean> added, List<PriceChange> changed, int unchanged,
+      List<PackageSummary> missing, long failed, List<PackageBatchReader.RowError> errors) {
+    this.added = Collections.unmodifiableList(added);
+    this.changed = Collections.unmodifiableList(changed);
+    this.unchanged = unchanged;
+    this.missing = Collections.unmodifiableList(missing);
+    this.failed = failed;
+    this.errors = Collections.unmodifiableList(errors);
+  }
+
+  /**
+   * @return natural key of a package
+   */
+  static String keyOf(String name, String facility, String group) {
+    return normalize(name) + '\u0000' + normalize(facility) + '\u0000'
+        + normalize(group == null ? null : group.replace('_', ' '));
+  }
+
+  private static String normalize(String value) {
+    return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * @return rows without a matching package, they are inserted
+   */
+  public List<packageBean> getAdded() {
+    return added;
+  }
+
+  /**
+   * @return packages whose internal price differs from the row, their prices are updated
+   */
+  public List<PriceChange> getChanged() {
+    return changed;
+  }
+
+  public int getUnchanged() {
+    return unchanged;
+  }
+
+  /**
+   * @return packages without a row in the price list; they are kept, since offers may use them
+   */
+  public List<PackageSummary> getMissing() {
+    return missing;
+  }
+
+  /**
+   * @return number of rows which could not be read, see {@link #getErrors()}
+   */
+  public long getFailed() {
+    return failed;
+  }
+
+  /**
+   * @return the first qoffer.import.maxReportedErrors [100] rows which could not be read
+   */
+  public List<PackageBatchReader.RowError> getErrors() {
+    return errors;
+  }
+
+  public boolean isEmpty() {
+    return added.isEmpty() && changed.isEmpty();
+  }
+
+  /**
+   * @return e.g. "3 new, 120 changed prices, 4800 unchanged, 2 missing, 0 invalid rows"
+   */
+  public String getSummary() {
+    return String.format("%d new, %d changed prices, %d unchanged, %d missing, %d invalid rows",
+        added.size(), changed.size(), unchanged, missing.size(), failed);
+  }
+
+  /**
+   * new internal price of an existing package
+   */
+  public static final class PriceChange {
+
+    private final int packageId;
+    private final String packageName;
+    private final String packageFacility;
+    private final String packageGroup;
+    private final BigDecimal oldPrice;
+    private final BigDecimal newPrice;
+
+    PriceChange(int packageId, String packageName, String packageFacility, String packageGroup,
+        BigDecimal oldPrice, BigDecimal newPrice) {
+      this.packageId = packageId;
+      this.packageName = packageName;
+      this.packageFacility = packageFacility;
+      this.packageGroup = packageGroup;
+      this.oldPrice = oldPrice;
+      this.newPrice = newPrice;
+    }
+
+    public int getPackageId() {
+      return packageId;
+    }
+
+    public String getPackageName() {
+      return packageName;
+    }
+
+    /**
+     * @return facility of the package as stored in the database
+     */
+    public String getPackageFacility() {
+      return packageFacility;
+    }
+
+    /**
+     * @return group of the package as stored in the database
+     */
+    public String getPackageGroup() {
+      return packageGroup;
+    }
+
+    /**
+     * @return internal price in the database, in cents precision
+     */
+    public BigDecimal getOldPrice() {
+      return oldPrice;
+    }
+
+    /**
+     * @return internal price of the price list, in cents precision
+     */
+    public BigDecimal getNewPrice() {
+      return newPrice;
+    }
+
+    @Override
+    public String toString() {
+      return packageName + " (" + packageId + "): " + oldPrice + " -> " + newPrice;
+    }
+  }
+}
@@ -1,14 +1,23 @@
 package life.qbic.utils;
 
+import java.io.File;
 import java.math.BigDecimal;
-import java.util.HashMap;
-import java.util.Map;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicReference;
+
+import life.qbic.model.PackageGroup;
+import life.qbic.model.PriceType;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * Helps compute price modifications based on customer group and type of work package
- * 
+ * <p>
+ * The {@link PriceModifierRules} are read from the file given by qoffer.priceModifiers.file, which
+ * is checked for changes every qoffer.priceModifiers.checkIntervalMillis [10000], and default to
+ * {@link PriceModifierRules#DEFAULTS}. They are compiled into a {@link PriceModifierTable} for the
+ * current day, which is replaced as a whole when the rules change or a rule takes effect.
+ *
  * @author afriedrich
  *
  */
@@ -16,26 +25,44 @@ public class PriceModificationHelper {
 
   private static final Logger LOG = LogManager.getLogger(PriceModificationHelper.class);
 
-  // TODO should probably read these in via a config file at some point
-  static final Map<String, BigDecimal> modifiers = new HashMap<String, BigDecimal>() {
-    {
-      put("external_academicsSequencing", new BigDecimal(1.2));
-      put("external_academicsMass Spectrometry", new BigDecimal(1.2));
-      put("external_academicsBioinformatics Analysis", new BigDecimal(1.2));
-      put("external_academicsProject Management", new BigDecimal(1.2));
-
-      put("external_commercialSequencing", new BigDecimal(1.4));
-      put("external_commercialMass Spectrometry", new BigDecimal(1.4));
-      put("external_commercialBioinformatics Analysis", new BigDecimal(1.4));
-      put("external_commercialProject Management", new BigDecimal(1.4));
+  private static final ReloadingFile<PriceModifierRules> RULES = rulesFile();
+
+  private static final AtomicReference<PriceModifierTable> TABLE = new AtomicReference<>();
+
+  private static ReloadingFile<PriceModifierRules> rulesFile() {
+    String file = ConfigurationUtils.getString("qoffer.priceModifiers.file", null);
+    if (file == null) {
+      return null;
     }
-  };
+    return new ReloadingFile<>(new File(file),
+        ConfigurationUtils.getLong("qoffer.priceModifiers.checkIntervalMillis", 10000),
+        PriceModifierRules::read, PriceModifierRules.DEFAULTS);
+  }
+
+  /**
+   * @return the price modifiers in effect, compiled again first if the rules changed or a rule
+   *         took effect since they were last compiled
+   */
+  public static PriceModifierTable getTable() {
+    PriceModifierRules rules = RULES == null ? PriceModifierRules.DEFAULTS : RULES.get();
+    PriceModifierTable table = TABLE.get();
+    if (table != null && table.getRules() == rules
+        && table.isValidAt(System.currentTimeMillis())) {
+      return table;
+    }
+    PriceModifierTable compiled = rules.compile(LocalDate.now());
+    // a concurrent caller may compile the same table, either one is fine
+    TABLE.set(compiled);
+    LOG.info("compiled " + compiled);
+    return compiled;
+  }
 
   /**
    * Helps compute price modifications based on internal price, customer group and type of work
    * package. Returns the internal price if the input combination of customer and work package is
-   * unknown, meaning no price modification.
-   * 
+   * unknown, meaning no price modification. Modified prices are rounded to cents by the
+   * {@link PricingEngine}.
+   *
    * @param internal the internal price
    * @param customerGroup
    * @param packageGroup
@@ -43,13 +70,25 @@ public class PriceModificationHelper {
    */
   public static BigDecimal computePrice(BigDecimal internal, String customerGroup,
       String packageGroup) {
+    return computePrice(internal, customerGroup, packageGroup, null);
+  }
+
+  /**
+   * Same as {@link #computePrice(BigDecimal, String, String)}, taking rules for the facility of
+   * the package into account.
+   *
+   * @param packageFacility: facility of the package, may be null
+   */
+  public static BigDecimal computePrice(BigDecimal internal, String customerGroup,
+      String packageGroup, String packageFacility) {
     if (customerGroup == null || packageGroup == null) {
       return internal;
     }
-    String key = customerGroup + packageGroup;
-    BigDecimal val = modifiers.get(key);
-    if (val != null) {
-      return val.multiply(internal);
+    PriceType type = PriceType.fromCustomerGroup(customerGroup);
+    int rate = type == null ? PriceModifierTable.NO_RULE
+        : getTable().rate(type, PackageGroup.fromDatabaseValue(packageGroup), packageFacility);
+    if (rate != PriceModifierTable.NO_RULE) {
+      return PricingEngine.toBigDecimal(PricingEngine.scale(PricingEngine.toCents(internal), rate));
     } else {
       LOG.info("could not modify price because key of package group (" + packageGroup
           + ") and customer group (" + customerGroup + ") was unknown. Returning original price.");
@@ -57,6 +96,4 @@ public class PriceModificationHelper {
     }
   }
 
-
 }
-
@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.utils;
+
+import life.qbic.model.PackageGroup;
+import life.qbic.model.PriceType;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static life.qbic.utils.PriceModifierTable.GROUPS;
+import static life.qbic.utils.PriceModifierTable.NO_RULE;
+import static life.qbic.utils.PriceModifierTable.TYPES;
+
+/**
+ * Rules for computing the external prices of a package from its internal price, read from a csv
+ * file with the columns customer group, package group, facility, valid from and factor:
+ *
+ * <pre>
+ * customer_group,package_group,facility,valid_from,factor
+ * external_academic,Sequencing,,,1.2
+ * external_commercial,*,,,1.4
+ * external_academic,Sequencing,QBiC,2027-01-01,1.25
+ * </pre>
+ *
+ * An empty or "*" package group and an empty facility match any; an empty valid from date means
+ * always. Of the rules in effect for a price type, package group and facility, the one for the
+ * facility beats the one for any facility, then the one for the package group beats the one for
+ * any group, then the one which took effect last, then the one further down in the file.
+ * Immutable; {@link #compile(LocalDate)} turns the rules into a {@link PriceModifierTable}.
+ */
+public final class PriceModifierRules {
+
+  /**
+   * the modifiers used before they could be configured: +20% for academic and +40% for
+   * commercial customers, nothing for packages of the group Other
+   */
+  public static final PriceModifierRules DEFAULTS;
+
+  static {
+    try {
+      DEFAULTS = read(new StringReader("external_academic,Sequencing,,,1.2\n"
+          + "external_academic,Mass Spectrometry,,,1.2\n"
+          + "external_academic,Bioinformatics Analysis,,,1.2\n"
+          + "external_academic,Project Management,,,1.2\n"
+          + "external_commercial,Sequencing,,,1.4\n"
+          + "external_commercial,Mass Spectrometry,,,1.4\n"
+          + "external_commercial,Bioinformatics Analysis,,,1.4\n"
+          + "external_commercial,Project Management,,,1.4\n"));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private final List<Rule> rules;
+
+  private PriceModifierRules(List<Rule> rules) {
+    this.rules = Collections.unmodifiableList(rules);
+  }
+
+  /**
+   * @throws IOException if the rules can not be read or a line is malformed, the message names
+   *         the line
+   */
+  public static PriceModifierRules read(Reader reader) throws IOException {
+    BufferedReader lines =
+        reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    List<Rule> rules = new ArrayList<>();
+    int lineNumber = 0;
+    String line;
+    while ((line = lines.readLine()) != null) {
+      lineNumber++;
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#") || line.startsWith("customer_group")) {
+        continue;
+      }
+      try {
+        rules.add(parse(line.split(",", -1), rules.size()));
+      } catch (IllegalArgumentException | DateTimeParseException e) {
+        throw new IOException("line " + lineNumber + " (" + line + "): " + e.getMessage(), e);
+      }
+    }
+    return new PriceModifierRules(rules);
+  }
+
+  private static Rule parse(String[] fields, int order) {
+    if (fields.length != 5) {
+      throw new IllegalArgumentException(
+          "expected customer_group,package_group,facility,valid_from,factor");
+    }
+    PriceType type = PriceType.fromCustomerGroup(fields[0].trim());
+    if (type == null || type == PriceType.INTERNAL) {
+      throw new IllegalArgumentException("unknown customer group " + fields[0].trim()
+          + ", expected external_academic or external_commercial");
+    }
+    PackageGroup group = null;
+    String groupName = fields[1].trim();
+    if (!groupName.isEmpty() && !groupName.equals("*")) {
+      group = PackageGroup.fromDatabaseValue(groupName);
+      if (group == null) {
+        throw new IllegalArgumentException(
+            "unknown package group " + groupName + ", expected one of " + Arrays.toString(GROUPS));
+      }
+    }
+    String facility = fields[2].trim().isEmpty() ? null
+        : PriceModifierTable.normalizeFacility(fields[2]);
+    LocalDate validFrom = fields[3].trim().isEmpty() ? null : LocalDate.parse(fields[3].trim());
+    int rate = PricingEngine.parseRate(fields[4]);
+    if (rate < 0) {
+      throw new IllegalArgumentException("negative factor " + fields[4].trim());
+    }
+    return new Rule(type, group, facility, validFrom, rate, order);
+  }
+
+  /**
+   * @param date: day for which the rules in effect are compiled
+   */
+  public PriceModifierTable compile(LocalDate date) {
+    List<Rule> effective = new ArrayList<>();
+    LocalDate nextChange = null;
+    Map<String, Integer> facilitySlots = new HashMap<>();
+    List<String> facilities = new ArrayList<>();
+    facilities.add(null);
+    for (Rule rule : rules) {
+      if (rule.validFrom != null && rule.validFrom.isAfter(date)) {
+        if (nextChange == null || rule.validFrom.isBefore(nextChange)) {
+          nextChange = rule.validFrom;
+        }
+        continue;
+      }
+      effective.add(rule);
+      if (rule.facility != null && !facilitySlots.containsKey(rule.facility)) {
+        facilitySlots.put(rule.facility, facilities.size());
+        facilities.add(rule.facility);
+      }
+    }
+
+    int[] rates = new int[facilities.size() * GROUPS.length * TYPES.length];
+    int cell = 0;
+    for (String facility : facilities) {
+      for (PackageGroup group : GROUPS) {
+        for (PriceType type : TYPES) {
+          rates[cell++] = type == PriceType.INTERNAL ? PricingEngine.BASIS_POINTS
+              : rateOf(best(effective, type, group, facility));
+        }
+      }
+    }
+    long validUntil = nextChange == null ? Long.MAX_VALUE
+        : nextChange.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    return new PriceModifierTable(rates, facilitySlots, this, date, validUntil);
+  }
+
+  private static int rateOf(Rule rule) {
+    return rule == null ? NO_RULE : rule.rate;
+  }
+
+  private static Rule best(List<Rule> rules, PriceType type, PackageGroup group,
+      String facility) {
+    Rule best = null;
+    for (Rule rule : rules) {
+      if (rule.type == type && (rule.group == null || rule.group == group)
+          && (rule.facility == null || rule.facility.equals(facility))
+          && (best == null || rule.beats(best))) {
+        best = rule;
+      }
+    }
+    return best;
+  }
+
+  public int size() {
+    return rules.size();
+  }
+
+  @Override
+  public String toString() {
+    return rules.size() + " price modifier rules";
+  }
+
+  /**
+   * one line of the rules
+   */
+  private static final class Rule {
+
+    private final PriceType type;
+    // null for any
+    private final PackageGroup group;
+    private final String facility;
+    private final LocalDate validFrom;
+    private final int rate;
+    private final int order;
+
+    private Rule(PriceType type, PackageGroup group, String facility, LocalDate validFrom,
+        int rate, int order) {
+      this.type = type;
+      this.group = group;
+      this.facility = facility;
+      this.validFrom = validFrom;
+      this.rate = rate;
+      this.order = order;
+    }
+
+    // whether this rule is more specific than the other, which matches as well
+    private boolean beats(Rule other) {
+      if ((facility != null) != (other.facility != null)) {
+        return facility != null;
+      }
+      if ((group != null) != (other.group != null)) {
+        return group != null;
+      }
+      if (validFrom != null && (other.validFrom == null || validFrom.isAfter(other.validFrom))) {
+        return true;
+      }
+      if (other.validFrom != null && (validFrom == null || other.validFrom.isAfter(validFrom))) {
+        return false;
+      }
+      return order > other.order;
+    }
+  }
+}
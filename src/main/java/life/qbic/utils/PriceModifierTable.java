@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.utils;
+
+import life.qbic.model.PackageGroup;
+import life.qbic.model.PriceType;
+
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * {@link PriceModifierRules} compiled for one day: the rate of every price type for every package
+ * group and facility with own rules, in one int array indexed by the enum ordinals. Immutable.
+ * <p>
+ * A row holds the rates of all price types for one package group and facility slot; slot 0 holds
+ * the rules for any facility, the other slots the facilities with own rules.
+ */
+public final class PriceModifierTable {
+
+  /**
+   * rate of a price type without a rule
+   */
+  public static final int NO_RULE = -1;
+
+  /**
+   * external price which is kept as it is, see {@link #computeExternalPrices}
+   */
+  public static final long KEEP = Long.MIN_VALUE;
+
+  static final PriceType[] TYPES = PriceType.values();
+  static final PackageGroup[] GROUPS = PackageGroup.values();
+
+  private static final int ACADEMIC = PriceType.EXTERNAL_ACADEMIC.ordinal();
+  private static final int COMMERCIAL = PriceType.EXTERNAL_COMMERCIAL.ordinal();
+
+  private final int[] rates;
+  // normalized facility -> slot
+  private final Map<String, Integer> facilitySlots;
+  private final PriceModifierRules rules;
+  private final LocalDate date;
+  private final long validUntilMillis;
+
+  PriceModifierTable(int[] rates, Map<String, Integer> facilitySlots, PriceModifierRules rules,
+      LocalDate date, long validUntilMillis) {
+    this.rates = rates;
+    this.facilitySlots = facilitySlots;
+    this.rules = rules;
+    this.date = date;
+    this.validUntilMillis = validUntilMillis;
+  }
+
+  static String normalizeFacility(String facility) {
+    return facility == null ? "" : facility.trim().toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * @param group: package group, may be null
+   * @param facility: facility of the package, may be null
+   * @return the row of the rates for the package group and facility, -1 for packages without group
+   */
+  public int row(PackageGroup group, String facility) {
+    if (group == null) {
+      return -1;
+    }
+    int slot = 0;
+    if (!facilitySlots.isEmpty() && facility != null) {
+      Integer facilitySlot = facilitySlots.get(normalizeFacility(facility));
+      if (facilitySlot != null) {
+        slot = facilitySlot;
+      }
+    }
+    return (slot * GROUPS.length + group.ordinal()) * TYPES.length;
+  }
+
+  /**
+   * @return the rate in basis points of the internal price, {@link #NO_RULE} if there is none
+   */
+  public int rate(PriceType type, PackageGroup group, String facility) {
+    int row = row(group, facility);
+    return row < 0 ? NO_RULE : rates[row + type.ordinal()];
+  }
+
+  /**
+   * Computes the external prices of many packages at once.
+   *
+   * @param internal: internal prices in cents
+   * @param rows: rows of the packages as returned by {@link #row}
+   * @param academic: receives the external academic prices in cents, {@link #KEEP} if there is
+   *        no rule
+   * @param commercial: receives the external commercial prices, like academic
+   */
+  public void computeExternalPrices(long[] internal, int[] rows, long[] academic,
+      long[] commercial) {
+    for (int i = 0; i < internal.length; i++) {
+      int row = rows[i];
+      if (row < 0) {
+        academic[i] = KEEP;
+        commercial[i] = KEEP;
+        continue;
+      }
+      int academicRate = rates[row + ACADEMIC];
+      int commercialRate = rates[row + COMMERCIAL];
+      academic[i] = academicRate == NO_RULE ? KEEP : PricingEngine.scale(internal[i], academicRate);
+      commercial[i] =
+          commercialRate == NO_RULE ? KEEP : PricingEngine.scale(internal[i], commercialRate);
+    }
+  }
+
+  /**
+   * @return the rules the table was compiled from
+   */
+  public PriceModifierRules getRules() {
+    return rules;
+  }
+
+  /**
+   * @return the day the table was compiled for
+   */
+  public LocalDate getDate() {
+    return date;
+  }
+
+  /**
+   * @return whether no rule takes effect or ends until the given time
+   */
+  public boolean isValidAt(long epochMillis) {
+    return epochMillis < validUntilMillis;
+  }
+
+  @Override
+  public String toString() {
+    return "price modifiers of " + date + " (" + rules + ", " + facilitySlots.size()
+        + " facilities with own rules)";
+  }
+}
@@ -0,0 +1,439 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.utils;
+
+import life.qbic.model.PriceType;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+/**
+ * Computes the prices of offers in cents, held in longs, and rates in basis points, held in ints
+ * (10000 basis points are 100%, a discount of "18%" is 1800).
+ * <p>
+ * Every result is rounded once, half away from zero, to whole cents:
+ * <ul>
+ * <li>line total = unit price * quantity * (100% - line discount)</li>
+ * <li>discounted unit price = unit price * (100% - line discount), only shown in the offer</li>
+ * <li>offer price = sum of the line totals</li>
+ * <li>offer total = offer price * (100% - offer discount)</li>
+ * </ul>
+ * The intermediate products are exact, so the line total does not depend on the rounded
+ * discounted unit price. Values only become {@link BigDecimal}s or strings at the boundaries, i.e.
+ * when they are read from or written to the database or shown to the user.
+ */
+public final class PricingEngine {
+
+  /**
+   * 100% in basis points
+   */
+  public static final int BASIS_POINTS = 10000;
+
+  private PricingEngine() {}
+
+  /**
+   * @param value: price from the database (FLOAT, DOUBLE or DECIMAL column) or a container
+   * @return the price in cents, rounded half up; 0 for null
+   */
+  public static long toCents(Object value) {
+    if (value == null) {
+      return 0;
+    }
+    if (value instanceof BigDecimal) {
+      return ((BigDecimal) value).setScale(2, RoundingMode.HALF_UP).unscaledValue()
+          .longValueExact();
+    }
+    if (value instanceof Integer || value instanceof Long || value instanceof Short) {
+      return Math.multiplyExact(((Number) value).longValue(), 100);
+    }
+    if (value instanceof Number) {
+      // a float like 19.99f is 19.9899997..., it is the nearest cent which is meant
+      return Math.round(((Number) value).doubleValue() * 100);
+    }
+    return parseCents(value.toString());
+  }
+
+  /**
+   * @param cents: amount in cents
+   * @return the amount with two decimal places, e.g. 1234.50
+   */
+  public static BigDecimal toBigDecimal(long cents) {
+    return BigDecimal.valueOf(cents, 2);
+  }
+
+  /**
+   * parses an amount like "1234.5", "-3" or "0.125" (rounded half up to 0.13)
+   *
+   * @throws NumberFormatException if the text is not a plain decimal number
+   */
+  public static long parseCents(CharSequence text) {
+    int start = 0;
+    int end = text.length();
+    while (start < end && text.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && text.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    return parseScaled(text, start, end, 2);
+  }
+
+  /**
+   * parses a percentage like "18%", "2.5%" or "18" into basis points
+   *
+   * @return the basis points, 0 for null and empty text
+   * @throws NumberFormatException if the text is not a plain decimal number
+   */
+  public static int parsePercent(CharSequence text) {
+    if (text == null) {
+      return 0;
+    }
+    int start = 0;
+    int end = text.length();
+    while (start < end && text.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && (text.charAt(end - 1) <= ' ' || text.charAt(end - 1) == '%')) {
+      end--;
+    }
+    if (start == end) {
+      return 0;
+    }
+    return Math.toIntExact(parseScaled(text, start, end, 2));
+  }
+
+  /**
+   * parses a price factor like "1.2" into basis points (12000)
+   *
+   * @throws NumberFormatException if the text is not a plain decimal number
+   */
+  public static int parseRate(CharSequence text) {
+    int start = 0;
+    int end = text.length();
+    while (start < end && text.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && text.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    return Math.toIntExact(parseScaled(text, start, end, 4));
+  }
+
+  // parses the decimal number in text[start, end) scaled by 10^scale, rounding half up
+  private static long parseScaled(CharSequence text, int start, int end, int scale) {
+    int i = start;
+    boolean negative = false;
+    if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+      negative = text.charAt(i) == '-';
+      i++;
+    }
+    long value = 0;
+    int digits = 0;
+    int fractionDigits = -1;
+    boolean roundUp = false;
+    for (; i < end; i++) {
+      char c = text.charAt(i);
+      if (c == '.' && fractionDigits < 0) {
+        fractionDigits = 0;
+      } else if (c >= '0' && c <= '9') {
+        digits++;
+        if (fractionDigits < 0 || fractionDigits < scale) {
+          value = Math.addExact(Math.multiplyExact(value, 10), c - '0');
+          if (fractionDigits >= 0) {
+            fractionDigits++;
+          }
+        } else if (fractionDigits == scale) {
+          roundUp = c >= '5';
+          fractionDigits++;
+        }
+      } else {
+        throw new NumberFormatException("not a decimal number: \"" + text + "\"");
+      }
+    }
+    if (digits == 0) {
+      throw new NumberFormatException("not a decimal number: \"" + text + "\"");
+    }
+    for (int f = Math.max(fractionDigits, 0); f < scale; f++) {
+      value = Math.multiplyExact(value, 10);
+    }
+    if (roundUp) {
+      value++;
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * @param factor: price factor of the discount_per_sample_size.csv, e.g. 0.82
+   * @return the discount in basis points, e.g. 1800
+   */
+  public static int discountOfFactor(double factor) {
+    return (int) Math.round((1 - factor) * BASIS_POINTS);
+  }
+
+  /**
+   * @return cents * rate, rounded half away from zero, e.g. a rate of 12000 adds 20%
+   */
+  public static long scale(long cents, int rate) {
+    return divideRounded(Math.multiplyExact(cents, rate), BASIS_POINTS);
+  }
+
+  /**
+   * @return the amount after subtracting the discount, rounded half away from zero
+   */
+  public static long applyDiscount(long cents, int discount) {
+    return scale(cents, BASIS_POINTS - discount);
+  }
+
+  /**
+   * @return unit price * quantity * (100% - discount), rounded once
+   */
+  public static long lineTotal(long unitCents, int quantity, int discount) {
+    return applyDiscount(Math.multiplyExact(unitCents, quantity), discount);
+  }
+
+  private static long divideRounded(long dividend, long divisor) {
+    long half = divisor / 2;
+    return dividend >= 0 ? (dividend + half) / divisor : -((-dividend + half) / divisor);
+  }
+
+  /**
+   * @return the amount with two decimal places and without grouping, e.g. "-1234.05"
+   */
+  public static String formatCents(long cents) {
+    return appendCents(new StringBuilder(24), cents).toString();
+  }
+
+  /**
+   * appends the amount like {@link #formatCents(long)} does
+   */
+  public static StringBuilder appendCents(StringBuilder out, long cents) {
+    if (cents < 0) {
+      out.append('-');
+    }
+    long abs = Math.abs(cents);
+    long fraction = abs % 100;
+    out.append(abs / 100).append('.');
+    if (fraction < 10) {
+      out.append('0');
+    }
+    return out.append(fraction);
+  }
+
+  /**
+   * @return the rate as stored in package_discount and discount, e.g. "18%" or "2.5%"
+   */
+  public static String formatPercent(int basisPoints) {
+    StringBuilder out = new StringBuilder(8);
+    if (basisPoints < 0) {
+      out.append('-');
+    }
+    int abs = Math.abs(basisPoints);
+    out.append(abs / 100);
+    int fraction = abs % 100;
+    if (fraction != 0) {
+      out.append('.').append(fraction / 10);
+      if (fraction % 10 != 0) {
+        out.append(fraction % 10);
+      }
+    }
+    return out.append('%').toString();
+  }
+
+  /**
+   * Prices all lines of an offer in one call. The lines are kept in parallel arrays which grow as
+   * needed and are kept after {@link #clear()}, so an instance can price offer after offer without
+   * allocating. Not thread safe.
+   */
+  public static final class OfferPricing {
+
+    /**
+     * discount of a line which is taken from the {@link SampleSizeDiscounts} by its quantity
+     */
+    public static final int SAMPLE_SIZE_DISCOUNT = Integer.MIN_VALUE;
+
+    private static final PriceType[] TYPES = PriceType.values();
+    private static final int PRICE_TYPES = TYPES.length;
+
+    private int size;
+    private long[] prices;
+    private byte[] priceTypes;
+    private int[] quantities;
+    private int[] discounts;
+    private long[] discountedUnitPrices;
+    private long[] lineTotals;
+    private long offerPrice;
+    private long offerTotal;
+
+    public OfferPricing() {
+      this(16);
+    }
+
+    public OfferPricing(int capacity) {
+      capacity = Math.max(1, capacity);
+      prices = new long[capacity * PRICE_TYPES];
+      priceTypes = new byte[capacity];
+      quantities = new int[capacity];
+      discounts = new int[capacity];
+      discountedUnitPrices = new long[capacity];
+      lineTotals = new long[capacity];
+    }
+
+    /**
+     * removes all lines
+     */
+    public void clear() {
+      size = 0;
+      offerPrice = 0;
+      offerTotal = 0;
+    }
+
+    /**
+     * adds a line with the prices of the package for all price types
+     *
+     * @param internal: internal price in cents
+     * @param externalAcademic: external academic price in cents
+     * @param externalCommercial: external commercial price in cents
+     * @param priceType: price type of the line
+     * @param quantity: number of packages
+     * @param discount: discount in basis points or {@link #SAMPLE_SIZE_DISCOUNT}
+     * @return index of the line
+     */
+    public int addLine(long internal, long externalAcademic, long externalCommercial,
+        PriceType priceType, int quantity, int discount) {
+      if (size == quantities.length) {
+        grow();
+      }
+      int line = size++;
+      int offset = line * PRICE_TYPES;
+      prices[offset + PriceType.INTERNAL.ordinal()] = internal;
+      prices[offset + PriceType.EXTERNAL_ACADEMIC.ordinal()] = externalAcademic;
+      prices[offset + PriceType.EXTERNAL_COMMERCIAL.ordinal()] = externalCommercial;
+      priceTypes[line] = (byte) priceType.ordinal();
+      quantities[line] = quantity;
+      discounts[line] = discount;
+      return line;
+    }
+
+    /**
+     * adds a line as it is stored in the database: the package prices of the packages table, the
+     * price type, quantity and discount (e.g. "18%") of the offers_packages row
+     *
+     * @return index of the line
+     * @throws NumberFormatException if the quantity or the discount is not a number
+     */
+    public int addStoredLine(Object internal, Object externalAcademic, Object externalCommercial,
+        Object priceType, Object quantity, Object discount) {
+      String count = quantity == null ? "" : quantity.toString().trim();
+      return addLine(toCents(internal), toCents(externalAcademic), toCents(externalCommercial),
+          PriceType.fromDatabaseValue(priceType), count.isEmpty() ? 0 : Integer.parseInt(count),
+          parsePercent(discount == null ? null : discount.toString()));
+    }
+
+    private void grow() {
+      int capacity = quantities.length * 2;
+      prices = Arrays.copyOf(prices, capacity * PRICE_TYPES);
+      priceTypes = Arrays.copyOf(priceTypes, capacity);
+      quantities = Arrays.copyOf(quantities, capacity);
+      discounts = Arrays.copyOf(discounts, capacity);
+      discountedUnitPrices = Arrays.copyOf(discountedUnitPrices, capacity);
+      lineTotals = Arrays.copyOf(lineTotals, capacity);
+    }
+
+    /**
+     * prices all lines and the offer
+     *
+     * @param sampleSizeDiscounts: discounts of the lines added with {@link #SAMPLE_SIZE_DISCOUNT},
+     *        may be null if there are none
+     * @param offerDiscount: discount of the whole offer in basis points
+     * @return the offer total in cents
+     */
+    public long price(SampleSizeDiscounts sampleSizeDiscounts, int offerDiscount) {
+      long sum = 0;
+      for (int line = 0; line < size; line++) {
+        if (discounts[line] == SAMPLE_SIZE_DISCOUNT) {
+          discounts[line] = sampleSizeDiscounts == null ? 0
+              : sampleSizeDiscounts.discountFor(quantities[line]);
+        }
+        long unitPrice = prices[line * PRICE_TYPES + priceTypes[line]];
+        discountedUnitPrices[line] = applyDiscount(unitPrice, discounts[line]);
+        lineTotals[line] = lineTotal(unitPrice, quantities[line], discounts[line]);
+        sum = Math.addExact(sum, lineTotals[line]);
+      }
+      offerPrice = sum;
+      offerTotal = applyDiscount(sum, offerDiscount);
+      return offerTotal;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public PriceType getPriceType(int line) {
+      return TYPES[priceTypes[checkLine(line)]];
+    }
+
+    /**
+     * @return unit price of the line for its price type, in cents
+     */
+    public long getUnitPrice(int line) {
+      return prices[checkLine(line) * PRICE_TYPES + priceTypes[line]];
+    }
+
+    /**
+     * @return discount of the line in basis points, resolved by {@link #price}
+     */
+    public int getDiscount(int line) {
+      return discounts[checkLine(line)];
+    }
+
+    /**
+     * @return unit price after the discount of the line, in cents
+     */
+    public long getDiscountedUnitPrice(int line) {
+      return discountedUnitPrices[checkLine(line)];
+    }
+
+    /**
+     * @return total price of the line, in cents
+     */
+    public long getLineTotal(int line) {
+      return lineTotals[checkLine(line)];
+    }
+
+    /**
+     * @return sum of the line totals, in cents
+     */
+    public long getOfferPrice() {
+      return offerPrice;
+    }
+
+    /**
+     * @return offer price after the offer discount, in cents
+     */
+    public long getOfferTotal() {
+      return offerTotal;
+    }
+
+    private int checkLine(int line) {
+      if (line < 0 || line >= size) {
+        throw new IndexOutOfBoundsException("line " + line + " of " + size);
+      }
+      return line;
+    }
+  }
+}
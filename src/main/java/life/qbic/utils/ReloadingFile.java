@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable value read from a configuration file, read again when the file changes.
+ * <p>
+ * At most every checkInterval a lookup checks whether the modification time or size of the file
+ * changed and then reads it again; the new value replaces the old one at once. A file which can
+ * not be read is logged and the previous value stays in use until the file changes again.
+ */
+final class ReloadingFile<T> {
+
+  private static final Logger LOG = LogManager.getLogger(ReloadingFile.class);
+
+  /**
+   * reads the value from the content of the file
+   */
+  interface Parser<T> {
+
+    /**
+     * @throws IOException if the content is malformed
+     */
+    T read(Reader reader) throws IOException;
+  }
+
+  private final File file;
+  private final long checkIntervalNanos;
+  private final Parser<T> parser;
+
+  private volatile Loaded<T> loaded;
+  private volatile long nextCheck;
+
+  private final AtomicLong reloads = new AtomicLong();
+  private final AtomicLong failedReloads = new AtomicLong();
+
+  /**
+   * reads the file right away
+   *
+   * @param fallback: value until the file has been read successfully
+   */
+  ReloadingFile(File file, long checkIntervalMillis, Parser<T> parser, T fallback) {
+    this.file = file;
+    this.checkIntervalNanos = Math.max(0, checkIntervalMillis) * 1000000L;
+    this.parser = parser;
+    loaded = read(new Loaded<>(fallback, 0, -1));
+    nextCheck = System.nanoTime() + checkIntervalNanos;
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  /**
+   * @return the current value, read again first if the file changed
+   */
+  T get() {
+    if (System.nanoTime() - nextCheck >= 0) {
+      checkForChanges();
+    }
+    return loaded.value;
+  }
+
+  /**
+   * reads the file again if it changed since it was last read, independent of the check interval
+   */
+  synchronized void checkForChanges() {
+    nextCheck = System.nanoTime() + checkIntervalNanos;
+    loaded = read(loaded);
+  }
+
+  long getReloads() {
+    return reloads.get();
+  }
+
+  long getFailedReloads() {
+    return failedReloads.get();
+  }
+
+  // reads the file if it differs from the loaded version, otherwise returns that version
+  private Loaded<T> read(Loaded<T> current) {
+    long lastModified = file.lastModified();
+    long length = file.length();
+    if (lastModified == current.lastModified && length == current.length) {
+      return current;
+    }
+    try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      Loaded<T> read = new Loaded<>(parser.read(reader), lastModified, length);
+      reloads.incrementAndGet();
+      LOG.info("read " + file + ": " + read.value);
+      return read;
+    } catch (IOException e) {
+      failedReloads.incrementAndGet();
+      LOG.error("could not read " + file + ", keeping " + current.value + ": " + e.getMessage());
+      return new Loaded<>(current.value, lastModified, length);
+    }
+  }
+
+  /**
+   * a value together with the version of the file it was read from
+   */
+  private static final class Loaded<T> {
+
+    private final T value;
+    private final long lastModified;
+    private final long length;
+
+    private Loaded(T value, long lastModified, long length) {
+      this.value = value;
+      this.lastModified = lastModified;
+      this.length = length;
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Holds the {@link SampleSizeDiscounts} of the JVM, read from the file given by
+ * qoffer.discounts.file or else from the discount_per_sample_size.csv on the classpath.
+ * <p>
+ * The table is read once and shared by all UIs. Every qoffer.discounts.checkIntervalMillis
+ * [10000] a lookup checks whether the modification time or size of the file changed and then
+ * reads it again; the new table replaces the old one at once, so a pricing never sees a partly
+ * read table. A table which can not be read is logged and the previous one stays in use. A
+ * classpath resource packed into the .war can not change and is only read once.
+ */
+public final class SampleSizeDiscountRegistry {
+
+  private static final Logger LOG = LogManager.getLogger(SampleSizeDiscountRegistry.class);
+
+  static final String RESOURCE = "discount_per_sample_size.csv";
+
+  private static final SampleSizeDiscountRegistry INSTANCE = new SampleSizeDiscountRegistry(
+      sourceFile(), ConfigurationUtils.getLong("qoffer.discounts.checkIntervalMillis", 10000));
+
+  // the watched file, null if the table is a resource packed into the .war
+  private final ReloadingFile<SampleSizeDiscounts> file;
+  private final SampleSizeDiscounts resource;
+
+  SampleSizeDiscountRegistry(File file, long checkIntervalMillis) {
+    if (file == null) {
+      this.file = null;
+      resource = readResource();
+    } else {
+      this.file = new ReloadingFile<>(file, checkIntervalMillis, SampleSizeDiscounts::read,
+          SampleSizeDiscounts.NONE);
+      resource = null;
+    }
+  }
+
+  public static SampleSizeDiscountRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  // the configured file, or the resource if it is a plain file on the classpath
+  private static File sourceFile() {
+    String configured = ConfigurationUtils.getString("qoffer.discounts.file", null);
+    if (configured != null) {
+      return new File(configured);
+    }
+    URL resource = SampleSizeDiscountRegistry.class.getClassLoader().getResource(RESOURCE);
+    if (resource != null && "file".equals(resource.getProtocol())) {
+      try {
+        return new File(resource.toURI());
+      } catch (URISyntaxException | IllegalArgumentException e) {
+        LOG.warn("could not locate " + resource + ", it is not checked for changes");
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the current table, read again first if the file changed
+   */
+  public SampleSizeDiscounts getDiscounts() {
+    return file == null ? resource : file.get();
+  }
+
+  /**
+   * @return discount in basis points for the given number of samples
+   */
+  public int discountFor(int samples) {
+    return getDiscounts().discountFor(samples);
+  }
+
+  /**
+   * reads the file again if it changed since it was last read, independent of the check interval
+   */
+  public void checkForChanges() {
+    if (file != null) {
+      file.checkForChanges();
+    }
+  }
+
+  public long getReloads() {
+    return file == null ? 0 : file.getReloads();
+  }
+
+  public long getFailedReloads() {
+    return file == null ? 0 : file.getFailedReloads();
+  }
+
+  private static SampleSizeDiscounts readResource() {
+    try (InputStream in =
+        SampleSizeDiscountRegistry.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+      if (in == null) {
+        LOG.warn(RESOURCE + " not found, there are no discounts per sample size");
+        return SampleSizeDiscounts.NONE;
+      }
+      SampleSizeDiscounts discounts =
+          SampleSizeDiscounts.read(new InputStreamReader(in, StandardCharsets.UTF_8));
+      LOG.info("read " + RESOURCE + ": " + discounts);
+      return discounts;
+    } catch (IOException e) {
+      LOG.error("could not read " + RESOURCE + ", there are no discounts per sample size: "
+          + e.getMessage());
+      return SampleSizeDiscounts.NONE;
+    }
+  }
+}
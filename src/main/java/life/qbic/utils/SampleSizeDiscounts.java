@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Discount of a package depending on the number of samples, as a step function: each step starts
+ * at a number of samples and holds until the next one, the last step is open-ended. Counts below
+ * the first step get no discount. Immutable, so a table can be shared by all pricing paths.
+ * <p>
+ * Counts up to the last step (at most {@value #DENSE_LIMIT}) are looked up in an array, larger
+ * ones by a binary search over the steps.
+ */
+public final class SampleSizeDiscounts {
+
+  static final int DENSE_LIMIT = 4096;
+
+  /**
+   * no discount for any number of samples
+   */
+  public static final SampleSizeDiscounts NONE =
+      new SampleSizeDiscounts(new int[] {1}, new int[] {0});
+
+  // first number of samples of each step, ascending, and its discount in basis points
+  private final int[] starts;
+  private final int[] discounts;
+  // discount for 0..dense.length - 1 samples
+  private final int[] dense;
+
+  private SampleSizeDiscounts(int[] starts, int[] discounts) {
+    this.starts = starts;
+    this.discounts = discounts;
+    dense = new int[Math.min(starts[starts.length - 1], DENSE_LIMIT) + 1];
+    for (int samples = 0; samples < dense.length; samples++) {
+      dense[samples] = search(samples);
+    }
+  }
+
+  /**
+   * @param factors: price factors as parsed by {@link CsvParserUtils#parseCsvFile}, the factor
+   *        for n samples at index n (index 0 is a placeholder)
+   */
+  public static SampleSizeDiscounts fromFactors(List<Float> factors) {
+    Steps steps = new Steps();
+    for (int samples = 1; samples < factors.size(); samples++) {
+      Float factor = factors.get(samples);
+      steps.add(samples, factor == null ? 0 : PricingEngine.discountOfFactor(factor));
+    }
+    return steps.build();
+  }
+
+  /**
+   * Reads a discount_per_sample_size.csv. Each line holds a number of samples and the price factor
+   * from that number on, e.g. "12,0.82", and may start with a header. Instead of a number of
+   * samples a line may hold a range "12-24", after which there is no discount up to the next line,
+   * or "100+" for an open end. Instead of a factor a line may hold the discount, e.g. "18%".
+   *
+   * @throws IOException if the table can not be read or a line is malformed, the message names
+   *         the line
+   */
+  public static SampleSizeDiscounts read(Reader reader) throws IOException {
+    BufferedReader lines =
+        reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    Steps steps = new Steps();
+    int lineNumber = 0;
+    String line;
+    while ((line = lines.readLine()) != null) {
+      lineNumber++;
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] fields = line.split(",");
+      if (lineNumber == 1 && !fields[0].trim().isEmpty()
+          && !Character.isDigit(fields[0].trim().charAt(0))) {
+        // header
+        continue;
+      }
+      try {
+        if (fields.length < 2) {
+          throw new IllegalArgumentException("expected <samples>,<factor>");
+        }
+        String samples = fields[0].trim();
+        String price = fields[1].trim();
+        int discount = price.endsWith("%") ? PricingEngine.parsePercent(price)
+            : PricingEngine.discountOfFactor(Double.parseDouble(price));
+        if (discount < 0 || discount > PricingEngine.BASIS_POINTS) {
+          throw new IllegalArgumentException("discount " + price + " is not between 0 and 100%");
+        }
+        int dash = samples.indexOf('-');
+        if (dash > 0) {
+          int from = Integer.parseInt(samples.substring(0, dash).trim());
+          int to = Integer.parseInt(samples.substring(dash + 1).trim());
+          if (to < from) {
+            throw new IllegalArgumentException("empty range " + samples);
+          }
+          steps.add(from, discount);
+          steps.end(to);
+        } else {
+          if (samples.endsWith("+")) {
+            samples = samples.substring(0, samples.length() - 1).trim();
+          }
+          steps.add(Integer.parseInt(samples), discount);
+        }
+      } catch (IllegalArgumentException e) {
+        throw new IOException("line " + lineNumber + " (" + line + "): " + e.getMessage(), e);
+      }
+    }
+    return steps.build();
+  }
+
+  /**
+   * @return discount in basis points for the given number of samples
+   */
+  public int discountFor(int samples) {
+    if (samples < dense.length) {
+      return samples < 0 ? 0 : dense[samples];
+    }
+    return search(samples);
+  }
+
+  private int search(int samples) {
+    int step = Arrays.binarySearch(starts, samples);
+    if (step < 0) {
+      // the step before the insertion point
+      step = -step - 2;
+    }
+    return step < 0 ? 0 : discounts[step];
+  }
+
+  /**
+   * @return number of samples of the last step, from which on the discount stays the same
+   */
+  public int getMaxSamples() {
+    return starts[starts.length - 1];
+  }
+
+  /**
+   * @return number of steps of the table
+   */
+  public int size() {
+    return starts.length;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder out = new StringBuilder("sample size discounts [");
+    for (int step = 0; step < starts.length; step++) {
+      if (step > 0) {
+        out.append(", ");
+      }
+      out.append(starts[step]).append("+: ").append(PricingEngine.formatPercent(discounts[step]));
+    }
+    return out.append(']').toString();
+  }
+
+  /**
+   * collects the steps in ascending order, merging steps with the same discount
+   */
+  private static final class Steps {
+
+    private int[] starts = new int[16];
+    private int[] discounts = new int[16];
+    private int size;
+    private int next = 1;
+
+    private void add(int from, int discount) {
+      if (from < next) {
+        throw new IllegalArgumentException(
+            "sample counts must be ascending, expected " + next + " or more");
+      }
+      append(from, discount);
+      next = from + 1;
+    }
+
+    // no discount after the range which ends at to, until the next step
+    private void end(int to) {
+      if (to == Integer.MAX_VALUE) {
+        return;
+      }
+      append(to + 1, 0);
+      next = to + 1;
+    }
+
+    private void append(int from, int discount) {
+      if (size > 0 && discounts[size - 1] == discount) {
+        return;
+      }
+      if (size > 0 && starts[size - 1] == from) {
+        // replaces the "no discount" after a range which the next line starts right after
+        discounts[size - 1] = discount;
+        if (size > 1 && discounts[size - 2] == discount) {
+          size--;
+        }
+        return;
+      }
+      if (size == starts.length) {
+        starts = Arrays.copyOf(starts, size * 2);
+        discounts = Arrays.copyOf(discounts, size * 2);
+      }
+      starts[size] = from;
+      discounts[size] = discount;
+      size++;
+    }
+
+    private SampleSizeDiscounts build() {
+      if (size == 0) {
+        return NONE;
+      }
+      return new SampleSizeDiscounts(Arrays.copyOf(starts, size), Arrays.copyOf(discounts, size));
+    }
+  }
+}
@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.utils;
+
+import com.vaadin.server.FileDownloader;
+import com.vaadin.server.StreamResource;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinResponse;
+import com.vaadin.server.VaadinSession;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Downloader which writes the content of the download directly into the HTTP response when the
+ * download is requested, instead of serving a file written beforehand.
+ * <p>
+ * The content is collected in memory up to qoffer.download.bufferBytes [1 MB]: content which fits
+ * is sent with its length, and a failure while writing it is answered with an error instead of a
+ * truncated file. Larger content is streamed, once the buffer is full it is passed on to the
+ * response as it is written.
+ * <p>
+ * A {@link ContentWriter} writes the content while the session is locked, like Vaadin opens the
+ * stream of a StreamResource, so it may read from containers and components. A
+ * {@link ContentPreparer} only collects what it needs while the session is locked and writes the
+ * content afterwards, so a long download does not block the UI.
+ */
+public class StreamingDownloader extends FileDownloader {
+
+  private static final long serialVersionUID = 6046437843385346617L;
+
+  private static final Logger LOG = LogManager.getLogger(StreamingDownloader.class);
+
+  private static final int BUFFER_BYTES =
+      Math.max(0, ConfigurationUtils.getInt("qoffer.download.bufferBytes", 1024 * 1024));
+
+  /**
+   * writes the content of a download
+   */
+  public interface ContentWriter extends Serializable {
+
+    void writeTo(OutputStream out) throws IOException;
+  }
+
+  /**
+   * prepares the content of a download while the session is locked
+   */
+  public interface ContentPreparer extends Serializable {
+
+    /**
+     * @return writes the content after the session has been unlocked again
+     */
+    ContentWriter prepare() throws IOException;
+  }
+
+  private String filename;
+  private String mimeType;
+  private ContentWriter writer;
+  private ContentPreparer preparer;
+
+  /**
+   * @param filename: name of the downloaded file
+   * @param mimeType: type of the content
+   * @param writer: writes the content, null if there is nothing to download yet
+   */
+  public StreamingDownloader(String filename, String mimeType, ContentWriter writer) {
+    super(placeholder(filename));
+    this.filename = filename;
+    this.mimeType = mimeType;
+    this.writer = writer;
+  }
+
+  /**
+   * @param filename: name of the downloaded file
+   * @param mimeType: type of the content
+   * @param preparer: prepares the content, which is then written without the session lock
+   */
+  public StreamingDownloader(String filename, String mimeType, ContentPreparer preparer) {
+    super(placeholder(filename));
+    this.filename = filename;
+    this.mimeType = mimeType;
+    this.preparer = preparer;
+  }
+
+  // the resource only provides the url of the download, its stream is never opened
+  private static StreamResource placeholder(String filename) {
+    return new StreamResource(() -> null, filename);
+  }
+
+  /**
+   * replaces the content of the download
+   * @param filename: name of the downloaded file
+   * @param writer: writes the content
+   */
+  public void setContent(String filename, ContentWriter writer) {
+    this.filename = filename;
+    this.writer = writer;
+    this.preparer = null;
+    // a new url, so the browser does not use the previous download
+    setFileDownloadResource(placeholder(filename));
+  }
+
+  @Override
+  public boolean handleConnectorRequest(VaadinRequest request, VaadinResponse response,
+      String path) throws IOException {
+    if (!path.matches("dl(/.*)?")) {
+      return false;
+    }
+
+    VaadinSession session = getSession();
+    String name;
+    ContentWriter unlockedWriter = null;
+    session.lock();
+    try {
+      name = filename;
+      if (preparer != null) {
+        try {
+          unlockedWriter = preparer.prepare();
+        } catch (IOException | RuntimeException e) {
+          LOG.error("could not prepare the download " + name, e);
+          response.sendError(500, "could not create " + name);
+          return true;
+        }
+      } else if (writer == null) {
+        return false;
+      } else {
+        write(name, writer, response);
+        return true;
+      }
+    } finally {
+      session.unlock();
+    }
+    write(name, unlockedWriter, response);
+    return true;
+  }
+
+  private void write(String name, ContentWriter contentWriter, VaadinResponse response)
+      throws IOException {
+    response.setContentType(mimeType);
+    response.setCacheTime(0);
+    response.setHeader("Content-Disposition", contentDisposition(name));
+
+    long start = System.nanoTime();
+    ResponseBuffer out = new ResponseBuffer(response);
+    try {
+      contentWriter.writeTo(out);
+    } catch (IOException | RuntimeException e) {
+      if (out.isCommitted()) {
+        // the client sees the download break off
+        throw e;
+      }
+      LOG.error("could not write the download " + name, e);
+      response.sendError(500, "could not create " + name);
+      return;
+    }
+    out.finish();
+    LOG.info(String.format("download %s: %d bytes in %.1f ms (%s)", name, out.getCount(),
+        (System.nanoTime() - start) / 1e6, out.isCommitted() ? "streamed" : "buffered"));
+  }
+
+  private static String contentDisposition(String filename) {
+    String ascii = filename.replaceAll("[^\\x20-\\x7e]|\"", "_");
+    try {
+      String encoded = URLEncoder.encode(filename, "UTF-8").replace("+", "%20");
+      return "attachment; filename=\"" + ascii + "\"; filename*=utf-8''" + encoded;
+    } catch (UnsupportedEncodingException e) {
+      return "attachment; filename=\"" + ascii + "\"";
+    }
+  }
+
+  /**
+   * keeps the content in memory until the buffer is full, then passes it on to the response
+   */
+  private static final class ResponseBuffer extends OutputStream {
+
+    private final VaadinResponse response;
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private OutputStream responseStream;
+    private long count;
+
+    private ResponseBuffer(VaadinResponse response) {
+      this.response = response;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      count += len;
+      if (responseStream == null && buffer.size() + len <= BUFFER_BYTES) {
+        buffer.write(b, off, len);
+        return;
+      }
+      if (responseStream == null) {
+        responseStream = response.getOutputStream();
+        buffer.writeTo(responseStream);
+        buffer = null;
+      }
+      responseStream.write(b, off, len);
+    }
+
+    private boolean isCommitted() {
+      return responseStream != null;
+    }
+
+    private long getCount() {
+      return count;
+    }
+
+    // sends the buffered content, or the rest of the streamed content
+    private void finish() throws IOException {
+      if (responseStream == null) {
+        response.setContentLength(buffer.size());
+        OutputStream out = response.getOutputStream();
+        buffer.writeTo(out);
+        out.flush();
+      } else {
+        responseStream.flush();
+      }
+    }
+  }
+}
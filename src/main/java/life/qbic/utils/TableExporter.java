@@ -0,0 +1,387 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.utils;
+
+import com.vaadin.data.Container;
+import com.vaadin.data.sort.SortOrder;
+import com.vaadin.data.util.sqlcontainer.SQLContainer;
+import com.vaadin.data.util.sqlcontainer.query.OrderBy;
+import com.vaadin.data.util.sqlcontainer.query.QueryDelegate;
+import com.vaadin.data.util.sqlcontainer.query.TableQuery;
+import com.vaadin.data.util.sqlcontainer.query.generator.StatementHelper;
+import com.vaadin.shared.data.sort.SortDirection;
+import com.vaadin.ui.Grid;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exports the table behind a grid straight from the database: one forward-only, read only query
+ * with the filters of the container and the sort order of the grid, whose rows are written into
+ * the download as they arrive. Neither the container nor the whole table is held in memory.
+ * <p>
+ * The query uses a fetch size of qoffer.export.fetchSize [Integer.MIN_VALUE], which makes the
+ * MySQL driver stream the result row by row. The .csv files follow RFC 4180: values holding a
+ * comma, a quote or a line break are quoted, quotes are doubled, lines end with CRLF and null
+ * values are empty. The .xlsx files are written with POI's streaming workbook, which keeps only
+ * the last qoffer.export.xlsxWindow [100] rows in memory; numbers and dates become numeric and
+ * date cells, prices are shown with two decimals.
+ */
+public final class TableExporter {
+
+  private static final Logger LOG = LogManager.getLogger(TableExporter.class);
+
+  public static final String XLSX_MIME_TYPE =
+      "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+  private static final int FETCH_SIZE =
+      ConfigurationUtils.getInt("qoffer.export.fetchSize", Integer.MIN_VALUE);
+  private static final int XLSX_WINDOW =
+      Math.max(1, ConfigurationUtils.getInt("qoffer.export.xlsxWindow", 100));
+
+  private static final int XLSX_MAX_ROWS = SpreadsheetVersion.EXCEL2007.getMaxRows();
+  private static final int XLSX_MAX_TEXT_LENGTH = SpreadsheetVersion.EXCEL2007.getMaxTextLength();
+
+  private TableExporter() {}
+
+  /**
+   * receives the rows of the query one after the other
+   */
+  private interface RowWriter {
+
+    void header(ResultSetMetaData metaData) throws SQLException, IOException;
+
+    void row(ResultSet resultSet) throws SQLException, IOException;
+  }
+
+  /**
+   * Creates the content of the .csv export for a {@link StreamingDownloader}. The filters and the
+   * sort order are read each time the download is requested, while the session is locked; the
+   * query runs after the session has been unlocked again.
+   *
+   * @param dataSource: data source of the database holding the table
+   * @param container: SQLContainer of the grid, backed by a TableQuery
+   * @param grid: grid showing the container, its sort order is used
+   * @return preparer for a {@link StreamingDownloader}
+   */
+  public static StreamingDownloader.ContentPreparer csvExport(DataSource dataSource,
+      SQLContainer container, Grid grid) {
+    TableQuery query = tableQuery(container);
+    return () -> {
+      StatementHelper statement = selectStatement(query, container, grid);
+      return out -> {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        long rows = query(dataSource, query.getTableName(), statement, new CsvRowWriter(writer));
+        // the stream belongs to the caller
+        writer.flush();
+        LOG.info("exported " + rows + " rows of " + query.getTableName() + " as .csv");
+      };
+    };
+  }
+
+  /**
+   * Creates the content of the .xlsx export for a {@link StreamingDownloader}, like
+   * {@link #csvExport(DataSource, SQLContainer, Grid)}.
+   *
+   * @param dataSource: data source of the database holding the table
+   * @param container: SQLContainer of the grid, backed by a TableQuery
+   * @param grid: grid showing the container, its sort order is used
+   * @return preparer for a {@link StreamingDownloader}
+   */
+  public static StreamingDownloader.ContentPreparer xlsxExport(DataSource dataSource,
+      SQLContainer container, Grid grid) {
+    TableQuery query = tableQuery(container);
+    return () -> {
+      StatementHelper statement = selectStatement(query, container, grid);
+      return out -> writeXlsx(dataSource, query.getTableName(), statement, out);
+    };
+  }
+
+  private static TableQuery tableQuery(SQLContainer container) {
+    QueryDelegate delegate = container.getQueryDelegate();
+    if (!(delegate instanceof TableQuery)) {
+      throw new IllegalArgumentException("only containers backed by a TableQuery can be exported");
+    }
+    return (TableQuery) delegate;
+  }
+
+  // the select statement of the rows the grid shows, without paging
+  private static StatementHelper selectStatement(TableQuery query, SQLContainer container,
+      Grid grid) {
+    List<Container.Filter> filters = new ArrayList<>(container.getContainerFilters());
+    List<OrderBy> orderBys = new ArrayList<>();
+    for (SortOrder sortOrder : grid.getSortOrder()) {
+      // generated columns of the grid are not part of the table
+      if (container.getContainerPropertyIds().contains(sortOrder.getPropertyId())) {
+        orderBys.add(new OrderBy(sortOrder.getPropertyId().toString(),
+            sortOrder.getDirection() == SortDirection.ASCENDING));
+      }
+    }
+    return query.getSqlGenerator().generateSelectQuery(query.getTableName(), filters, orderBys, 0,
+        0, null);
+  }
+
+  private static long query(DataSource dataSource, String tableName, StatementHelper statement,
+      RowWriter rowWriter) throws IOException {
+    long rows = 0;
+    try (Connection connection = dataSource.getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(
+            statement.getQueryString(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+      preparedStatement.setFetchSize(FETCH_SIZE);
+      statement.setParameterValuesToStatement(preparedStatement);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        rowWriter.header(resultSet.getMetaData());
+        while (resultSet.next()) {
+          rowWriter.row(resultSet);
+          rows++;
+        }
+      }
+    } catch (SQLException e) {
+      throw new IOException("could not export " + tableName + " after " + rows + " rows", e);
+    }
+    return rows;
+  }
+
+  private static void writeXlsx(DataSource dataSource, String tableName,
+      StatementHelper statement, OutputStream out) throws IOException {
+    SXSSFWorkbook workbook = new SXSSFWorkbook(XLSX_WINDOW);
+    // the rows which left the window are kept in a temporary file
+    workbook.setCompressTempFiles(true);
+    try {
+      long rows = query(dataSource, tableName, statement, new XlsxRowWriter(workbook, tableName));
+      workbook.write(out);
+      LOG.info("exported " + rows + " rows of " + tableName + " as .xlsx");
+    } finally {
+      workbook.dispose();
+      workbook.close();
+    }
+  }
+
+  /**
+   * writes a value as field of a .csv file following RFC 4180
+   *
+   * @param writer: writer of the file
+   * @param value: the value, null is written as empty field
+   */
+  static void writeField(Writer writer, String value) throws IOException {
+    if (value == null) {
+      return;
+    }
+    boolean quote = false;
+    for (int i = 0; i < value.length() && !quote; i++) {
+      char c = value.charAt(i);
+      quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+    }
+    if (!quote) {
+      writer.write(value);
+      return;
+    }
+    writer.write('"');
+    int start = 0;
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) == '"') {
+        // the quote is written twice: once with the preceding text and once more here
+        writer.write(value, start, i + 1 - start);
+        writer.write('"');
+        start = i + 1;
+      }
+    }
+    writer.write(value, start, value.length() - start);
+    writer.write('"');
+  }
+
+  /**
+   * writes the rows as lines of a .csv file
+   */
+  private static final class CsvRowWriter implements RowWriter {
+
+    private final Writer writer;
+    private int columns;
+
+    private CsvRowWriter(Writer writer) {
+      this.writer = writer;
+    }
+
+    @Override
+    public void header(ResultSetMetaData metaData) throws SQLException, IOException {
+      columns = metaData.getColumnCount();
+      for (int column = 1; column <= columns; column++) {
+        if (column > 1) {
+          writer.write(',');
+        }
+        writeField(writer, metaData.getColumnLabel(column));
+      }
+      writer.write("\r\n");
+    }
+
+    @Override
+    public void row(ResultSet resultSet) throws SQLException, IOException {
+      for (int column = 1; column <= columns; column++) {
+        if (column > 1) {
+          writer.write(',');
+        }
+        writeField(writer, resultSet.getString(column));
+      }
+      writer.write("\r\n");
+    }
+  }
+
+  /**
+   * writes the rows into sheets of a streaming workbook, a new sheet is started whenever one is
+   * full
+   */
+  private static final class XlsxRowWriter implements RowWriter {
+
+    private enum CellKind {
+      INTEGER, DECIMAL, DATE, TEXT
+    }
+
+    private final SXSSFWorkbook workbook;
+    private final String sheetName;
+    private final CellStyle headerStyle;
+    private final CellStyle dateStyle;
+    private final CellStyle decimalStyle;
+    private List<String> labels;
+    private CellKind[] kinds;
+    private SXSSFSheet sheet;
+    private int sheets;
+    private int nextRow;
+
+    private XlsxRowWriter(SXSSFWorkbook workbook, String sheetName) {
+      this.workbook = workbook;
+      this.sheetName = sheetName;
+      headerStyle = workbook.createCellStyle();
+      Font bold = workbook.createFont();
+      bold.setBold(true);
+      headerStyle.setFont(bold);
+      dateStyle = workbook.createCellStyle();
+      dateStyle.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd hh:mm:ss"));
+      decimalStyle = workbook.createCellStyle();
+      decimalStyle.setDataFormat(workbook.createDataFormat().getFormat("#,##0.00"));
+    }
+
+    @Override
+    public void header(ResultSetMetaData metaData) throws SQLException {
+      int columns = metaData.getColumnCount();
+      labels = new ArrayList<>(columns);
+      kinds = new CellKind[columns];
+      for (int column = 1; column <= columns; column++) {
+        labels.add(metaData.getColumnLabel(column));
+        kinds[column - 1] = kindOf(metaData.getColumnType(column));
+      }
+      newSheet();
+    }
+
+    @Override
+    public void row(ResultSet resultSet) throws SQLException {
+      if (nextRow == XLSX_MAX_ROWS) {
+        newSheet();
+      }
+      Row row = sheet.createRow(nextRow++);
+      for (int column = 0; column < kinds.length; column++) {
+        switch (kinds[column]) {
+          case INTEGER:
+          case DECIMAL:
+            double number = resultSet.getDouble(column + 1);
+            if (!resultSet.wasNull()) {
+              Cell cell = row.createCell(column);
+              cell.setCellValue(number);
+              if (kinds[column] == CellKind.DECIMAL) {
+                cell.setCellStyle(decimalStyle);
+              }
+            }
+            break;
+          case DATE:
+            Timestamp date = resultSet.getTimestamp(column + 1);
+            if (date != null) {
+              Cell cell = row.createCell(column);
+              cell.setCellValue(date);
+              cell.setCellStyle(dateStyle);
+            }
+            break;
+          default:
+            String text = resultSet.getString(column + 1);
+            if (text != null) {
+              if (text.length() > XLSX_MAX_TEXT_LENGTH) {
+                LOG.warn("cut the text in column " + labels.get(column) + " of row " + nextRow
+                    + " to the length allowed in .xlsx cells");
+                text = text.substring(0, XLSX_MAX_TEXT_LENGTH);
+              }
+              row.createCell(column).setCellValue(text);
+            }
+        }
+      }
+    }
+
+    private void newSheet() {
+      sheets++;
+      sheet = workbook.createSheet(sheets == 1 ? sheetName : sheetName + " (" + sheets + ")");
+      Row header = sheet.createRow(0);
+      for (int column = 0; column < labels.size(); column++) {
+        Cell cell = header.createCell(column);
+        cell.setCellValue(labels.get(column));
+        cell.setCellStyle(headerStyle);
+      }
+      sheet.createFreezePane(0, 1);
+      nextRow = 1;
+    }
+
+    private static CellKind kindOf(int sqlType) {
+      switch (sqlType) {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+        case Types.BIGINT:
+          return CellKind.INTEGER;
+        case Types.FLOAT:
+        case Types.REAL:
+        case Types.DOUBLE:
+        case Types.NUMERIC:
+        case Types.DECIMAL:
+          return CellKind.DECIMAL;
+        case Types.DATE:
+        case Types.TIMESTAMP:
+          return CellKind.DATE;
+        default:
+          return CellKind.TEXT;
+      }
+    }
+  }
+}
@@ -0,0 +1,368 @@
+/*******************************************************************************
+ * QBiC Offer Generator provides an infrastructure for creating offers using QBiC portal and
+ * infrastructure. Copyright (C) 2018 Benjamin Sailer
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see http://www.gnu.org/licenses/.
+ *******************************************************************************/
+
+package life.qbic.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Managed storage for the files the offer manager keeps on disk, in its own subfolder qoffer of
+ * the temporary folder of the portal configuration (qOfferManager.tmpFolder), which is shared with
+ * the portal and other portlets. The storage names all its files with the prefix qoffer- and only
+ * ever touches files named like that.
+ * <p>
+ * Every file expires after its time to live (qoffer.tmp.ttlMinutes [1440] unless given otherwise)
+ * and the files together may not take more than qoffer.tmp.quotaBytes [512 MB]; above the quota
+ * the least recently used files are deleted. A background thread deletes expired files every
+ * qoffer.tmp.sweepMinutes [10]. Files of the storage found in the folder when it is first used,
+ * e.g. those left behind before a restart, are managed like the others.
+ */
+public final class TmpFolderStorage {
+
+  private static final Logger LOG = LogManager.getLogger(TmpFolderStorage.class);
+
+  private static final TmpFolderStorage INSTANCE = new TmpFolderStorage();
+
+  // subfolder of the temporary folder the files are kept in
+  private static final String SUBFOLDER = "qoffer";
+
+  // start of the name of every file of the storage
+  private static final String NAME_PREFIX = "qoffer-";
+
+  // files being written have this suffix until they are complete
+  private static final String PARTIAL_SUFFIX = ".part";
+
+  private final long quotaBytes =
+      ConfigurationUtils.getLong("qoffer.tmp.quotaBytes", 512L * 1024 * 1024);
+  private final long defaultTtlMillis =
+      TimeUnit.MINUTES.toMillis(ConfigurationUtils.getLong("qoffer.tmp.ttlMinutes", 1440));
+  private final long sweepMinutes =
+      Math.max(1, ConfigurationUtils.getLong("qoffer.tmp.sweepMinutes", 10));
+
+  // guarded by this
+  private File folder = new File(System.getProperty("java.io.tmpdir"), SUBFOLDER);
+  // file name -> file, in the order of access; guarded by this, null until the folder is scanned
+  private LinkedHashMap<String, StoredFile> files;
+  private long bytesInUse;
+
+  private final AtomicLong allocations = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong expirations = new AtomicLong();
+  private final AtomicLong evictedBytes = new AtomicLong();
+  private final AtomicLong uniqueNames = new AtomicLong();
+
+  private final ScheduledExecutorService sweeper =
+      Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "qoffer-tmp-sweeper");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private TmpFolderStorage() {
+    sweeper.scheduleWithFixedDelay(() -> {
+      try {
+        sweep();
+      } catch (RuntimeException e) {
+        LOG.warn("could not sweep the temporary folder: " + e.getMessage());
+      }
+    }, sweepMinutes, sweepMinutes, TimeUnit.MINUTES);
+  }
+
+  public static TmpFolderStorage getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Sets the temporary folder, the storage keeps its files in the subfolder qoffer of it, which is
+   * created if it does not exist. Setting the folder which is already used changes nothing.
+   * @param path: path of the temporary folder
+   */
+  public synchronized void setFolder(String path) {
+    File newFolder = new File(path, SUBFOLDER).getAbsoluteFile();
+    if (newFolder.equals(folder)) {
+      return;
+    }
+    folder = newFolder;
+    files = null;
+    bytesInUse = 0;
+    LOG.info("temporary folder is " + folder);
+  }
+
+  /**
+   * Creates a new empty file with a name no other session uses.
+   * @param prefix: start of the file name, e.g. "offers"
+   * @param suffix: end of the file name, e.g. ".csv"
+   * @return the new file; its size is only counted once it is passed to {@link #written(File)}
+   * @throws IOException if the file can not be created
+   */
+  public File allocate(String prefix, String suffix) throws IOException {
+    File directory = ensureFolder();
+    while (true) {
+      String name = managedName(prefix) + "_" + TimeUtils.getCurrentTimestampString() + "_"
+          + uniqueNames.incrementAndGet() + sanitize(suffix);
+      File file = new File(directory, name);
+      try {
+        // fails if another JVM created the file in the meantime
+        Files.createFile(file.toPath());
+      } catch (FileAlreadyExistsException e) {
+        continue;
+      }
+      allocations.incrementAndGet();
+      synchronized (this) {
+        index().put(name, new StoredFile(0, System.currentTimeMillis() + defaultTtlMillis));
+      }
+      return file;
+    }
+  }
+
+  /**
+   * Records the size of a file allocated by {@link #allocate(String, String)} after it has been
+   * written, other files are evicted if the quota is exceeded.
+   * @param file: the allocated file
+   */
+  public void written(File file) {
+    synchronized (this) {
+      StoredFile stored = index().get(file.getName());
+      if (stored != null) {
+        long size = file.length();
+        bytesInUse += size - stored.size;
+        stored.size = size;
+      }
+      evict();
+    }
+  }
+
+  /**
+   * Stores the content under the name, replacing a file with the same name. The file is complete
+   * for readers as soon as it is visible.
+   * @param name: file name, only letters, digits, '.', '_' and '-' are kept; the file on disk
+   *        starts with the prefix of the storage
+   * @param content: content of the file
+   * @param ttlMillis: time the file is kept, at most
+   * @throws IOException if the file can not be written
+   */
+  public void put(String name, byte[] content, long ttlMillis) throws IOException {
+    String fileName = managedName(name);
+    File directory = ensureFolder();
+    File partial = new File(directory,
+        fileName + "." + uniqueNames.incrementAndGet() + PARTIAL_SUFFIX);
+    Files.write(partial.toPath(), content);
+    Files.move(partial.toPath(), new File(directory, fileName).toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    allocations.incrementAndGet();
+    synchronized (this) {
+      StoredFile previous = index().put(fileName,
+          new StoredFile(content.length, System.currentTimeMillis() + ttlMillis));
+      bytesInUse += content.length - (previous == null ? 0 : previous.size);
+      evict();
+    }
+  }
+
+  /**
+   * like {@link #put(String, byte[], long)} with the default time to live
+   */
+  public void put(String name, byte[] content) throws IOException {
+    put(name, content, defaultTtlMillis);
+  }
+
+  /**
+   * @param name: file name as passed to {@link #put(String, byte[], long)}
+   * @return the content of the file, null if there is no such file or it has expired
+   */
+  public byte[] read(String name) {
+    String fileName = managedName(name);
+    File file;
+    synchronized (this) {
+      StoredFile stored = index().get(fileName);
+      if (stored == null) {
+        return null;
+      }
+      if (stored.expiresAtMillis <= System.currentTimeMillis()) {
+        remove(fileName, stored);
+        expirations.incrementAndGet();
+        return null;
+      }
+      file = new File(folder, fileName);
+    }
+    try {
+      return Files.readAllBytes(file.toPath());
+    } catch (NoSuchFileException e) {
+      // deleted by someone else
+      synchronized (this) {
+        StoredFile stored = index().get(fileName);
+        if (stored != null) {
+          remove(fileName, stored);
+        }
+      }
+      return null;
+    } catch (IOException e) {
+      LOG.warn("could not read " + file + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * @param name: file name as passed to {@link #put(String, byte[], long)} or of an allocated file
+   */
+  public synchronized void delete(String name) {
+    String fileName = managedName(name);
+    StoredFile stored = index().get(fileName);
+    if (stored != null) {
+      remove(fileName, stored);
+    }
+  }
+
+  /**
+   * deletes the expired files, this is done in the background regularly
+   */
+  public synchronized void sweep() {
+    long now = System.currentTimeMillis();
+    int expired = 0;
+    Iterator<Map.Entry<String, StoredFile>> entries = index().entrySet().iterator();
+    while (entries.hasNext()) {
+      Map.Entry<String, StoredFile> entry = entries.next();
+      if (entry.getValue().expiresAtMillis <= now) {
+        deleteFile(entry.getKey());
+        bytesInUse -= entry.getValue().size;
+        entries.remove();
+        expired++;
+      }
+    }
+    expirations.addAndGet(expired);
+    if (expired > 0) {
+      LOG.info("swept " + expired + " expired files; " + getStatistics());
+    }
+  }
+
+  public synchronized long getBytesInUse() {
+    return bytesInUse;
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  public long getExpirations() {
+    return expirations.get();
+  }
+
+  /**
+   * @return files and bytes in use, evictions because of the quota and expirations
+   */
+  public synchronized String getStatistics() {
+    return String.format("%d files, %d kB of %d kB in use, %d files stored, %d evicted (%d kB), "
+        + "%d expired", files == null ? 0 : files.size(), bytesInUse / 1024, quotaBytes / 1024,
+        allocations.get(), evictions.get(), evictedBytes.get() / 1024, expirations.get());
+  }
+
+  private synchronized File ensureFolder() throws IOException {
+    Files.createDirectories(folder.toPath());
+    index();
+    return folder;
+  }
+
+  // the files of the storage already in the folder are managed from the first use on, the oldest
+  // first; files named by others are left alone
+  private LinkedHashMap<String, StoredFile> index() {
+    if (files == null) {
+      files = new LinkedHashMap<>(16, 0.75f, true);
+      File[] existing =
+          folder.listFiles(file -> file.isFile() && file.getName().startsWith(NAME_PREFIX));
+      if (existing != null) {
+        Arrays.sort(existing, Comparator.comparingLong(File::lastModified));
+        for (File file : existing) {
+          if (file.getName().endsWith(PARTIAL_SUFFIX)) {
+            // left behind by an interrupted write
+            deleteFile(file.getName());
+            continue;
+          }
+          files.put(file.getName(),
+              new StoredFile(file.length(), file.lastModified() + defaultTtlMillis));
+          bytesInUse += file.length();
+        }
+        LOG.info("managing " + files.size() + " files in " + folder);
+      }
+      evict();
+    }
+    return files;
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<String, StoredFile>> eldest = files.entrySet().iterator();
+    while (bytesInUse > quotaBytes && eldest.hasNext()) {
+      Map.Entry<String, StoredFile> entry = eldest.next();
+      deleteFile(entry.getKey());
+      bytesInUse -= entry.getValue().size;
+      evictedBytes.addAndGet(entry.getValue().size);
+      evictions.incrementAndGet();
+      eldest.remove();
+    }
+  }
+
+  private void remove(String fileName, StoredFile stored) {
+    deleteFile(fileName);
+    bytesInUse -= stored.size;
+    files.remove(fileName);
+  }
+
+  private void deleteFile(String fileName) {
+    File file = new File(folder, fileName);
+    if (file.exists() && !file.delete()) {
+      LOG.warn("could not delete " + file);
+    }
+  }
+
+  private static String sanitize(String name) {
+    return name.replaceAll("[^A-Za-z0-9._-]", "_");
+  }
+
+  // the name of the file on disk, names of files of the storage are kept as they are
+  private static String managedName(String name) {
+    String fileName = sanitize(name);
+    return fileName.startsWith(NAME_PREFIX) ? fileName : NAME_PREFIX + fileName;
+  }
+
+  /**
+   * size and expiry of a managed file
+   */
+  private static final class StoredFile {
+
+    private long size;
+    private final long expiresAtMillis;
+
+    private StoredFile(long size, long expiresAtMillis) {
+      this.size = size;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+  }
+}
@@ -15,6 +15,7 @@
  *******************************************************************************/
 package life.qbic.utils;
 
+import life.qbic.model.OfferLine;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -28,16 +29,19 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 /**
  * This class holds several functions to modify the .xml document which holds the content for the bindings of the
  * template .docx file:
  *      - {@link XMLUtils#addRowToTable(Document, int, String, String, String, String, String)}: Adds a new row to
  *      the table within the xml document
+ *      - {@link XMLUtils#fillWorkPackagesTable(Document, List)}: Fills the table with the lines of an offer
  *      - {@link XMLUtils#removeRowInTable(Document, int)}: Removes the row with index rowIndex from the table
  *      - {@link XMLUtils#changeRowInTable(Document, int, String, String, String, String, String)}: Changes the text
  *      content of the nodes for the specified row to the provided values
@@ -49,6 +53,14 @@ import java.io.IOException;
  */
 public class XMLUtils {
 
+  // XPathExpressions are not thread safe, so every thread compiles the expression once
+  private static final ThreadLocal<XPathExpression> WORK_PACKAGES_TABLE = ThreadLocal.withInitial(() -> {
+    try {
+      return XPathFactory.newInstance().newXPath().compile("/yourxml/work_packages_table");
+    } catch (XPathExpressionException e) {
+      throw new IllegalStateException(e);
+    }
+  });
 
   /**
    * Adds a new row to the table within the xml document
@@ -61,7 +73,71 @@ public class XMLUtils {
    */
   public static void addRowToTable(Document doc, int rowIndex, String workPackageID, String workPackageName, String workPackageQuantity,
                                    String workPackageUnitPrice, String workPackageAmount, int discount, String discountedPrice) {
-    
+
+    Element rowToInsert = createRow(doc, workPackageID, workPackageName, workPackageQuantity, workPackageUnitPrice,
+        workPackageAmount, discount, discountedPrice);
+
+    // Insert the "row" into the "table"
+    insertRowToTable(doc, rowIndex, rowToInsert);
+  }
+
+  /**
+   * Fills the work packages table with one row per offer line, in the order of the lines, and removes the
+   * placeholder row of the template. Replaces calling {@link XMLUtils#addRowToTable} for every line and
+   * {@link XMLUtils#removeRowInTable(Document, int)} afterwards: the table is looked up once and every row is
+   * inserted in constant time, so the time grows linearly with the number of lines.
+   * @param doc: xml document to modify
+   * @param lines: lines of the offer
+   */
+  public static void fillWorkPackagesTable(Document doc, List<OfferLine> lines) {
+
+    Node table;
+    try {
+      table = (Node) WORK_PACKAGES_TABLE.get().evaluate(doc, XPathConstants.NODE);
+    } catch (XPathExpressionException e) {
+      e.printStackTrace();
+      return;
+    }
+    if (table == null) {
+      System.err.println("Error: No work packages table found!");
+      return;
+    }
+
+    // the rows are inserted in front of the first element of the table, like addRowToTable with rowIndex 1
+    Element firstElement = null;
+    Element placeholderRow = null;
+    for (Node child = table.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child.getNodeType() != Node.ELEMENT_NODE) {
+        continue;
+      }
+      if (firstElement == null) {
+        firstElement = (Element) child;
+      }
+      if ("row".equals(child.getNodeName())) {
+        placeholderRow = (Element) child;
+        break;
+      }
+    }
+
+    for (OfferLine line : lines) {
+      Element row = createRow(doc, line.getPackageId(), line.getName(), line.getQuantity(), line.getUnitPrice(),
+          line.getAmount(), line.getDiscount(), line.getDiscountedUnitPrice());
+      table.insertBefore(row, firstElement);
+    }
+
+    // remove the placeholder row
+    if (placeholderRow != null) {
+      table.removeChild(placeholderRow);
+    }
+  }
+
+  /**
+   * creates a row element of the work packages table
+   */
+  private static Element createRow(Document doc, String workPackageID, String workPackageName,
+                                   String workPackageQuantity, String workPackageUnitPrice, String workPackageAmount,
+                                   int discount, String discountedPrice) {
+
     // create the element we want to insert
     Element rowToInsert = doc.createElement("row");
 
@@ -96,8 +172,7 @@ public class XMLUtils {
     workPackageNumberElement.setTextContent(workPackageNumber);
     rowToInsert.appendChild(workPackageNumberElement); --> no longer within new Template*/
 
-    // Insert the "row" into the "table"
-    insertRowToTable(doc, rowIndex, rowToInsert);
+    return rowToInsert;
   }
 
   /**
@@ -16,18 +16,12 @@
 
 package life.qbic.utils;
 
-import com.vaadin.data.util.sqlcontainer.SQLContainer;
-import com.vaadin.server.FileDownloader;
-import com.vaadin.server.FileResource;
 import com.vaadin.server.FontAwesome;
 import com.vaadin.server.Page;
 import com.vaadin.shared.Position;
 import com.vaadin.ui.UI;
 import com.vaadin.ui.themes.ValoTheme;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintStream;
 import java.math.BigDecimal;
 import java.text.NumberFormat;
 import java.util.Currency;
@@ -131,71 +125,4 @@ public final class qOfferManagerUtils {
 
   }
 
-  /**
-   * returns the contents of the SQLContainer (including the header) as delimiter separated string
-   * 
-   * @param container: SQLContainer to get the data from
-   * @param delimiter: how the items should be separated, e.g. "," for .csv or "\t" for .tsv
-   * @return delimiter separated string
-   */
-  private static String getContainerContents(SQLContainer container, String delimiter) {
-
-    StringBuilder containerContents = new StringBuilder();
-
-    // write the header row
-    for (Object columnId : container.getContainerPropertyIds()) {
-      containerContents.append(columnId.toString()).append(delimiter);
-    }
-    // remove last delimiter
-    containerContents = new StringBuilder(
-        containerContents.substring(0, containerContents.length() - delimiter.length()));
-    containerContents.append("\n");
-
-    // iterate over the row ids
-    for (Object rowId : container.getItemIds()) {
-      // iterate over the column ids
-      for (Object columnId : container.getContainerPropertyIds()) {
-        try {
-          containerContents
-              .append(
-                  container.getContainerProperty(rowId, columnId.toString()).getValue().toString())
-              .append(delimiter);
-        } catch (NullPointerException e) {
-          containerContents.append("null").append(delimiter);
-        }
-      }
-      // remove last delimiter
-      containerContents = new StringBuilder(
-          containerContents.substring(0, containerContents.length() - delimiter.length()));
-      containerContents.append("\n");
-    }
-
-    return containerContents.toString();
-  }
-
-  /**
-   * creates the content for exporting the tables as .csv file
-   * 
-   * @param container: SQLContainer which should be exported as .csv
-   * @param exportFileName: filename of the .csv file
-   * @param fileDownloader: file downloader for downloading the .csv file
-   */
-  public static void createExportContent(SQLContainer container, String exportFileName,
-      FileDownloader fileDownloader) {
-    try {
-      // get the contents of the container as a comma separated string
-      String containerContents = getContainerContents(container, ",");
-
-      // write the csv file
-      try (PrintStream ps = new PrintStream(exportFileName)) {
-        ps.print(containerContents);
-      } catch (FileNotFoundException e) {
-        e.printStackTrace();
-      }
-      fileDownloader.setFileDownloadResource(new FileResource(new File(exportFileName)));
-    } catch (Exception e) {
-      throw new RuntimeException("Error exporting!", e);
-    }
-  }
-
 }
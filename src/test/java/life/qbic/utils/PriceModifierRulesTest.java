@@ -0,0 +1,104 @@
+package life.qbic.utils;
+
+import life.qbic.model.PackageGroup;
+import life.qbic.model.PriceType;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link PriceModifierRules} and {@link PriceModifierTable}.
+ */
+public class PriceModifierRulesTest {
+
+    private static final LocalDate TODAY = LocalDate.of(2026, 10, 17);
+
+    private static final String RULES = "customer_group,package_group,facility,valid_from,factor\n"
+        + "external_commercial,*,,,1.4\n"
+        + "external_academic,Sequencing,,,1.2\n"
+        + "external_academic,*,,,1.1\n"
+        + "# more for the own facility, from next year on\n"
+        + "external_academic,Sequencing,QBiC,2027-01-01,1.25\n"
+        + "external_commercial,,qbic ,,1.5\n";
+
+    @Test
+    public void defaultsKeepThePreviousModifiers() {
+        PriceModifierTable table = PriceModifierRules.DEFAULTS.compile(TODAY);
+        assertEquals(12000, table.rate(PriceType.EXTERNAL_ACADEMIC, PackageGroup.Sequencing, null));
+        assertEquals(14000,
+            table.rate(PriceType.EXTERNAL_COMMERCIAL, PackageGroup.Mass_Spectrometry, "QBiC"));
+        assertEquals(10000, table.rate(PriceType.INTERNAL, PackageGroup.Sequencing, null));
+        assertEquals(PriceModifierTable.NO_RULE,
+            table.rate(PriceType.EXTERNAL_ACADEMIC, PackageGroup.Other, null));
+        assertEquals(PriceModifierTable.NO_RULE,
+            table.rate(PriceType.EXTERNAL_ACADEMIC, null, null));
+        assertEquals(new BigDecimal("14.00"), PriceModificationHelper
+            .computePrice(BigDecimal.TEN, "external_commercial", "Bioinformatics Analysis"));
+        assertEquals(BigDecimal.TEN,
+            PriceModificationHelper.computePrice(BigDecimal.TEN, "external_commercial", "Other"));
+    }
+
+    @Test
+    public void moreSpecificAndLaterRulesWin() throws IOException {
+        PriceModifierRules rules = PriceModifierRules.read(new StringReader(RULES));
+        assertEquals(5, rules.size());
+
+        PriceModifierTable today = rules.compile(TODAY);
+        assertEquals(12000, today.rate(PriceType.EXTERNAL_ACADEMIC, PackageGroup.Sequencing, "QBiC"));
+        assertEquals(11000, today.rate(PriceType.EXTERNAL_ACADEMIC, PackageGroup.Other, null));
+        assertEquals(14000, today.rate(PriceType.EXTERNAL_COMMERCIAL, PackageGroup.Other, "CFMB"));
+        assertEquals(15000, today.rate(PriceType.EXTERNAL_COMMERCIAL, PackageGroup.Other, " QBIC"));
+
+        PriceModifierTable nextYear = rules.compile(LocalDate.of(2027, 1, 1));
+        assertEquals(12500,
+            nextYear.rate(PriceType.EXTERNAL_ACADEMIC, PackageGroup.Sequencing, "QBiC"));
+        assertEquals(12000,
+            nextYear.rate(PriceType.EXTERNAL_ACADEMIC, PackageGroup.Sequencing, "CFMB"));
+    }
+
+    @Test
+    public void tableIsValidUntilTheNextRuleTakesEffect() throws IOException {
+        PriceModifierTable table = PriceModifierRules.read(new StringReader(RULES)).compile(TODAY);
+        long newYear =
+            LocalDate.of(2027, 1, 1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        assertTrue(table.isValidAt(newYear - 1));
+        assertFalse(table.isValidAt(newYear));
+        assertTrue(PriceModifierRules.DEFAULTS.compile(TODAY).isValidAt(Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void computesExternalPricesOfManyPackages() throws IOException {
+        PriceModifierTable table = PriceModifierRules.read(new StringReader(RULES)).compile(TODAY);
+        long[] internal = {1000, 1999, 500};
+        int[] rows = {table.row(PackageGroup.Sequencing, null), table.row(PackageGroup.Other, "QBiC"),
+            table.row(null, null)};
+        long[] academic = new long[3];
+        long[] commercial = new long[3];
+        table.computeExternalPrices(internal, rows, academic, commercial);
+
+        assertEquals(1200, academic[0]);
+        assertEquals(1400, commercial[0]);
+        assertEquals(2199, academic[1]);
+        assertEquals(2999, commercial[1]);
+        assertEquals(PriceModifierTable.KEEP, academic[2]);
+        assertEquals(PriceModifierTable.KEEP, commercial[2]);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownPackageGroups() throws IOException {
+        PriceModifierRules.read(new StringReader("external_academic,Cooking,,,1.2\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsRulesForTheInternalPrice() throws IOException {
+        PriceModifierRules.read(new StringReader("internal,Sequencing,,,1.2\n"));
+    }
+}
@@ -0,0 +1,94 @@
+package life.qbic.utils;
+
+import life.qbic.model.PriceType;
+import life.qbic.utils.PricingEngine.OfferPricing;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares pricing offers with {@link PricingEngine.OfferPricing} with the previous BigDecimal
+ * path (prices as strings, discounts as floats, new BigDecimal per factor and line) for growing
+ * numbers of offer lines. Not run as a test, start it with the test classpath:
+ * java life.qbic.utils.PricingEngineBenchmark [repetitions]
+ */
+public class PricingEngineBenchmark {
+
+    private static final int[] LINE_COUNTS = {10, 50, 100, 200, 400, 800};
+
+    private static final SampleSizeDiscounts DISCOUNTS = SampleSizeDiscounts.fromFactors(factors());
+
+    // keeps the results alive, so the JIT can't drop the computations
+    private static long sink;
+
+    public static void main(String[] args) {
+        int repetitions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        OfferPricing pricing = new OfferPricing();
+
+        // warm up both code paths before measuring
+        for (int i = 0; i < repetitions; i++) {
+            bigDecimal(100);
+            engine(pricing, 100);
+        }
+
+        System.out.println(String.format("%8s %16s %16s", "lines", "BigDecimal [us]", "engine [us]"));
+        for (int count : LINE_COUNTS) {
+            long bigDecimal = 0;
+            long engine = 0;
+            for (int i = 0; i < repetitions; i++) {
+                bigDecimal += bigDecimal(count);
+                engine += engine(pricing, count);
+            }
+            System.out.println(String.format("%8d %16.1f %16.1f", count,
+                bigDecimal / 1e3 / repetitions, engine / 1e3 / repetitions));
+        }
+        System.out.println("checksum " + sink);
+    }
+
+    private static List<Float> factors() {
+        List<Float> factors = new ArrayList<>();
+        factors.add(-1.0f);
+        for (int samples = 1; samples <= 100; samples++) {
+            factors.add(1 - Math.min(samples, 50) / 200f);
+        }
+        return factors;
+    }
+
+    private static long bigDecimal(int lines) {
+        long start = System.nanoTime();
+        BigDecimal total = BigDecimal.ZERO;
+        for (int line = 0; line < lines; line++) {
+            String packagePrice = Float.toString(price(line) / 100f);
+            int packageCount = quantity(line);
+            // "18%" -> 0.82, as parsed from package_discount
+            String discount = (line % 3 == 0 ? DISCOUNTS.discountFor(packageCount) / 100 : 0) + "%";
+            float factor = (100 - Float.parseFloat(discount.split("%")[0])) / 100;
+            total = total.add(new BigDecimal(packagePrice).multiply(new BigDecimal(packageCount))
+                .multiply(new BigDecimal(factor)));
+        }
+        total = total.multiply(new BigDecimal(0.95f));
+        sink += total.longValue();
+        return System.nanoTime() - start;
+    }
+
+    private static long engine(OfferPricing pricing, int lines) {
+        long start = System.nanoTime();
+        pricing.clear();
+        for (int line = 0; line < lines; line++) {
+            long price = price(line);
+            pricing.addLine(price, price * 6 / 5, price * 7 / 5, PriceType.INTERNAL, quantity(line),
+                line % 3 == 0 ? OfferPricing.SAMPLE_SIZE_DISCOUNT : 0);
+        }
+        sink += pricing.price(DISCOUNTS, 500);
+        return System.nanoTime() - start;
+    }
+
+    private static long price(int line) {
+        return 1999 + line * 137L;
+    }
+
+    private static int quantity(int line) {
+        return 1 + line % 60;
+    }
+}
@@ -0,0 +1,122 @@
+package life.qbic.utils;
+
+import life.qbic.model.PriceType;
+import life.qbic.utils.PricingEngine.OfferPricing;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link PricingEngine}.
+ */
+public class PricingEngineTest {
+
+    @Test
+    public void parsesAmountsAndPercentages() {
+        assertEquals(123450, PricingEngine.parseCents("1234.5"));
+        assertEquals(-300, PricingEngine.parseCents(" -3 "));
+        assertEquals(13, PricingEngine.parseCents("0.125"));
+        assertEquals(12, PricingEngine.parseCents("0.1249"));
+        assertEquals(1800, PricingEngine.parsePercent("18%"));
+        assertEquals(250, PricingEngine.parsePercent("2.5 %"));
+        assertEquals(0, PricingEngine.parsePercent(""));
+        assertEquals(0, PricingEngine.parsePercent(null));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void rejectsGroupedAmounts() {
+        PricingEngine.parseCents("1,234.50");
+    }
+
+    @Test
+    public void convertsDatabaseValuesToCents() {
+        assertEquals(1999, PricingEngine.toCents(19.99f));
+        assertEquals(1999, PricingEngine.toCents(19.99d));
+        assertEquals(2000, PricingEngine.toCents(new BigDecimal("19.995")));
+        assertEquals(1900, PricingEngine.toCents(19));
+        assertEquals(0, PricingEngine.toCents(null));
+        assertEquals(new BigDecimal("19.90"), PricingEngine.toBigDecimal(1990));
+    }
+
+    @Test
+    public void formatsAmountsAndPercentages() {
+        assertEquals("1234.05", PricingEngine.formatCents(123405));
+        assertEquals("-0.50", PricingEngine.formatCents(-50));
+        assertEquals("18%", PricingEngine.formatPercent(1800));
+        assertEquals("2.5%", PricingEngine.formatPercent(250));
+        assertEquals("0.25%", PricingEngine.formatPercent(25));
+    }
+
+    @Test
+    public void roundsHalfAwayFromZeroOnce() {
+        // 3 * 0.33 * 0.5 = 0.495, rounding the unit price 0.165 first would give 0.51
+        assertEquals(50, PricingEngine.lineTotal(33, 3, 5000));
+        assertEquals(17, PricingEngine.applyDiscount(33, 5000));
+        assertEquals(-17, PricingEngine.applyDiscount(-33, 5000));
+        assertEquals(1200, PricingEngine.scale(1000, 12000));
+        // 1.2 as a double is 1.1999999999999999555910790149937...
+        assertEquals(new BigDecimal("12.00"), PriceModificationHelper
+            .computePrice(BigDecimal.TEN, "external_academics", "Sequencing"));
+    }
+
+    @Test
+    public void pricesAWholeOffer() {
+        SampleSizeDiscounts discounts =
+            SampleSizeDiscounts.fromFactors(Arrays.asList(-1.0f, 1.0f, 0.9f, 0.82f));
+        OfferPricing pricing = new OfferPricing(1);
+        pricing.addLine(10000, 12000, 14000, PriceType.INTERNAL, 2, 0);
+        pricing.addLine(10000, 12000, 14000, PriceType.EXTERNAL_ACADEMIC, 1, 1000);
+        pricing.addLine(1999, 2399, 2799, PriceType.EXTERNAL_COMMERCIAL, 3,
+            OfferPricing.SAMPLE_SIZE_DISCOUNT);
+
+        // 200.00 + 108.00 + 3 * 27.99 * 0.82 (68.8554), minus 5%
+        assertEquals(35802, pricing.price(discounts, 500));
+        assertEquals(3, pricing.size());
+        assertEquals(1800, pricing.getDiscount(2));
+        assertEquals(2295, pricing.getDiscountedUnitPrice(2));
+        assertEquals(6886, pricing.getLineTotal(2));
+        assertEquals(37686, pricing.getOfferPrice());
+        assertEquals(35802, pricing.getOfferTotal());
+
+        pricing.clear();
+        pricing.addLine(1000, 0, 0, PriceType.INTERNAL, 1, 0);
+        assertEquals(1000, pricing.price(null, 0));
+        assertEquals(1, pricing.size());
+    }
+
+    @Test
+    public void pricesStoredLinesLikeTheEditedOnes() {
+        // the repricing in the database reads the FLOAT prices and VARCHAR quantities and
+        // discounts of the rows, the UI prices the lines it edits from the package catalog
+        OfferPricing stored = new OfferPricing();
+        stored.addStoredLine(19.99f, 23.99f, 27.99f, "external_commercial", "3", "18%");
+        stored.addStoredLine(0.33f, null, null, null, " 3 ", "50%");
+        stored.addStoredLine(100f, 120f, 140f, "external_academic", "1", null);
+        stored.price(null, 250);
+
+        OfferPricing edited = new OfferPricing();
+        edited.addLine(PricingEngine.toCents(new BigDecimal("19.99")),
+            PricingEngine.toCents(new BigDecimal("23.99")),
+            PricingEngine.toCents(new BigDecimal("27.99")), PriceType.EXTERNAL_COMMERCIAL, 3,
+            PricingEngine.parsePercent("18%"));
+        edited.addLine(33, 0, 0, PriceType.INTERNAL, 3, 5000);
+        edited.addLine(10000, 12000, 14000, PriceType.EXTERNAL_ACADEMIC, 1, 0);
+        edited.price(null, 250);
+
+        for (int line = 0; line < 3; line++) {
+            assertEquals(edited.getLineTotal(line), stored.getLineTotal(line));
+        }
+        assertEquals(PricingEngine.lineTotal(2799, 3, 1800), stored.getLineTotal(0));
+        assertEquals(50, stored.getLineTotal(1));
+        assertEquals(edited.getOfferPrice(), stored.getOfferPrice());
+        assertEquals(edited.getOfferTotal(), stored.getOfferTotal());
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void rejectsStoredLinesWithoutANumericQuantity() {
+        new OfferPricing().addStoredLine(1f, 1f, 1f, "internal", "three", "0%");
+    }
+}
@@ -0,0 +1,80 @@
+package life.qbic.utils;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link SampleSizeDiscounts} and {@link SampleSizeDiscountRegistry}.
+ */
+public class SampleSizeDiscountsTest {
+
+    @Test
+    public void discountsByFactors() {
+        SampleSizeDiscounts discounts =
+            SampleSizeDiscounts.fromFactors(Arrays.asList(-1.0f, 1.0f, 0.9f, 0.82f));
+        assertEquals(0, discounts.discountFor(-1));
+        assertEquals(0, discounts.discountFor(1));
+        assertEquals(1000, discounts.discountFor(2));
+        assertEquals(1800, discounts.discountFor(3));
+        assertEquals(1800, discounts.discountFor(300));
+        assertEquals(3, discounts.getMaxSamples());
+    }
+
+    @Test
+    public void readsStepsRangesAndOpenEnds() throws IOException {
+        SampleSizeDiscounts discounts = SampleSizeDiscounts.read(new StringReader(
+            "samples,factor\n1,1\n2,1\n3,0.9\n10-19,0.8\n# none from 20 to 99\n100+,25%\n"));
+        assertEquals(0, discounts.discountFor(2));
+        assertEquals(1000, discounts.discountFor(3));
+        assertEquals(1000, discounts.discountFor(9));
+        assertEquals(2000, discounts.discountFor(10));
+        assertEquals(2000, discounts.discountFor(19));
+        assertEquals(0, discounts.discountFor(20));
+        assertEquals(2500, discounts.discountFor(100));
+        assertEquals(2500, discounts.discountFor(Integer.MAX_VALUE));
+        assertEquals(5, discounts.size());
+    }
+
+    @Test
+    public void looksUpLargeCountsBySearch() throws IOException {
+        SampleSizeDiscounts discounts =
+            SampleSizeDiscounts.read(new StringReader("1,1\n5000,0.9\n100000,0.8\n"));
+        assertEquals(0, discounts.discountFor(4999));
+        assertEquals(1000, discounts.discountFor(SampleSizeDiscounts.DENSE_LIMIT + 1000));
+        assertEquals(1000, discounts.discountFor(99999));
+        assertEquals(2000, discounts.discountFor(100000));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsDescendingSampleCounts() throws IOException {
+        SampleSizeDiscounts.read(new StringReader("5,0.9\n3,0.8\n"));
+    }
+
+    @Test
+    public void reloadsChangedFileAndKeepsTableOnErrors() throws IOException {
+        File file = File.createTempFile("discounts", ".csv");
+        try {
+            Files.write(file.toPath(), "1,1\n2,0.9\n".getBytes(StandardCharsets.UTF_8));
+            SampleSizeDiscountRegistry registry = new SampleSizeDiscountRegistry(file, 0);
+            assertEquals(1000, registry.discountFor(5));
+
+            Files.write(file.toPath(), "1,1\n2,0.75\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(2500, registry.discountFor(5));
+
+            Files.write(file.toPath(), "1,1\n2,nothing\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(2500, registry.discountFor(5));
+            assertEquals(2, registry.getReloads());
+            assertEquals(1, registry.getFailedReloads());
+        } finally {
+            file.delete();
+        }
+    }
+}
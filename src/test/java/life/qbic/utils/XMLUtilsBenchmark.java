@@ -0,0 +1,58 @@
+package life.qbic.utils;
+
+import life.qbic.model.OfferLine;
+import org.w3c.dom.Document;
+
+import java.util.List;
+
+/**
+ * Compares filling the work packages table row by row ({@link XMLUtils#addRowToTable}) with
+ * {@link XMLUtils#fillWorkPackagesTable} for growing numbers of offer lines. Not run as a test, start
+ * it with the test classpath: java life.qbic.utils.XMLUtilsBenchmark [repetitions]
+ */
+public class XMLUtilsBenchmark {
+
+    private static final int[] LINE_COUNTS = {10, 50, 100, 200, 400, 800};
+
+    public static void main(String[] args) throws Exception {
+        int repetitions = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+        // warm up both code paths before measuring
+        for (int i = 0; i < repetitions; i++) {
+            rowByRow(XMLUtilsTest.lines(100));
+            filled(XMLUtilsTest.lines(100));
+        }
+
+        System.out.println(String.format("%8s %16s %16s", "lines", "row by row [us]", "filled [us]"));
+        for (int count : LINE_COUNTS) {
+            List<OfferLine> lines = XMLUtilsTest.lines(count);
+            long rowByRow = 0;
+            long filled = 0;
+            for (int i = 0; i < repetitions; i++) {
+                rowByRow += rowByRow(lines);
+                filled += filled(lines);
+            }
+            System.out.println(String.format("%8d %16.1f %16.1f", count,
+                rowByRow / 1e3 / repetitions, filled / 1e3 / repetitions));
+        }
+    }
+
+    private static long rowByRow(List<OfferLine> lines) throws Exception {
+        Document doc = XMLUtilsTest.parseSkeleton();
+        long start = System.nanoTime();
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            OfferLine line = lines.get(i);
+            XMLUtils.addRowToTable(doc, 1, line.getPackageId(), line.getName(), line.getQuantity(),
+                line.getUnitPrice(), line.getAmount(), line.getDiscount(), line.getDiscountedUnitPrice());
+        }
+        XMLUtils.removeRowInTable(doc, lines.size());
+        return System.nanoTime() - start;
+    }
+
+    private static long filled(List<OfferLine> lines) throws Exception {
+        Document doc = XMLUtilsTest.parseSkeleton();
+        long start = System.nanoTime();
+        XMLUtils.fillWorkPackagesTable(doc, lines);
+        return System.nanoTime() - start;
+    }
+}
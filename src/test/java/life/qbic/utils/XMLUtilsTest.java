@@ -0,0 +1,68 @@
+package life.qbic.utils;
+
+import life.qbic.model.OfferLine;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link XMLUtils}.
+ */
+public class XMLUtilsTest {
+
+    static final String SKELETON = "<yourxml><client_name>client</client_name>"
+        + "<work_packages_table>"
+        + "<row><work_package_id>id</work_package_id><work_package_name>name</work_package_name>"
+        + "<work_package_quantity>1</work_package_quantity>"
+        + "<work_package_unit_price>0</work_package_unit_price>"
+        + "<work_package_amount>0</work_package_amount></row>"
+        + "</work_packages_table></yourxml>";
+
+    static Document parseSkeleton() throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .parse(new InputSource(new StringReader(SKELETON)));
+    }
+
+    static List<OfferLine> lines(int count) {
+        List<OfferLine> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add(new OfferLine(String.valueOf(i), "package " + i, String.valueOf(i + 1),
+                "EUR " + i + ".00", "EUR " + i * (i + 1) + ".00", i % 3 == 0 ? 10 : 0, "EUR " + i + ".50"));
+        }
+        return lines;
+    }
+
+    @Test
+    public void fillWorkPackagesTableMatchesAddingRowsOneByOne() throws Exception {
+        List<OfferLine> lines = lines(7);
+
+        Document expected = parseSkeleton();
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            OfferLine line = lines.get(i);
+            XMLUtils.addRowToTable(expected, 1, line.getPackageId(), line.getName(),
+                line.getQuantity(), line.getUnitPrice(), line.getAmount(), line.getDiscount(),
+                line.getDiscountedUnitPrice());
+        }
+        XMLUtils.removeRowInTable(expected, lines.size());
+
+        Document actual = parseSkeleton();
+        XMLUtils.fillWorkPackagesTable(actual, lines);
+
+        NodeList expectedRows = expected.getElementsByTagName("row");
+        NodeList actualRows = actual.getElementsByTagName("row");
+        assertEquals(lines.size(), actualRows.getLength());
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals(((Element) expectedRows.item(i)).getTextContent(),
+                ((Element) actualRows.item(i)).getTextContent());
+        }
+    }
+}